@@ -0,0 +1,21 @@
+#include <SoftwareSerial.h>
+
+// send a counter stream as fast as possible, for the stream test
+// in the terminal app. each line is the counter as 8 hex digits + '\n'.
+// wiring like SimpleBluetoothLeTerminal.ino
+SoftwareSerial BTSerial(4, 5);
+
+unsigned long counter = 0;
+
+void setup ()
+{
+  Serial.begin(9600);
+  BTSerial.begin(9600);
+}
+
+void loop ()
+{
+  char s[10];
+  sprintf(s, "%08lX\n", counter++);
+  BTSerial.write(s, 9);
+}
@@ -0,0 +1,17 @@
+#include <SoftwareSerial.h>
+
+// echo everything received from the BLE module, for the latency benchmark
+// in the terminal app. wiring like SimpleBluetoothLeTerminal.ino
+SoftwareSerial BTSerial(4, 5);
+
+void setup ()
+{
+  Serial.begin(9600);
+  BTSerial.begin(9600);
+}
+
+void loop ()
+{
+  while (BTSerial.available())
+    BTSerial.write(BTSerial.read());   // no line buffering, to not add latency
+}
@@ -0,0 +1,432 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * decide which spoken alert and vibration to give for detection, speed and traffic light inputs
+ *
+ * inputs arrive per camera frame or notification and flicker, so speaking them directly
+ * restarts the same phrase many times per second
+ *   - inputs are debounced, a change is only used when stable for the rise / fall time,
+ *     ignoring vehicle detections missing in a few frames
+ *   - the alert with the highest priority for the current state is selected. It interrupts
+ *     an alert with lower or same priority, but waits until a higher priority one is finished
+ *   - an alert is not spoken again within its minimum interval, even if the state changes,
+ *     and repeated after its repeat interval while the state persists
+ *   - traffic light state is unknown if not updated within TRAFFIC_MAX_AGE
+ *
+ * inputs are timestamped events in a lock-free queue, so camera, GATT, network and TTS threads
+ * never wait for the engine. The engine thread applies them in order and evaluates the rules,
+ * time from event to evaluation is compared with LATENCY_BUDGET. Output is called from the
+ * engine thread. Without start(), update() can be called with a fake clock, e.g. to replay
+ * an event trace deterministically.
+ */
+class AlertEngine {
+
+    static final long VEHICLE_RISE_NANOS = 200_000_000L;   // a few frames with detections
+    static final long VEHICLE_FALL_NANOS = 1_000_000_000L;
+    static final long VEHICLE_GLITCH_NANOS = 100_000_000L; // detections are often missing in single frames
+    static final long INPUT_NANOS = 300_000_000L;          // speed and traffic light
+    static final long TRAFFIC_MAX_AGE = 3_000_000_000L;
+    static final long SPEECH_TIMEOUT = 10_000_000_000L;    // if no done callback
+    static final int FAST_SPEED = 10;
+    static final long LATENCY_BUDGET = 20_000_000L;        // event to evaluation
+
+    private static final long NONE = Long.MIN_VALUE / 2;
+
+    enum Alert {
+        VEHICLE_APPROACHING("차량 접근 중입니다.", 3, 500, 2000, 3000),
+        VEHICLE_STOPPED("차량이 정지했습니다. 조심히 건너세요.", 2, 0, 4000, 8000),
+        GREEN("초록불입니다. 조심히 건너세요.", 1, 500, 4000, 8000),
+        RED("빨간불입니다.", 1, 0, 4000, 8000);
+
+        final String text;
+        final int priority;
+        final long vibrateMillis;       // 0 = no vibration
+        final long minIntervalNanos;
+        final long repeatNanos;
+
+        Alert(String text, int priority, long vibrateMillis, long minIntervalMillis, long repeatMillis) {
+            this.text = text;
+            this.priority = priority;
+            this.vibrateMillis = vibrateMillis;
+            this.minIntervalNanos = minIntervalMillis * 1_000_000L;
+            this.repeatNanos = repeatMillis * 1_000_000L;
+        }
+
+        /**
+         * fixed phrases, e.g. to pre-render
+         */
+        static String[] texts() {
+            Alert[] alerts = values();
+            String[] texts = new String[alerts.length];
+            for(int i = 0; i < alerts.length; i++)
+                texts[i] = alerts[i].text;
+            return texts;
+        }
+    }
+
+    enum Input { VEHICLE, SPEED, TRAFFIC_LIGHT, SPEECH_STARTED, SPEECH_DONE }
+
+    /**
+     * timestamped input. As trace line: millis input value, e.g. "8033.000 vehicle 1"
+     */
+    static final class Event {
+        final Input input;
+        final long nanos;           // WriteQueue.Clock time
+        final int value;            // vehicle and traffic light 0 / 1, speed
+        final String utteranceId;   // speech events, else null
+
+        Event(Input input, long nanos, int value, String utteranceId) {
+            this.input = input;
+            this.nanos = nanos;
+            this.value = value;
+            this.utteranceId = utteranceId;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%.3f %s %s", nanos / 1e6, input.name().toLowerCase(Locale.US),
+                    utteranceId != null ? utteranceId : String.valueOf(value));
+        }
+
+        static Event parse(String line) throws IOException {
+            String[] fields = line.trim().split("\\s+");
+            if(fields.length != 3)
+                throw new IOException("invalid event '" + line + "'");
+            try {
+                long nanos = Math.round(Double.parseDouble(fields[0]) * 1e6);
+                Input input = Input.valueOf(fields[1].toUpperCase(Locale.US));
+                if(input == Input.SPEECH_STARTED || input == Input.SPEECH_DONE)
+                    return new Event(input, nanos, 0, fields[2]);
+                return new Event(input, nanos, Integer.parseInt(fields[2]), null);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("invalid event '" + line + "'");
+            }
+        }
+    }
+
+    interface Output {
+        void speak(String text, String utteranceId); // flush current speech
+        void vibrate(long millis);
+    }
+
+    static class Stats {
+        long events, overBudget, spoken, repeated, interrupted, vibrations;
+        LinkMetrics.Histogram evaluation = new LinkMetrics.Histogram(); // event to evaluation
+        LinkMetrics.Histogram decision = new LinkMetrics.Histogram(); // input change to speak()
+        LinkMetrics.Histogram speech = new LinkMetrics.Histogram();   // input change to speech start
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "alerts: %d events (%d over budget), %d spoken (%d repeated, %d interrupted), %d vibrations\n" +
+                    "event to evaluation %s\nevent to speak %s\nevent to speech %s",
+                    events, overBudget, spoken, repeated, interrupted, vibrations, evaluation, decision, speech);
+        }
+    }
+
+    /**
+     * boolean input, stable value changes when raw value was the same for rise / fall time.
+     * opposite raw values shorter than glitch time do not restart the time
+     */
+    static class Debouncer {
+        private final long riseNanos, fallNanos, glitchNanos;
+        private boolean value, candidate;
+        private long candidateSince, oppositeSince = NONE;
+
+        Debouncer(long riseNanos, long fallNanos, long glitchNanos) {
+            this.riseNanos = riseNanos;
+            this.fallNanos = fallNanos;
+            this.glitchNanos = glitchNanos;
+        }
+
+        void input(boolean raw, long now) {
+            if(raw == candidate)
+                oppositeSince = NONE;
+            else if(oppositeSince == NONE)
+                oppositeSince = now;
+        }
+
+        /**
+         * @return true if stable value changed
+         */
+        boolean update(long now) {
+            if(oppositeSince != NONE && now - oppositeSince >= glitchNanos) {
+                candidate = !candidate;
+                candidateSince = oppositeSince;
+                oppositeSince = NONE;
+            }
+            if(candidate != value && now - candidateSince >= (candidate ? riseNanos : fallNanos)) {
+                value = candidate;
+                return true;
+            }
+            return false;
+        }
+
+        long deadline() {
+            long deadline = candidate == value ? Long.MAX_VALUE : candidateSince + (candidate ? riseNanos : fallNanos);
+            if(oppositeSince != NONE)
+                deadline = Math.min(deadline, oppositeSince + glitchNanos);
+            return deadline;
+        }
+
+        /**
+         * set stable value without debouncing, e.g. for first input
+         */
+        void reset(boolean raw, long now) {
+            value = candidate = raw;
+            candidateSince = now;
+            oppositeSince = NONE;
+        }
+
+        boolean get() {
+            return value;
+        }
+
+        long since() {
+            return candidateSince;
+        }
+    }
+
+    private final Output output;
+    private final WriteQueue.Clock clock;
+    private final ConcurrentLinkedQueue<Event> events = new ConcurrentLinkedQueue<>();
+    private final Debouncer vehicle = new Debouncer(VEHICLE_RISE_NANOS, VEHICLE_FALL_NANOS, VEHICLE_GLITCH_NANOS);
+    private final Debouncer fast = new Debouncer(INPUT_NANOS, INPUT_NANOS, 0);
+    private final Debouncer green = new Debouncer(INPUT_NANOS, INPUT_NANOS, 0);
+    private final long[] lastSpoken = new long[Alert.values().length];
+    private final Stats stats = new Stats();
+
+    private long trafficTime = NONE;            // last traffic light input
+    private boolean trafficKnown;
+    private Alert current;                      // for current state, null if none
+    private long currentCause;                  // time of input change causing current
+    private boolean currentSpoken;
+    private Alert speaking;                     // null if not speaking
+    private String speakingId;
+    private long speakingSince;
+    private long utterances;
+    private volatile boolean running;
+    private volatile Thread thread;
+
+    AlertEngine(Output output, WriteQueue.Clock clock) {
+        this.output = output;
+        this.clock = clock;
+        for(int i = 0; i < lastSpoken.length; i++)
+            lastSpoken[i] = NONE;
+    }
+
+    void start() {
+        running = true;
+        Thread t = new Thread(this::run, "AlertEngine");
+        t.setPriority(Thread.NORM_PRIORITY + 2); // decisions before UI work
+        thread = t;
+        t.start();
+    }
+
+    void stop() {
+        running = false;
+        Thread t = thread;
+        thread = null;
+        if(t == null)
+            return;
+        LockSupport.unpark(t);
+        if(Thread.currentThread() != t) {
+            try {
+                t.join();
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    void onVehicle(boolean detected) {
+        post(new Event(Input.VEHICLE, clock.nanoTime(), detected ? 1 : 0, null));
+    }
+
+    void onSpeed(int speed) {
+        post(new Event(Input.SPEED, clock.nanoTime(), speed, null));
+    }
+
+    void onTrafficLight(boolean isGreen) {
+        post(new Event(Input.TRAFFIC_LIGHT, clock.nanoTime(), isGreen ? 1 : 0, null));
+    }
+
+    /**
+     * call from UtteranceProgressListener
+     */
+    void onSpeechStarted(String utteranceId) {
+        post(new Event(Input.SPEECH_STARTED, clock.nanoTime(), 0, utteranceId));
+    }
+
+    void onSpeechDone(String utteranceId) {
+        post(new Event(Input.SPEECH_DONE, clock.nanoTime(), 0, utteranceId));
+    }
+
+    /**
+     * events of one input have to be posted in time order
+     */
+    void post(Event event) {
+        events.offer(event);
+        Thread t = thread;
+        if(t != null)
+            LockSupport.unpark(t);
+    }
+
+    synchronized Stats stats() {
+        Stats copy = new Stats();
+        copy.events = stats.events;
+        copy.overBudget = stats.overBudget;
+        copy.spoken = stats.spoken;
+        copy.repeated = stats.repeated;
+        copy.interrupted = stats.interrupted;
+        copy.vibrations = stats.vibrations;
+        copy.evaluation = stats.evaluation.copy();
+        copy.decision = stats.decision.copy();
+        copy.speech = stats.speech.copy();
+        return copy;
+    }
+
+    synchronized Alert getCurrent() {
+        return current;
+    }
+
+    /**
+     * apply posted events, evaluate and give output if due. Call from one thread only
+     *
+     * @return time of next required update, Long.MAX_VALUE if only after next input
+     */
+    long update() {
+        Alert alert;
+        String utteranceId;
+        synchronized (this) { // only for readers of stats and current, inputs do not lock
+            long oldest = Long.MAX_VALUE;
+            Event event;
+            while((event = events.poll()) != null) {
+                apply(event);
+                if(event.input != Input.SPEECH_STARTED && event.input != Input.SPEECH_DONE)
+                    oldest = Math.min(oldest, event.nanos);
+            }
+            long now = clock.nanoTime(); // not before events
+            long cause = NONE;
+            if(vehicle.update(now))
+                cause = Math.max(cause, vehicle.since());
+            if(fast.update(now))
+                cause = Math.max(cause, fast.since());
+            if(green.update(now))
+                cause = Math.max(cause, green.since());
+            boolean known = now - trafficTime < TRAFFIC_MAX_AGE;
+            if(known != trafficKnown) {
+                trafficKnown = known;
+                cause = Math.max(cause, known ? trafficTime : trafficTime + TRAFFIC_MAX_AGE);
+            }
+            Alert next = select();
+            if(next != current) {
+                current = next;
+                currentCause = cause != NONE ? cause : now;
+                currentSpoken = false;
+            }
+            if(oldest != Long.MAX_VALUE) {
+                long latency = clock.nanoTime() - oldest;
+                stats.evaluation.add(latency / 1000);
+                if(latency > LATENCY_BUDGET)
+                    stats.overBudget++;
+            }
+            if(speaking != null && now - speakingSince > SPEECH_TIMEOUT) {
+                speaking = null;
+                speakingId = null;
+            }
+            long deadline = Math.min(Math.min(vehicle.deadline(), fast.deadline()), green.deadline());
+            if(trafficKnown)
+                deadline = Math.min(deadline, trafficTime + TRAFFIC_MAX_AGE);
+            if(speaking != null)
+                deadline = Math.min(deadline, speakingSince + SPEECH_TIMEOUT);
+            if(current == null)
+                return deadline;
+            if(speaking != null && (currentSpoken || speaking != current && speaking.priority > current.priority))
+                return deadline; // continue after speech done
+            long due = lastSpoken[current.ordinal()] + (currentSpoken ? current.repeatNanos : current.minIntervalNanos);
+            if(now < due)
+                return Math.min(deadline, due);
+            alert = current;
+            utteranceId = alert.name() + "-" + ++utterances;
+            if(speaking != null)
+                stats.interrupted++;
+            if(currentSpoken) {
+                stats.repeated++;
+                currentCause = NONE; // latency only for first utterance after change
+            } else {
+                stats.decision.add((now - currentCause) / 1000);
+            }
+            stats.spoken++;
+            if(alert.vibrateMillis > 0)
+                stats.vibrations++;
+            lastSpoken[alert.ordinal()] = now;
+            speaking = alert;
+            speakingId = utteranceId;
+            speakingSince = now;
+            currentSpoken = true;
+        }
+        if(alert.vibrateMillis > 0)
+            output.vibrate(alert.vibrateMillis);
+        output.speak(alert.text, utteranceId);
+        return update(); // deadline while speaking
+    }
+
+    private void apply(Event event) {
+        switch(event.input) {
+            case VEHICLE:
+                stats.events++;
+                vehicle.input(event.value != 0, event.nanos);
+                break;
+            case SPEED:
+                stats.events++;
+                fast.input(event.value > FAST_SPEED, event.nanos);
+                break;
+            case TRAFFIC_LIGHT:
+                stats.events++;
+                if(!trafficKnown && (trafficTime == NONE || event.nanos - trafficTime >= TRAFFIC_MAX_AGE))
+                    green.reset(event.value != 0, event.nanos); // else first alert would be for the default red
+                else
+                    green.input(event.value != 0, event.nanos);
+                trafficTime = Math.max(trafficTime, event.nanos);
+                break;
+            case SPEECH_STARTED:
+                if(event.utteranceId.equals(speakingId) && currentCause != NONE) {
+                    stats.speech.add((event.nanos - currentCause) / 1000);
+                    currentCause = NONE;
+                }
+                break;
+            case SPEECH_DONE:
+                if(event.utteranceId.equals(speakingId)) {
+                    speaking = null;
+                    speakingId = null;
+                }
+                break;
+        }
+    }
+
+    private Alert select() {
+        if(vehicle.get())
+            return fast.get() ? Alert.VEHICLE_APPROACHING : Alert.VEHICLE_STOPPED;
+        if(trafficKnown)
+            return green.get() ? Alert.GREEN : Alert.RED;
+        return null;
+    }
+
+    private void run() {
+        while(running) {
+            long next = update();
+            if(!events.isEmpty())
+                continue; // posted during update, unpark may have been consumed
+            if(next == Long.MAX_VALUE)
+                LockSupport.park(this);
+            else if(next - clock.nanoTime() > 0)
+                LockSupport.parkNanos(this, next - clock.nanoTime());
+        }
+    }
+
+}
@@ -0,0 +1,174 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * frame of the block transfer protocol, see BlockSender and BlockReceiver
+ *
+ *   magic     1 byte   0xB7
+ *   type      1 byte   OPEN, DATA or ACK
+ *   length    2 bytes  payload length
+ *   transfer  2 bytes  transfer id
+ *   offset    4 bytes  OPEN: total size, DATA: block offset, ACK: bytes received contiguously
+ *   value     4 bytes  OPEN: block size, DATA: 0, ACK: bitmap of blocks received after offset
+ *   check     1 byte   CRC-8 of header, so a corrupted length does not stall the decoder
+ *   payload   length bytes, only for DATA
+ *   crc       4 bytes  CRC-32 of all previous bytes
+ *
+ * numbers are big endian. Frames are sent as byte stream, the Decoder resynchronizes
+ * on the magic byte after lost or corrupted data.
+ */
+class BlockFrame {
+
+    static final int MAGIC = 0xB7;
+    static final int OPEN = 1;
+    static final int DATA = 2;
+    static final int ACK = 3;
+
+    static final int HEADER_SIZE = 15;
+    static final int CRC_SIZE = 4;
+    static final int MAX_PAYLOAD = 1024;
+
+    interface Writer {
+        void write(byte[] data) throws IOException;
+    }
+
+    final int type;
+    final int transfer;
+    final long offset;
+    final int value;
+    final byte[] payload;
+
+    BlockFrame(int type, int transfer, long offset, int value, byte[] payload) {
+        this.type = type;
+        this.transfer = transfer & 0xffff;
+        this.offset = offset & 0xffffffffL;
+        this.value = value;
+        this.payload = payload;
+    }
+
+    byte[] encode() {
+        int length = payload != null ? payload.length : 0;
+        byte[] data = new byte[HEADER_SIZE + length + CRC_SIZE];
+        data[0] = (byte) MAGIC;
+        data[1] = (byte) type;
+        putShort(data, 2, length);
+        putShort(data, 4, transfer);
+        putInt(data, 6, (int) offset);
+        putInt(data, 10, value);
+        data[14] = crc8(data, 14);
+        if(length > 0)
+            System.arraycopy(payload, 0, data, HEADER_SIZE, length);
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, HEADER_SIZE + length);
+        putInt(data, HEADER_SIZE + length, (int) crc.getValue());
+        return data;
+    }
+
+    /**
+     * split byte stream into frames, dropping data until the next valid frame
+     */
+    static class Decoder {
+        private final byte[] buffer = new byte[HEADER_SIZE + MAX_PAYLOAD + CRC_SIZE];
+        private final CRC32 crc = new CRC32();
+        private int size;
+        private long crcErrors, droppedBytes;
+
+        void decode(byte[] data, List<BlockFrame> frames) {
+            int pos = 0;
+            while(pos < data.length) {
+                int length = Math.min(data.length - pos, buffer.length - size);
+                System.arraycopy(data, pos, buffer, size, length);
+                size += length;
+                pos += length;
+                parse(frames);
+            }
+        }
+
+        long getCrcErrors() {
+            return crcErrors;
+        }
+
+        long getDroppedBytes() {
+            return droppedBytes;
+        }
+
+        private void parse(List<BlockFrame> frames) {
+            while(size > 0) {
+                if((buffer[0] & 0xff) != MAGIC) {
+                    int next = 1;
+                    while(next < size && (buffer[next] & 0xff) != MAGIC)
+                        next++;
+                    drop(next);
+                    continue;
+                }
+                if(size < HEADER_SIZE)
+                    return;
+                int type = buffer[1];
+                int length = getShort(buffer, 2);
+                if(buffer[14] != crc8(buffer, 14) || type < OPEN || type > ACK
+                        || length > MAX_PAYLOAD || type != DATA && length != 0) {
+                    drop(1);
+                    continue;
+                }
+                int frameSize = HEADER_SIZE + length + CRC_SIZE;
+                if(size < frameSize)
+                    return;
+                crc.reset();
+                crc.update(buffer, 0, HEADER_SIZE + length);
+                if((int) crc.getValue() != getInt(buffer, HEADER_SIZE + length)) {
+                    crcErrors++;
+                    drop(1);
+                    continue;
+                }
+                byte[] payload = new byte[length];
+                System.arraycopy(buffer, HEADER_SIZE, payload, 0, length);
+                frames.add(new BlockFrame(type, getShort(buffer, 4), getInt(buffer, 6), getInt(buffer, 10), payload));
+                remove(frameSize);
+            }
+        }
+
+        private void drop(int count) {
+            droppedBytes += count;
+            remove(count);
+        }
+
+        private void remove(int count) {
+            System.arraycopy(buffer, count, buffer, 0, size - count);
+            size -= count;
+        }
+    }
+
+    private static byte crc8(byte[] data, int length) {
+        int crc = 0;
+        for(int i = 0; i < length; i++) {
+            crc ^= data[i] & 0xff;
+            for(int bit = 0; bit < 8; bit++)
+                crc = (crc & 0x80) != 0 ? (crc << 1 ^ 0x07) & 0xff : crc << 1 & 0xff;
+        }
+        return (byte) crc;
+    }
+
+    private static void putShort(byte[] data, int pos, int value) {
+        data[pos] = (byte) (value >> 8);
+        data[pos + 1] = (byte) value;
+    }
+
+    private static void putInt(byte[] data, int pos, int value) {
+        data[pos] = (byte) (value >> 24);
+        data[pos + 1] = (byte) (value >> 16);
+        data[pos + 2] = (byte) (value >> 8);
+        data[pos + 3] = (byte) value;
+    }
+
+    private static int getShort(byte[] data, int pos) {
+        return (data[pos] & 0xff) << 8 | (data[pos + 1] & 0xff);
+    }
+
+    private static int getInt(byte[] data, int pos) {
+        return (data[pos] & 0xff) << 24 | (data[pos + 1] & 0xff) << 16 | (data[pos + 2] & 0xff) << 8 | (data[pos + 3] & 0xff);
+    }
+
+}
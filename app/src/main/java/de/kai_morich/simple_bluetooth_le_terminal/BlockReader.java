@@ -0,0 +1,111 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * read blocks for BlockSender in a background thread, so file I/O does not block the main thread
+ *
+ *   - start() skips to the resume offset and reads blocks into a queue of queueBlocks, blocking when full
+ *   - onAvailable is called from the reader thread when a block was added to an empty queue or
+ *     reading failed, typically it posts BlockSender.onReadable() to the main thread
+ *
+ * peak memory is about (queueBlocks + BlockSender window) * block size, like FileSender.
+ */
+class BlockReader implements BlockSender.Source {
+
+    private final InputStream input;
+    private final long total;
+    private final int blockSize;
+    private final Runnable onAvailable;
+    private final ArrayBlockingQueue<byte[]> blocks;
+
+    private volatile IOException readError;
+    private volatile boolean closed;
+    private Thread reader;
+
+    BlockReader(InputStream input, long total, int blockSize, int queueBlocks, Runnable onAvailable) {
+        this.input = input;
+        this.total = total;
+        this.blockSize = blockSize;
+        this.onAvailable = onAvailable;
+        blocks = new ArrayBlockingQueue<>(queueBlocks);
+    }
+
+    @Override
+    public void start(long offset) {
+        reader = new Thread(() -> read(offset), "BlockReader");
+        reader.start();
+    }
+
+    @Override
+    public byte[] poll() throws IOException {
+        byte[] block = blocks.poll();
+        if(block == null && readError != null)
+            throw readError;
+        return block;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if(reader != null)
+            reader.interrupt();
+        try {
+            input.close(); // also unblocks pending read
+        } catch (IOException ignored) {
+        }
+        blocks.clear();
+    }
+
+    /**
+     * reader thread
+     */
+    private void read(long offset) {
+        try {
+            skip(offset);
+            for(long pos = offset; pos < total; ) {
+                byte[] block = new byte[(int) Math.min(blockSize, total - pos)];
+                readFully(block);
+                while(!blocks.offer(block, 100, TimeUnit.MILLISECONDS)) {
+                    if(closed)
+                        return;
+                }
+                pos += block.length;
+                if(blocks.size() == 1)
+                    onAvailable.run();
+            }
+        } catch (InterruptedException ignored) {
+        } catch (IOException e) {
+            if(closed)
+                return;
+            readError = e;
+            onAvailable.run();
+        }
+    }
+
+    private void readFully(byte[] data) throws IOException {
+        int pos = 0;
+        while(pos < data.length) {
+            int length = input.read(data, pos, data.length - pos);
+            if(length < 0)
+                throw new IOException("unexpected end of file");
+            pos += length;
+        }
+    }
+
+    private void skip(long count) throws IOException {
+        while(count > 0) {
+            long skipped = input.skip(count);
+            if(skipped <= 0) {
+                if(input.read() < 0)
+                    throw new IOException("unexpected end of file");
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * receiving side of the block transfer protocol, reference for device implementations
+ * and used by BlockTransferSimulation
+ *
+ *   - OPEN is acknowledged with the offset received so far, if the transfer id, size and
+ *     block size match the previous transfer, so an interrupted transfer is resumed there
+ *   - blocks are delivered in order to the sink. Up to WINDOW blocks after a missing
+ *     block are kept and reported in the ACK bitmap for selective retransmit
+ *   - every valid frame is acknowledged, frames with CRC errors are dropped by the decoder
+ */
+class BlockReceiver {
+
+    static final int WINDOW = 32; // bits in ACK bitmap
+
+    interface Sink {
+        void onData(byte[] data) throws IOException; // in order, without gaps
+        void onFinished();
+    }
+
+    private final BlockFrame.Writer writer;
+    private final Sink sink;
+    private final BlockFrame.Decoder decoder = new BlockFrame.Decoder();
+    private final ArrayList<BlockFrame> frames = new ArrayList<>();
+    private final byte[][] blocks = new byte[WINDOW][];
+    private final long[] blockNumbers = new long[WINDOW];
+
+    private int transfer = -1;
+    private long total;
+    private int blockSize;
+    private long received; // contiguous
+    private long duplicates;
+
+    BlockReceiver(BlockFrame.Writer writer, Sink sink) {
+        this.writer = writer;
+        this.sink = sink;
+    }
+
+    void onReceive(byte[] data) throws IOException {
+        frames.clear();
+        decoder.decode(data, frames);
+        for(BlockFrame frame : frames) {
+            if(frame.type == BlockFrame.OPEN)
+                onOpen(frame);
+            else if(frame.type == BlockFrame.DATA)
+                onData(frame);
+        }
+    }
+
+    long getReceived() {
+        return received;
+    }
+
+    long getDuplicates() {
+        return duplicates;
+    }
+
+    long getCrcErrors() {
+        return decoder.getCrcErrors();
+    }
+
+    private void onOpen(BlockFrame frame) throws IOException {
+        if(frame.transfer != transfer || frame.offset != total || frame.value != blockSize) {
+            if(frame.value <= 0 || frame.value > BlockFrame.MAX_PAYLOAD)
+                return;
+            transfer = frame.transfer;
+            total = frame.offset;
+            blockSize = frame.value;
+            received = 0;
+            for(int i = 0; i < WINDOW; i++)
+                blocks[i] = null;
+        }
+        ack();
+    }
+
+    private void onData(BlockFrame frame) throws IOException {
+        if(frame.transfer != transfer || frame.offset % blockSize != 0)
+            return;
+        long base = received / blockSize;
+        long block = frame.offset / blockSize;
+        if(block < base || frame.payload.length == 0 || frame.offset + frame.payload.length > total) {
+            duplicates++;
+        } else if(block == base) {
+            deliver(frame.payload);
+            for(block = base + 1; ; block++) {
+                int slot = (int) (block % WINDOW);
+                if(blocks[slot] == null || blockNumbers[slot] != block)
+                    break;
+                byte[] data = blocks[slot];
+                blocks[slot] = null;
+                deliver(data);
+            }
+        } else if(block <= base + WINDOW) {
+            int slot = (int) (block % WINDOW);
+            if(blocks[slot] != null && blockNumbers[slot] == block)
+                duplicates++;
+            blocks[slot] = frame.payload;
+            blockNumbers[slot] = block;
+        }
+        ack();
+    }
+
+    private void deliver(byte[] data) throws IOException {
+        received += data.length;
+        sink.onData(data);
+        if(received == total)
+            sink.onFinished();
+    }
+
+    private void ack() throws IOException {
+        int bitmap = 0;
+        if(blockSize > 0) {
+            long base = received / blockSize;
+            for(int i = 0; i < WINDOW; i++) {
+                long block = base + 1 + i;
+                int slot = (int) (block % WINDOW);
+                if(blocks[slot] != null && blockNumbers[slot] == block)
+                    bitmap |= 1 << i;
+            }
+        }
+        writer.write(new BlockFrame(BlockFrame.ACK, transfer, received, bitmap, null).encode());
+    }
+
+}
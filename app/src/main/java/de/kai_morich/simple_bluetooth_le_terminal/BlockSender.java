@@ -0,0 +1,300 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.io.IOException;
+
+/**
+ * sending side of the block transfer protocol, for reliable transfers over the serial link,
+ * which has no end-to-end acknowledgment, e.g. data is lost on device buffer overflow
+ *
+ *   - OPEN announces transfer id, size and block size, the receiver answers with the offset
+ *     received so far, so an interrupted transfer of the same file resumes there
+ *   - up to window blocks are sent without waiting for ACK
+ *   - an ACK contains the offset received contiguously and a bitmap of blocks received after
+ *     that offset. A missing block is retransmitted when FAST_RETRANSMIT later blocks were
+ *     received, again if still missing after timeout
+ *   - without progress within timeout, the oldest block and other missing blocks sent before
+ *     timeout are retransmitted and timeout is doubled, like the TCP retransmission timer. Timeout is derived from round trip time and variation
+ *     of blocks sent once, so data queued for transmission does not cause spurious retransmits
+ *
+ * Only window blocks are kept in memory, input is read sequentially from a Source, e.g.
+ * BlockReader in a background thread, so slow file I/O does not block the calling thread.
+ * All methods have to be called from the same thread, e.g. main thread.
+ */
+class BlockSender {
+
+    static final int BLOCK_SIZE = 128;
+    static final int WINDOW = 16;
+    static final int FAST_RETRANSMIT = 2;
+    static final int RETRIES = 10;                  // without progress
+    static final long TICK_MILLIS = 20;
+    static final long MIN_TIMEOUT = 100000000L;     // ns
+    static final long MAX_TIMEOUT = 5000000000L;    // ns
+    static final long OPEN_TIMEOUT = 1000000000L;   // ns
+
+    interface Listener {
+        void onProgress(long acknowledged, long total);
+        void onFinished(Exception e); // e null if completed
+    }
+
+    /**
+     * input in blocks of block size, the last one shorter
+     */
+    interface Source {
+        void start(long offset);            // called once, when the resume offset is known
+        byte[] poll() throws IOException;   // next block, null if not read yet, see onReadable()
+        void close();
+    }
+
+    private final int transfer;
+    private final Source source;
+    private final long total;
+    private final int blockSize;
+    private final int window;
+    private final BlockFrame.Writer writer;
+    private final GattScheduler.Timer timer;
+    private final WriteQueue.Clock clock;
+    private final Listener listener;
+    private final Runnable tickRunnable = this::onTick;
+
+    // window blocks, indexed by block number % window
+    private final byte[][] blocks;
+    private final long[] sentTime;
+    private final int[] attempts;
+    private final boolean[] selected;
+
+    private boolean opened, finished;
+    private int openAttempts, backoff;
+    private long openTime, progressTime;
+    private long base;          // acknowledged contiguously
+    private long next;          // offset of next new block
+    private long roundTrip;     // ns, moving average, 0 if unknown
+    private long roundTripVariation;
+    private long rawBytes, retransmits, startOffset;
+
+    BlockSender(int transfer, Source source, long total, int blockSize, int window,
+                BlockFrame.Writer writer, GattScheduler.Timer timer, WriteQueue.Clock clock, Listener listener) {
+        if(blockSize <= 0 || blockSize > BlockFrame.MAX_PAYLOAD || window <= 0 || window > BlockReceiver.WINDOW + 1)
+            throw new IllegalArgumentException("invalid block size or window");
+        this.transfer = transfer & 0xffff;
+        this.source = source;
+        this.total = total;
+        this.blockSize = blockSize;
+        this.window = window;
+        this.writer = writer;
+        this.timer = timer;
+        this.clock = clock;
+        this.listener = listener;
+        blocks = new byte[window][];
+        sentTime = new long[window];
+        attempts = new int[window];
+        selected = new boolean[window];
+    }
+
+    void start() {
+        sendOpen();
+        timer.schedule(tickRunnable, TICK_MILLIS);
+    }
+
+    void cancel() {
+        finish(new IOException("canceled"));
+    }
+
+    boolean isFinished() {
+        return finished;
+    }
+
+    long getAcknowledged() {
+        return base;
+    }
+
+    /**
+     * offset where transfer was resumed, 0 if started from beginning
+     */
+    long getStartOffset() {
+        return startOffset;
+    }
+
+    /**
+     * frame bytes written, including headers and retransmits
+     */
+    long getRawBytes() {
+        return rawBytes;
+    }
+
+    long getRetransmits() {
+        return retransmits;
+    }
+
+    /**
+     * source has new blocks after poll() returned null
+     */
+    void onReadable() {
+        if(finished || !opened)
+            return;
+        try {
+            fill();
+        } catch (IOException e) {
+            finish(e);
+        }
+    }
+
+    void onFrame(BlockFrame frame) {
+        if(finished || frame.type != BlockFrame.ACK || frame.transfer != transfer)
+            return;
+        try {
+            if(!opened) {
+                if(frame.offset > total || frame.offset % blockSize != 0 && frame.offset != total)
+                    throw new IOException("invalid resume offset " + frame.offset);
+                opened = true;
+                progressTime = clock.nanoTime();
+                base = next = startOffset = frame.offset;
+                source.start(base);
+            } else {
+                onAck(frame.offset, frame.value);
+            }
+            if(base >= total) {
+                listener.onProgress(base, total);
+                finish(null);
+                return;
+            }
+            fill();
+        } catch (IOException e) {
+            finish(e);
+        }
+    }
+
+    private void onAck(long offset, int bitmap) throws IOException {
+        if(offset < base || offset > next)
+            return; // late or invalid
+        long now = clock.nanoTime();
+        // round trip is sampled from the last block newly acknowledged by this ACK, if sent once,
+        // as ACK could belong to any attempt and blocks behind a gap are acknowledged late
+        long sampleTime = 0;
+        if(offset > base) {
+            for(; base < offset; base += blockSize) {
+                int slot = slot(base);
+                if(!selected[slot] && attempts[slot] == 1)
+                    sampleTime = Math.max(sampleTime, sentTime[slot]);
+                blocks[slot] = null;
+            }
+            base = offset;
+            progressTime = now;
+            backoff = 0;
+            listener.onProgress(base, total);
+        }
+        int later = 0; // selected blocks after current block
+        for(long block = (next - 1) / blockSize; block >= base / blockSize && next > base; block--) {
+            int slot = (int) (block % window);
+            int bit = (int) (block - base / blockSize - 1);
+            if(bit >= 0 && bit < BlockReceiver.WINDOW && (bitmap & (1 << bit)) != 0) {
+                if(!selected[slot] && attempts[slot] == 1)
+                    sampleTime = Math.max(sampleTime, sentTime[slot]);
+                selected[slot] = true;
+                later++;
+            } else if(!selected[slot] && later >= FAST_RETRANSMIT && (attempts[slot] == 1 || now - sentTime[slot] > timeout())) {
+                send(block * blockSize, true);
+            }
+        }
+        if(sampleTime != 0)
+            onRoundTrip(now - sampleTime);
+    }
+
+    private void onTick() {
+        if(finished)
+            return;
+        long now = clock.nanoTime();
+        try {
+            if(!opened) {
+                if(now - openTime > OPEN_TIMEOUT) {
+                    if(openAttempts > RETRIES)
+                        throw new IOException("no response");
+                    sendOpen();
+                }
+            } else if(base < next && now - progressTime > Math.min(MAX_TIMEOUT, timeout() << backoff)) {
+                if(backoff >= RETRIES)
+                    throw new IOException("no ack at offset " + base);
+                backoff++;
+                progressTime = now;
+                long timeout = timeout();
+                for(long offset = base; offset < next; offset += blockSize) {
+                    int slot = slot(offset);
+                    if(!selected[slot] && (offset == base || now - sentTime[slot] > timeout))
+                        send(offset, true);
+                }
+            }
+        } catch (IOException e) {
+            finish(e);
+            return;
+        }
+        timer.schedule(tickRunnable, TICK_MILLIS);
+    }
+
+    private void sendOpen() {
+        openAttempts++;
+        openTime = clock.nanoTime();
+        write(new BlockFrame(BlockFrame.OPEN, transfer, total, blockSize, null).encode());
+    }
+
+    private void fill() throws IOException {
+        while(!finished && next < total && next < base + (long) window * blockSize) {
+            int length = (int) Math.min(blockSize, total - next);
+            byte[] data = source.poll();
+            if(data == null)
+                return; // continued in onReadable()
+            if(data.length != length)
+                throw new IOException("unexpected block size " + data.length);
+            int slot = slot(next);
+            blocks[slot] = data;
+            attempts[slot] = 0;
+            selected[slot] = false;
+            send(next, false);
+            next += length;
+        }
+    }
+
+    private void send(long offset, boolean retransmit) {
+        int slot = slot(offset);
+        attempts[slot]++;
+        sentTime[slot] = clock.nanoTime();
+        if(retransmit)
+            retransmits++;
+        write(new BlockFrame(BlockFrame.DATA, transfer, offset, 0, blocks[slot]).encode());
+    }
+
+    private void write(byte[] data) {
+        rawBytes += data.length;
+        try {
+            writer.write(data);
+        } catch (IOException e) {
+            finish(e);
+        }
+    }
+
+    private void onRoundTrip(long sample) {
+        if(roundTrip == 0) {
+            roundTrip = sample;
+            roundTripVariation = sample / 2;
+        } else {
+            roundTripVariation = (roundTripVariation * 3 + Math.abs(roundTrip - sample)) / 4;
+            roundTrip = (roundTrip * 7 + sample) / 8;
+        }
+    }
+
+    private long timeout() {
+        return roundTrip == 0 ? OPEN_TIMEOUT : Math.max(MIN_TIMEOUT, Math.min(MAX_TIMEOUT, roundTrip + 4 * roundTripVariation));
+    }
+
+    private int slot(long offset) {
+        return (int) (offset / blockSize % window);
+    }
+
+    private void finish(Exception e) {
+        if(finished)
+            return;
+        finished = true;
+        timer.cancel(tickRunnable);
+        source.close();
+        listener.onFinished(e);
+    }
+
+}
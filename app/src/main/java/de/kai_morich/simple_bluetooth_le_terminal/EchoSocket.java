@@ -0,0 +1,64 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * simulated device echoing all data, like LatencyEcho.ino
+ *
+ * echoed data arrives after a fixed delay in chunks of the given payload size,
+ * from a background thread like SerialSocket notifications.
+ */
+class EchoSocket implements SimulatedSocket {
+
+    private final long delayMicros;
+    private final int payloadSize;
+
+    private volatile SerialListener listener;
+    private ScheduledExecutorService executor;
+
+    EchoSocket(long delayMicros, int payloadSize) {
+        this.delayMicros = delayMicros;
+        this.payloadSize = payloadSize;
+    }
+
+    @Override
+    public synchronized void connect(SerialListener listener) throws IOException {
+        if(executor != null)
+            throw new IOException("already connected");
+        this.listener = listener;
+        executor = Executors.newSingleThreadScheduledExecutor();
+        executor.execute(() -> {
+            SerialListener l = this.listener;
+            if(l != null)
+                l.onSerialConnect();
+        });
+    }
+
+    @Override
+    public synchronized void write(byte[] data) throws IOException {
+        if(executor == null)
+            throw new IOException("not connected");
+        executor.schedule(() -> {
+            for(int from = 0; from < data.length; from += payloadSize) {
+                SerialListener l = this.listener;
+                if(l == null)
+                    return;
+                l.onSerialRead(Arrays.copyOfRange(data, from, Math.min(from + payloadSize, data.length)));
+            }
+        }, delayMicros, TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public synchronized void disconnect() {
+        listener = null;
+        if(executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+}
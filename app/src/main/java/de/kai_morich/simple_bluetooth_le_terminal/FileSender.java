@@ -0,0 +1,185 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * stream a file to the device with constant memory, independent of file size
+ *
+ *   - a reader thread reads CHUNK_SIZE chunks into a queue of QUEUE_CHUNKS, blocking when full
+ *   - pump() runs in main thread and passes chunks to the sink as long as it is ready,
+ *     i.e. the socket write queue is drained below some threshold
+ *   - optional pacing limits the average rate to bytesPerSecond
+ *
+ * peak memory is about (QUEUE_CHUNKS + sink threshold) * CHUNK_SIZE. Chunks are not reused,
+ * as WriteQueue keeps references to written data.
+ */
+class FileSender {
+
+    static final int CHUNK_SIZE = 512;
+    static final int QUEUE_CHUNKS = 8;
+    static final long PROGRESS_INTERVAL = 250000000L; // ns
+
+    private static final byte[] EOF = new byte[0];
+
+    interface Sink {
+        boolean isReady();                          // e.g. write queue below threshold
+        void write(byte[] data) throws IOException;
+    }
+
+    interface Listener {
+        void onProgress(long sent, long total, long bytesPerSecond); // total -1 if unknown
+        void onFinished(long sent, Exception e);                     // e null if completed
+    }
+
+    private final InputStream input;
+    private final long total;
+    private final int bytesPerSecond;
+    private final Sink sink;
+    private final Listener listener;
+    private final WriteQueue.Clock clock;
+    private final ArrayBlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(QUEUE_CHUNKS);
+    private final Thread reader = new Thread(this::read, "FileSender");
+
+    private volatile IOException readError;
+    private volatile boolean finished;
+    private byte[] pendingChunk;
+    private long sent;
+    private long startTime, progressTime, progressSent;
+
+    /**
+     * @param bytesPerSecond pacing, 0 for unlimited
+     */
+    FileSender(InputStream input, long total, int bytesPerSecond, Sink sink, Listener listener, WriteQueue.Clock clock) {
+        this.input = input;
+        this.total = total;
+        this.bytesPerSecond = bytesPerSecond;
+        this.sink = sink;
+        this.listener = listener;
+        this.clock = clock;
+    }
+
+    void start() {
+        startTime = progressTime = clock.nanoTime();
+        reader.start();
+    }
+
+    boolean isFinished() {
+        return finished;
+    }
+
+    long getSent() {
+        return sent;
+    }
+
+    void cancel() {
+        finish(new IOException("canceled"));
+    }
+
+    /**
+     * write chunks while sink is ready, to be called periodically from main thread
+     * @return ms until next call is useful, -1 if finished
+     */
+    long pump() {
+        if(finished)
+            return -1;
+        long now = clock.nanoTime();
+        long wait = 5;
+        while(sink.isReady()) {
+            if(bytesPerSecond > 0) {
+                long due = startTime + sent * 1000000000L / bytesPerSecond;
+                if(due > now) {
+                    wait = Math.max(1, (due - now) / 1000000);
+                    break; // still report progress
+                }
+            }
+            byte[] chunk = pendingChunk != null ? pendingChunk : chunks.poll();
+            pendingChunk = null;
+            if(chunk == null) {
+                if(readError != null)
+                    finish(readError);
+                break; // reader is behind
+            }
+            if(chunk == EOF) {
+                progress(now);
+                finish(null);
+                return -1;
+            }
+            if(bytesPerSecond > 0 && chunk.length > bytesPerSecond / 10) {
+                // limit burst size at low rates, remaining part is sent on next call
+                int length = Math.max(1, bytesPerSecond / 10);
+                byte[] rest = new byte[chunk.length - length];
+                System.arraycopy(chunk, length, rest, 0, rest.length);
+                pendingChunk = rest;
+                byte[] part = new byte[length];
+                System.arraycopy(chunk, 0, part, 0, length);
+                chunk = part;
+            }
+            try {
+                sink.write(chunk);
+            } catch (IOException e) {
+                finish(e);
+                return -1;
+            }
+            sent += chunk.length;
+        }
+        if(finished)
+            return -1;
+        if(now - progressTime >= PROGRESS_INTERVAL)
+            progress(now);
+        return wait;
+    }
+
+    private void progress(long now) {
+        long rate = (sent - progressSent) * 1000000000L / Math.max(now - progressTime, 1);
+        progressTime = now;
+        progressSent = sent;
+        listener.onProgress(sent, total, rate);
+    }
+
+    private void finish(Exception e) {
+        if(finished)
+            return;
+        finished = true;
+        reader.interrupt();
+        try {
+            input.close(); // also unblocks pending read
+        } catch (IOException ignored) {
+        }
+        chunks.clear();
+        pendingChunk = null;
+        listener.onFinished(sent, e);
+    }
+
+    /**
+     * reader thread
+     */
+    private void read() {
+        try {
+            while(true) {
+                byte[] buffer = new byte[CHUNK_SIZE];
+                int length = input.read(buffer);
+                if(length < 0)
+                    break;
+                if(length == 0)
+                    continue;
+                byte[] chunk = buffer;
+                if(length < CHUNK_SIZE) {
+                    chunk = new byte[length];
+                    System.arraycopy(buffer, 0, chunk, 0, length);
+                }
+                while(!chunks.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                    if(finished)
+                        return;
+                }
+            }
+            chunks.put(EOF);
+        } catch (InterruptedException ignored) {
+        } catch (IOException e) {
+            readError = e;
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.util.Locale;
+
+/**
+ * counters for frame synchronized UI updates, to see if rendering keeps up with the data rate
+ *
+ * a frame is deferred, if not all pending data was delivered because of the per frame limit.
+ * Frames are dropped, if the frame callback comes more than a frame interval after it was
+ * requested, i.e. after new data arrived or after the previous deferred frame. The frame
+ * interval is the smallest gap seen between a deferred frame and the next frame.
+ * times are Choreographer frame times and System.nanoTime() values passed by the caller.
+ */
+class FrameCounter {
+
+    static final long DEFAULT_INTERVAL = 16666667; // ns, 60 Hz
+
+    private final LinkMetrics.Histogram work = new LinkMetrics.Histogram();
+    private long frames, bytes, deferred, dropped;
+    private long interval = DEFAULT_INTERVAL;
+    private long requestTime;
+    private boolean lastDeferred;
+
+    /**
+     * frame callback requested for new data
+     */
+    synchronized void onRequest(long now) {
+        requestTime = now;
+    }
+
+    synchronized void onFrame(long frameTime, long workNanos, int length, boolean deferred) {
+        long gap = frameTime - requestTime;
+        if(requestTime != 0 && gap > 0) {
+            if(lastDeferred)
+                interval = Math.min(interval, gap);
+            dropped += Math.max(0, (gap + interval / 2) / interval - 1);
+        }
+        frames++;
+        bytes += length;
+        if(deferred)
+            this.deferred++;
+        work.add(workNanos / 1000);
+        lastDeferred = deferred;
+        if(deferred)
+            requestTime = frameTime;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "ui %d frames, %d B/frame, %d deferred, %d dropped, work %s",
+                frames, frames > 0 ? bytes / frames : 0, deferred, dropped, work);
+    }
+
+}
@@ -0,0 +1,185 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * serialize GATT operations, as Android allows only one outstanding operation per connection
+ * and fails e.g. writeCharacteristic() while a previous write is not finished
+ *
+ *   - control operations (descriptor, MTU, Telit credit writes) are started before data writes
+ *   - operations not started are retried
+ *   - control operations not finished within timeout are retried. A data write that timed out
+ *     fails, as it might have reached the device and a retry could duplicate data
+ *   - latency from start to GATT callback is recorded per operation name in LinkMetrics
+ *
+ * onComplete() is called from GATT callbacks, the timer typically runs in main thread.
+ * Operations are started while holding the lock, failures are reported without lock.
+ */
+class GattScheduler {
+
+    static final int PRIORITY_CONTROL = 0;
+    static final int PRIORITY_DATA = 1;
+    private static final int PRIORITIES = 2;
+
+    static final long TIMEOUT_MILLIS = 5000;
+    static final long RETRY_DELAY_MILLIS = 50;
+    static final int RETRIES = 2;
+
+    abstract static class Operation {
+        final String name;
+        final int priority;
+        final Object target; // characteristic or descriptor expected in GATT callback, null for MTU
+        private int attempts;
+        private long startTime;
+
+        Operation(String name, int priority, Object target) {
+            this.name = name;
+            this.priority = priority;
+            this.target = target;
+        }
+
+        /**
+         * issue GATT operation
+         * @return false if not started, e.g. gatt busy
+         */
+        abstract boolean start();
+    }
+
+    interface Timer {
+        void schedule(Runnable runnable, long delayMillis);
+        void cancel(Runnable runnable);
+    }
+
+    interface Listener {
+        void onOperationFailed(Operation operation, IOException e);
+    }
+
+    private final ArrayList<ArrayDeque<Operation>> queues = new ArrayList<>(PRIORITIES); // by priority
+    private final Timer timer;
+    private final WriteQueue.Clock clock;
+    private final LinkMetrics metrics;
+    private final Listener listener;
+    private final Runnable timeoutRunnable = this::onTimeout;
+    private final Runnable retryRunnable = this::onRetry;
+
+    private Operation current;
+    private boolean waitingForRetry;
+
+    GattScheduler(Timer timer, WriteQueue.Clock clock, LinkMetrics metrics, Listener listener) {
+        for(int i = 0; i < PRIORITIES; i++)
+            queues.add(new ArrayDeque<>());
+        this.timer = timer;
+        this.clock = clock;
+        this.metrics = metrics;
+        this.listener = listener;
+    }
+
+    void enqueue(Operation operation) {
+        Operation failed;
+        synchronized (this) {
+            queues.get(operation.priority).add(operation);
+            if(current != null)
+                return;
+            failed = startNext();
+        }
+        onFailed(failed);
+    }
+
+    /**
+     * GATT callback for current operation received
+     * @return false if callback does not belong to current operation, e.g. late callback after timeout
+     */
+    boolean onComplete(Object target) {
+        Operation failed;
+        synchronized (this) {
+            if(current == null || waitingForRetry || current.target != target)
+                return false;
+            metrics.onOperation(current.name, clock.nanoTime() - current.startTime);
+            timer.cancel(timeoutRunnable);
+            current = null;
+            failed = startNext();
+        }
+        onFailed(failed);
+        return true;
+    }
+
+    synchronized boolean isBusy() {
+        return current != null;
+    }
+
+    synchronized void clear() {
+        timer.cancel(timeoutRunnable);
+        timer.cancel(retryRunnable);
+        current = null;
+        waitingForRetry = false;
+        for(ArrayDeque<Operation> queue : queues)
+            queue.clear();
+    }
+
+    /**
+     * @return operation that failed finally, to be reported without lock
+     */
+    private Operation startNext() {
+        for(ArrayDeque<Operation> queue : queues) {
+            if(!queue.isEmpty()) {
+                current = queue.poll();
+                return start();
+            }
+        }
+        return null;
+    }
+
+    private Operation start() {
+        current.attempts++;
+        current.startTime = clock.nanoTime();
+        if(current.start()) {
+            timer.schedule(timeoutRunnable, TIMEOUT_MILLIS);
+            return null;
+        }
+        return retry();
+    }
+
+    private Operation retry() {
+        if(current.attempts > RETRIES)
+            return fail();
+        metrics.onOperationRetry();
+        waitingForRetry = true;
+        timer.schedule(retryRunnable, RETRY_DELAY_MILLIS);
+        return null;
+    }
+
+    private void onRetry() {
+        Operation failed;
+        synchronized (this) {
+            if(current == null || !waitingForRetry)
+                return;
+            waitingForRetry = false;
+            failed = start();
+        }
+        onFailed(failed);
+    }
+
+    private Operation fail() {
+        Operation failed = current;
+        clear();
+        return failed;
+    }
+
+    private void onTimeout() {
+        Operation failed;
+        synchronized (this) {
+            if(current == null || waitingForRetry)
+                return;
+            failed = current.priority == PRIORITY_DATA ? fail() : retry();
+        }
+        onFailed(failed);
+    }
+
+    private void onFailed(Operation operation) {
+        if(operation != null)
+            listener.onOperationFailed(operation, new IOException(operation.name + " failed"));
+    }
+
+}
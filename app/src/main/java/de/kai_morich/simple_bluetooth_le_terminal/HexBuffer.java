@@ -0,0 +1,135 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.util.Arrays;
+
+/**
+ * hex digits of the send text field, shown formatted as "AB CD E" and kept parsed,
+ * so edits only reformat the changed region and sending needs no parsing
+ *
+ * a digit at index i is at text position i + i/2, every third character is a space.
+ * After replace(), the text differs from the previous text only between getChangeStart()
+ * and getChangeSuffix() characters before the end. Insertions or deletions of an odd number
+ * of digits change the pairing of all following digits, so the rest of the text is in the
+ * changed region, else only the changed pairs.
+ */
+class HexBuffer {
+
+    private byte[] digits = new byte[64]; // 0..15
+    private int count;
+    private int changeStart, changeSuffix;
+
+    /**
+     * @return number of hex digits
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * @return length of formatted text
+     */
+    int length() {
+        return count == 0 ? 0 : count + (count - 1) / 2;
+    }
+
+    /**
+     * @return text position of digit, or text length for index == size()
+     */
+    int position(int index) {
+        return index >= count ? length() : index + index / 2;
+    }
+
+    int getChangeStart() {
+        return changeStart;
+    }
+
+    int getChangeSuffix() {
+        return changeSuffix;
+    }
+
+    void clear() {
+        count = 0;
+        changeStart = changeSuffix = 0;
+    }
+
+    /**
+     * replace all digits with hex digits in text
+     */
+    void set(CharSequence text) {
+        count = 0;
+        replace(0, 0, text, 0, text.length());
+        changeStart = changeSuffix = 0;
+    }
+
+    /**
+     * replace formatted text [start, start + before) with hex digits from text[textStart, textEnd),
+     * other characters are ignored, lower case digits are converted
+     * @return index of digit after inserted digits, e.g. for cursor position
+     */
+    int replace(int start, int before, CharSequence text, int textStart, int textEnd) {
+        int oldLength = length();
+        int from = Math.min(count, start - start / 3);  // digits before start
+        int end = start + before;
+        int to = Math.min(count, end - end / 3);
+        int inserted = 0;
+        for(int i = textStart; i < textEnd; i++)
+            if(digit(text.charAt(i)) >= 0)
+                inserted++;
+        int delta = inserted - (to - from);
+        int oldCount = count;
+        ensureCapacity(count + delta);
+        System.arraycopy(digits, to, digits, to + delta, count - to);
+        count += delta;
+        int pos = from;
+        for(int i = textStart; i < textEnd; i++) {
+            int digit = digit(text.charAt(i));
+            if(digit >= 0)
+                digits[pos++] = (byte) digit;
+        }
+        // unchanged: pairs before 'from' without trailing space, and with even delta the pairs after 'to'
+        int pairStart = from & ~1;
+        changeStart = pairStart > 0 ? pairStart + pairStart / 2 - 1 : 0;
+        int pairEnd = (to + 1) & ~1;
+        changeSuffix = delta % 2 == 0 && pairEnd < oldCount ? oldLength - (pairEnd + pairEnd / 2) : 0;
+        return pos;
+    }
+
+    /**
+     * append formatted text [start, end)
+     */
+    void appendFormatted(StringBuilder sb, int start, int end) {
+        for(int pos = start; pos < end; pos++) {
+            if(pos % 3 == 2) {
+                sb.append(' ');
+            } else {
+                int digit = digits[pos - pos / 3];
+                sb.append((char) (digit < 10 ? '0' + digit : 'A' - 10 + digit));
+            }
+        }
+    }
+
+    /**
+     * @return digit pairs as bytes, an odd last digit as its value, like TextUtil.fromHexString
+     */
+    byte[] getBytes() {
+        byte[] data = new byte[(count + 1) / 2];
+        for(int i = 0; i + 1 < count; i += 2)
+            data[i / 2] = (byte) (digits[i] << 4 | digits[i + 1]);
+        if(count % 2 == 1)
+            data[count / 2] = digits[count - 1];
+        return data;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if(capacity > digits.length)
+            digits = Arrays.copyOf(digits, Math.max(capacity, digits.length * 2));
+    }
+
+    private static int digit(char c) {
+        if(c >= '0' && c <= '9') return c - '0';
+        if(c >= 'A' && c <= 'F') return c - 'A' + 10;
+        if(c >= 'a' && c <= 'f') return c - 'a' + 10;
+        return -1;
+    }
+
+}
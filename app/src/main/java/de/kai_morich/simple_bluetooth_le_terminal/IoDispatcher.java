@@ -0,0 +1,120 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * deliver SerialListener events to background listeners in one executor thread,
+ * see SerialService.addIoListener()
+ *
+ * events are delivered in the order they are posted, reads are merged while the thread is busy.
+ * After reconnect the socket delivers data before SerialService informs the UI in main thread,
+ * so reads can be held until connect is posted, to get the same order as the UI listener.
+ * Nothing is queued without listeners.
+ * Each listener gets its own ArrayDeque of reads, so it can consume it, but the byte arrays
+ * are shared and must not be modified.
+ */
+class IoDispatcher {
+
+    private final CopyOnWriteArrayList<SerialListener> listeners = new CopyOnWriteArrayList<>();
+    private final ReadCoalescer lastRead = new ReadCoalescer();
+    private final Runnable readRunnable = this::deliverReads;
+    private volatile Executor executor; // null if stopped
+    private volatile boolean readsHeld;
+
+    /**
+     * @param executor runs events in background thread, e.g. handler::post
+     */
+    void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    void add(SerialListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    /**
+     * deliver to listener before the others, e.g. to take timestamps not delayed by slow listeners
+     */
+    void addFirst(SerialListener listener) {
+        listeners.remove(listener);
+        listeners.add(0, listener);
+    }
+
+    void remove(SerialListener listener) {
+        listeners.remove(listener);
+    }
+
+    void clear() {
+        listeners.clear();
+    }
+
+    /**
+     * drop undelivered reads, e.g. on disconnect
+     */
+    void reset() {
+        readsHeld = false;
+        lastRead.take();
+    }
+
+    void onConnect() {
+        post(() -> { for(SerialListener listener : listeners) listener.onSerialConnect(); });
+    }
+
+    void onConnectError(Exception e) {
+        post(() -> { for(SerialListener listener : listeners) listener.onSerialConnectError(e); });
+    }
+
+    void onIoError(Exception e) {
+        post(() -> { for(SerialListener listener : listeners) listener.onSerialIoError(e); });
+    }
+
+    void onReconnecting(Exception e) {
+        post(() -> { for(SerialListener listener : listeners) listener.onSerialReconnecting(e); });
+    }
+
+    /**
+     * called from socket thread
+     */
+    void onRead(byte[] data) {
+        if(executor == null || listeners.isEmpty())
+            return;
+        if(lastRead.add(data) && !readsHeld) // readsHeld read after add, see releaseReads()
+            post(readRunnable);
+    }
+
+    /**
+     * keep reads until releaseReads(), call before the socket can deliver data
+     */
+    void holdReads() {
+        readsHeld = true;
+    }
+
+    /**
+     * deliver held reads after the events posted before. Reads added meanwhile
+     * are either seen here or posted by onRead() after this
+     */
+    void releaseReads() {
+        if(!readsHeld)
+            return;
+        readsHeld = false;
+        post(readRunnable);
+    }
+
+    private void post(Runnable runnable) {
+        Executor executor = this.executor;
+        if(executor != null && !listeners.isEmpty())
+            executor.execute(runnable);
+    }
+
+    private void deliverReads() {
+        ArrayDeque<byte[]> datas = lastRead.take();
+        if(datas.isEmpty())
+            return;
+        SerialListener[] listeners = this.listeners.toArray(new SerialListener[0]);
+        for(int i = 0; i < listeners.length; i++)
+            listeners[i].onSerialRead(i == listeners.length - 1 ? datas : new ArrayDeque<>(datas));
+    }
+
+}
@@ -0,0 +1,118 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * round trip latency measurement with sequence stamped probe messages echoed by the device
+ *
+ * probe format: '@', sequence number as 8 hex digits, padding 'x', '\n'
+ * echoed probes can arrive in any chunking and mixed with other text, which is ignored.
+ * next() and onReceive() may be called from different threads.
+ */
+class LatencyProbe {
+
+    static final int MIN_PAYLOAD_SIZE = 10;
+
+    static class Result {
+        int sent, received, duplicates;
+        long min, median, p99, max; // us
+
+        int lost() { return sent - received; }
+
+        @Override
+        public String toString() {
+            if(received == 0)
+                return String.format(Locale.US, "%d probes sent, none received", sent);
+            return String.format(Locale.US, "%d probes sent, %d lost, %d duplicate\nrtt min %.1f, median %.1f, p99 %.1f, max %.1f ms",
+                    sent, lost(), duplicates, min / 1000.0, median / 1000.0, p99 / 1000.0, max / 1000.0);
+        }
+    }
+
+    private final int payloadSize;
+    private final long[] sendTimes; // by sequence number, 0 if not pending
+    private final long[] rtts;
+    private final byte[] line = new byte[8];
+    private int lineLength = -1; // -1 = outside of probe
+    private int sent, received, duplicates;
+
+    LatencyProbe(int count, int payloadSize) {
+        if(payloadSize < MIN_PAYLOAD_SIZE)
+            throw new IllegalArgumentException("payload size < "+MIN_PAYLOAD_SIZE);
+        this.payloadSize = payloadSize;
+        sendTimes = new long[count];
+        rtts = new long[count];
+    }
+
+    synchronized boolean hasNext() {
+        return sent < sendTimes.length;
+    }
+
+    /**
+     * @return next probe, to be sent immediately
+     */
+    synchronized byte[] next(long now) {
+        byte[] data = new byte[payloadSize];
+        int seq = sent++;
+        data[0] = '@';
+        for(int i = 0; i < 8; i++)
+            data[8 - i] = (byte) Character.forDigit((seq >>> (4 * i)) & 0xf, 16);
+        Arrays.fill(data, 9, payloadSize - 1, (byte) 'x');
+        data[payloadSize - 1] = '\n';
+        sendTimes[seq] = now;
+        return data;
+    }
+
+    synchronized void onReceive(byte[] data, long now) {
+        for(byte b : data) {
+            if(b == '@') {
+                lineLength = 0;
+            } else if(lineLength >= 0 && lineLength < line.length) {
+                line[lineLength++] = b;
+                if(lineLength == line.length) {
+                    onSequence(parse(), now);
+                    lineLength = -1;
+                }
+            }
+        }
+    }
+
+    synchronized Result result() {
+        Result result = new Result();
+        result.sent = sent;
+        result.received = received;
+        result.duplicates = duplicates;
+        if(received > 0) {
+            long[] sorted = Arrays.copyOf(rtts, received);
+            Arrays.sort(sorted);
+            result.min = sorted[0];
+            result.median = sorted[(received - 1) / 2];
+            result.p99 = sorted[Math.min(received - 1, (int) Math.ceil(received * 0.99) - 1)];
+            result.max = sorted[received - 1];
+        }
+        return result;
+    }
+
+    private int parse() {
+        int seq = 0;
+        for(byte b : line) {
+            int digit = Character.digit(b, 16);
+            if(digit < 0)
+                return -1;
+            seq = (seq << 4) | digit;
+        }
+        return seq;
+    }
+
+    private void onSequence(int seq, long now) {
+        if(seq < 0 || seq >= sent)
+            return; // not a probe
+        if(sendTimes[seq] == 0) {
+            duplicates++;
+            return;
+        }
+        rtts[received++] = (now - sendTimes[seq]) / 1000;
+        sendTimes[seq] = 0;
+    }
+
+}
@@ -0,0 +1,191 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * low overhead counters and histograms for SerialSocket, to see if a slow link is
+ * MTU bound (small chunks), credit starved (Telit) or queue bound (write queue grows)
+ *
+ * all methods are synchronized, as they are called from GATT callback and UI threads.
+ * times are System.nanoTime() values passed by the caller.
+ */
+class LinkMetrics {
+
+    /**
+     * histogram with power of 2 buckets in microseconds, bucket i contains values < 2^i us
+     */
+    static class Histogram {
+        static final int BUCKETS = 32;
+
+        final long[] counts = new long[BUCKETS];
+        long count, sum, min = Long.MAX_VALUE, max;
+
+        void add(long micros) {
+            int bucket = micros <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            counts[bucket]++;
+            count++;
+            sum += micros;
+            min = Math.min(min, micros);
+            max = Math.max(max, micros);
+        }
+
+        /**
+         * @return upper bound of bucket containing the percentile, in us
+         */
+        long percentile(double p) {
+            long rank = (long) Math.ceil(p / 100 * count);
+            long n = 0;
+            for(int i = 0; i < BUCKETS; i++) {
+                n += counts[i];
+                if(n >= rank && n > 0)
+                    return Math.min(max, (1L << i) - 1);
+            }
+            return max;
+        }
+
+        long mean() {
+            return count > 0 ? sum / count : 0;
+        }
+
+        Histogram copy() {
+            Histogram h = new Histogram();
+            System.arraycopy(counts, 0, h.counts, 0, BUCKETS);
+            h.count = count;
+            h.sum = sum;
+            h.min = min;
+            h.max = max;
+            return h;
+        }
+
+        @Override
+        public String toString() {
+            if(count == 0)
+                return "-";
+            return String.format(Locale.US, "min %d, mean %d, p99 <%d, max %d us", min, mean(), percentile(99), max);
+        }
+    }
+
+    static class Snapshot {
+        long nanos; // since start
+        long bytesIn, chunksIn, bytesOut, chunksOut;
+        int payloadSize;
+        int queueDepth, maxQueueDepth;
+        long creditStalls, creditStallNanos;
+        Histogram writeLatency, readInterval;
+        TreeMap<String, Histogram> operations; // GATT operation latency by name
+        long operationRetries;
+
+        @Override
+        public String toString() {
+            double seconds = Math.max(nanos, 1) / 1e9;
+            StringBuilder sb = new StringBuilder();
+            for(Map.Entry<String, Histogram> entry : operations.entrySet())
+                sb.append('\n').append(entry.getKey()).append(' ').append(entry.getValue());
+            if(operationRetries > 0)
+                sb.append("\ngatt retries ").append(operationRetries);
+            return String.format(Locale.US,
+                    "in %d B / %d chunks, %.1f B/s\n" +
+                    "out %d B / %d chunks, %.1f B/s, payload %d\n" +
+                    "write latency %s\n" +
+                    "read interval %s\n" +
+                    "queue %d, max %d, credit stalls %d / %d ms",
+                    bytesIn, chunksIn, bytesIn / seconds,
+                    bytesOut, chunksOut, bytesOut / seconds, payloadSize,
+                    writeLatency, readInterval,
+                    queueDepth, maxQueueDepth, creditStalls, creditStallNanos / 1000000) + sb;
+        }
+    }
+
+    private final long startTime = System.nanoTime();
+    private final Histogram writeLatency = new Histogram();
+    private final Histogram readInterval = new Histogram();
+    private final TreeMap<String, Histogram> operations = new TreeMap<>();
+
+    private long bytesIn, chunksIn, bytesOut, chunksOut;
+    private int payloadSize;
+    private int queueDepth, maxQueueDepth;
+    private long creditStalls, creditStallNanos, creditStallStart;
+    private long operationRetries;
+    private long lastRead, writeStart;
+
+    synchronized void onRead(int length, long now) {
+        bytesIn += length;
+        chunksIn++;
+        if(lastRead != 0)
+            readInterval.add((now - lastRead) / 1000);
+        lastRead = now;
+    }
+
+    synchronized void onWriteStart(int length, long now) {
+        bytesOut += length;
+        chunksOut++;
+        writeStart = now;
+    }
+
+    synchronized void onWriteFinished(long now) {
+        if(writeStart != 0)
+            writeLatency.add((now - writeStart) / 1000);
+        writeStart = 0;
+    }
+
+    synchronized void onQueueDepth(int depth) {
+        queueDepth = depth;
+        maxQueueDepth = Math.max(maxQueueDepth, depth);
+    }
+
+    synchronized void onPayloadSize(int size) {
+        payloadSize = size;
+    }
+
+    synchronized void onCreditStall(long now) {
+        if(creditStallStart == 0) {
+            creditStalls++;
+            creditStallStart = now;
+        }
+    }
+
+    synchronized void onCreditResume(long now) {
+        if(creditStallStart != 0) {
+            creditStallNanos += now - creditStallStart;
+            creditStallStart = 0;
+        }
+    }
+
+    synchronized void onOperation(String name, long nanos) {
+        Histogram histogram = operations.get(name);
+        if(histogram == null) {
+            histogram = new Histogram();
+            operations.put(name, histogram);
+        }
+        histogram.add(nanos / 1000);
+    }
+
+    synchronized void onOperationRetry() {
+        operationRetries++;
+    }
+
+    synchronized Snapshot snapshot() {
+        long now = System.nanoTime();
+        Snapshot s = new Snapshot();
+        s.nanos = now - startTime;
+        s.bytesIn = bytesIn;
+        s.chunksIn = chunksIn;
+        s.bytesOut = bytesOut;
+        s.chunksOut = chunksOut;
+        s.payloadSize = payloadSize;
+        s.queueDepth = queueDepth;
+        s.maxQueueDepth = maxQueueDepth;
+        s.creditStalls = creditStalls;
+        s.creditStallNanos = creditStallNanos + (creditStallStart != 0 ? now - creditStallStart : 0);
+        s.writeLatency = writeLatency.copy();
+        s.readInterval = readInterval.copy();
+        s.operations = new TreeMap<>();
+        for(Map.Entry<String, Histogram> entry : operations.entrySet())
+            s.operations.put(entry.getKey(), entry.getValue().copy());
+        s.operationRetries = operationRetries;
+        return s;
+    }
+
+}
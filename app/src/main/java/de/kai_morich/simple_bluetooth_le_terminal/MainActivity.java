@@ -17,10 +17,7 @@ import android.bluetooth.BluetoothProfile;
 import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.le.ScanCallback;
 import android.bluetooth.le.ScanResult;
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -50,17 +47,10 @@ import androidx.core.content.ContextCompat;
 import androidx.fragment.app.FragmentManager;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
-import android.net.ConnectivityManager;
-import android.net.Network;
-import android.net.NetworkCapabilities;
-import android.net.NetworkInfo;
-import android.net.wifi.WifiInfo;
-import android.net.wifi.WifiManager;
 
 import com.google.common.util.concurrent.ListenableFuture;
 
 import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -70,22 +60,18 @@ import java.util.UUID;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import android.os.VibrationEffect;
+import android.speech.tts.UtteranceProgressListener;
 import android.os.Vibrator;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import okhttp3.Call;
-import okhttp3.Callback;
 import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.Response;
 
 public class MainActivity extends AppCompatActivity implements FragmentManager.OnBackStackChangedListener {
 
     private PreviewView previewView;
     private ImageView imageViewOverlay;
-    private YoloHelper yoloHelper;
+    private ListenableFuture<YoloHelper> yoloFuture;
+    private long createNanos;           // for time to first detection
+    private boolean firstDetection;     // analyzer thread
     private static final int REQUEST_CODE_PERMISSIONS = 1001;
     private static final String TAG = "BLE_Scan";
 
@@ -96,14 +82,14 @@ public class MainActivity extends AppCompatActivity implements FragmentManager.O
 
     private static final UUID HM10_SERVICE_UUID = UUID.fromString("0000FFE0-0000-1000-8000-00805F9B34FB");
     private static final UUID HM10_CHARACTERISTIC_UUID = UUID.fromString("0000FFE1-0000-1000-8000-00805F9B34FB");
-    private WifiConnectionReceiver wifiReceiver;
-
-    int speed = 0;
-
+    private NetworkMonitor networkMonitor;
+    private TrafficChannel trafficChannel;
+    private AlertEngine alertEngine;
 
     @RequiresApi(api = Build.VERSION_CODES.S)
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        createNanos = System.nanoTime();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
         Toolbar toolbar = findViewById(R.id.toolbar);
@@ -120,33 +106,81 @@ public class MainActivity extends AppCompatActivity implements FragmentManager.O
         previewView = findViewById(R.id.previewView);
         imageViewOverlay = findViewById(R.id.imageViewOverlay);
 
-        try {
-            yoloHelper = new YoloHelper(this, "yolov5_640.tflite", "coco.txt");
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        yoloFuture = YoloHelper.load(this, "yolov5_640.tflite", "coco.txt", 2); // analyzer is set when ready, see startCamera
         Utility.appContext = getApplicationContext();
+        Utility.warmUp(this, AlertEngine.Alert.texts());
+        alertEngine = new AlertEngine(new AlertEngine.Output() {
+            @Override
+            public void speak(String text, String utteranceId) {
+                Utility.speak(text, utteranceId);
+            }
+
+            @Override
+            public void vibrate(long millis) {
+                MainActivity.this.vibrate(millis);
+            }
+        }, WriteQueue.SYSTEM_CLOCK);
+        Utility.setProgressListener(new UtteranceProgressListener() {
+            @Override
+            public void onStart(String utteranceId) {
+                alertEngine.onSpeechStarted(utteranceId);
+            }
+
+            @Override
+            public void onDone(String utteranceId) {
+                alertEngine.onSpeechDone(utteranceId);
+            }
+
+            @Override
+            public void onError(String utteranceId) {
+                alertEngine.onSpeechDone(utteranceId);
+            }
+
+            @Override
+            public void onStop(String utteranceId, boolean interrupted) {
+                alertEngine.onSpeechDone(utteranceId);
+            }
+        });
+        alertEngine.start();
+
+        // every event, poll or keepalive refreshes the state, AlertEngine treats it as stale after TRAFFIC_MAX_AGE
+        trafficChannel = new TrafficChannel(new OkHttpClient(), "http://192.168.4.1",
+                (state, changed) -> alertEngine.onTrafficLight(state.green), WriteQueue.SYSTEM_CLOCK);
+        networkMonitor = new NetworkMonitor(this);
+        networkMonitor.addListener(state -> {
+            if (state.isEsp32())
+                trafficChannel.start();
+            else
+                trafficChannel.stop();
+        });
+        networkMonitor.start();
 
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA)
                 == PackageManager.PERMISSION_GRANTED) {
             startCamera();
-            wifiReceiver = new WifiConnectionReceiver();
-            registerReceiver(wifiReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
-            if(Objects.equals(getCurrentSsid(this), "ESP32CAM_HOTSPOT"))
-                getTrafficStatus();
-            else
-                setupWifiSuggestion();
         } else {
             ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.CAMERA, Manifest.permission.ACCESS_FINE_LOCATION,
             Manifest.permission.BLUETOOTH_CONNECT, Manifest.permission.BLUETOOTH_SCAN, Manifest.permission.ACCESS_COARSE_LOCATION, Manifest.permission.ACCESS_WIFI_STATE}, 101);
-            setupWifiSuggestion();
         }
+        setupWifiSuggestion(); // traffic channel is started when connected, see networkMonitor listener
+    }
+
+    @Override
+    protected void onDestroy() {
+        networkMonitor.stop();
+        trafficChannel.stop();
+        Log.d(TAG, trafficChannel.getStats());
+        alertEngine.stop();
+        Log.d(TAG, alertEngine.stats().toString());
+        Log.d(TAG, Utility.getLatencyStats());
+        Utility.shutdown();
+        super.onDestroy();
     }
 
     private void setupWifiSuggestion() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
             WifiNetworkSuggestion suggestion = new WifiNetworkSuggestion.Builder()
-                    .setSsid("ESP32CAM_HOTSPOT")
+                    .setSsid(NetworkMonitor.ESP32_SSID)
                     // .setWpa2Passphrase("your_password") // 필요 시 비밀번호 설정
                     .build();
 
@@ -163,29 +197,6 @@ public class MainActivity extends AppCompatActivity implements FragmentManager.O
         }
     }
 
-    public static String getCurrentSsid(Context context) {
-        WifiManager wifiManager = (WifiManager) context.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
-        if (wifiManager == null) return null;
-
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-            ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
-            if (connectivityManager != null) {
-                for (Network network : connectivityManager.getAllNetworks()) {
-                    NetworkCapabilities capabilities = connectivityManager.getNetworkCapabilities(network);
-                    if (capabilities != null && capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
-                        WifiInfo wifiInfo = wifiManager.getConnectionInfo();
-                        String ssid = wifiInfo.getSSID();
-                        return ssid != null ? ssid.replace("\"", "") : null;
-                    }
-                }
-            }
-            return null;
-        } else {
-            WifiInfo wifiInfo = wifiManager.getConnectionInfo();
-            String ssid = wifiInfo.getSSID();
-            return ssid != null ? ssid.replace("\"", "") : null;
-        }
-    }
     @Override
     public void onBackStackChanged() {
         Objects.requireNonNull(getSupportActionBar()).setDisplayHomeAsUpEnabled(getSupportFragmentManager().getBackStackEntryCount()>0);
@@ -215,12 +226,31 @@ public class MainActivity extends AppCompatActivity implements FragmentManager.O
                         .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
                         .build();
 
-                imageAnalysis.setAnalyzer(Executors.newSingleThreadExecutor(), image -> {
-                    Bitmap bitmap = toBitmap(image); // ImageProxy → Bitmap
-                    Bitmap result = yoloHelper.detect(bitmap); // YOLO 실행
-                    runOnUiThread(() -> imageViewOverlay.setImageBitmap(result)); // 결과 표시
-                    image.close(); // 프레임 릴리스
-                });
+                // preview is shown while the model is loading and warming up
+                yoloFuture.addListener(() -> {
+                    YoloHelper yoloHelper;
+                    try {
+                        yoloHelper = yoloFuture.get();
+                    } catch (ExecutionException | InterruptedException e) {
+                        Log.e(TAG, "model loading failed", e);
+                        return;
+                    }
+                    Log.i(TAG, "startup: model ready after " + (System.nanoTime() - createNanos) / 1_000_000L + " ms, " + yoloHelper.getStartupStats());
+                    imageAnalysis.setAnalyzer(Executors.newSingleThreadExecutor(), image -> {
+                        long start = System.nanoTime();
+                        Bitmap bitmap = toBitmap(image); // ImageProxy → Bitmap
+                        Bitmap result = yoloHelper.detect(bitmap); // YOLO 실행
+                        if (!firstDetection) {
+                            firstDetection = true;
+                            long now = System.nanoTime();
+                            Log.i(TAG, "startup: first detection after " + (now - createNanos) / 1_000_000L + " ms, frame " + (now - start) / 1_000_000L + " ms");
+                        }
+                        // timestamped when the result is available, decisions are made in AlertEngine thread
+                        alertEngine.onVehicle(!yoloHelper.getLastDetectedClasses().isEmpty());
+                        runOnUiThread(() -> imageViewOverlay.setImageBitmap(result)); // 결과 표시
+                        image.close(); // 프레임 릴리스
+                    });
+                }, ContextCompat.getMainExecutor(this));
 
                 // 3. 후면 카메라 사용
                 CameraSelector cameraSelector = CameraSelector.DEFAULT_BACK_CAMERA;
@@ -266,29 +296,6 @@ public class MainActivity extends AppCompatActivity implements FragmentManager.O
 
         // 회전 각도 얻기
         int rotationDegrees = image.getImageInfo().getRotationDegrees();
-
-        List<String> detected = yoloHelper.getLastDetectedClasses();  // 이 메서드는 직접 만들어야 함
-
-        runOnUiThread(() -> {
-            getTrafficStatus();
-            Log.d("traffic", String.valueOf(traffic));
-            if (!detected.isEmpty()) {
-                if(speed >10)
-                {
-                    vibrate();
-                    Utility.speak("차량 접근 중입니다.");
-                }
-                else Utility.speak("차량이 정지했습니다. 조심히 건너세요.");
-            }
-            else if(Objects.equals(getCurrentSsid(Utility.appContext), "ESP32CAM_HOTSPOT")) {
-                if(traffic) {
-                    vibrate();
-                    Utility.speak("초록불입니다. 조심히 건너세요.");
-                }
-                else
-                    Utility.speak("빨간불입니다.");
-            }
-        });
         return rotateBitmap(bitmap, rotationDegrees);
     }
 
@@ -301,13 +308,13 @@ public class MainActivity extends AppCompatActivity implements FragmentManager.O
         return rotatedBitmap;
     }
 
-    public void vibrate() {
+    public void vibrate(long millis) {
         Vibrator v = (Vibrator) getSystemService(Context.VIBRATOR_SERVICE);
         if (v != null) {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                v.vibrate(VibrationEffect.createOneShot(500, VibrationEffect.DEFAULT_AMPLITUDE));
+                v.vibrate(VibrationEffect.createOneShot(millis, VibrationEffect.DEFAULT_AMPLITUDE));
             } else {
-                v.vibrate(500); // Deprecated, but works on older devices
+                v.vibrate(millis); // Deprecated, but works on older devices
             }
         }
     }
@@ -441,7 +448,8 @@ public class MainActivity extends AppCompatActivity implements FragmentManager.O
                 byte[] data = characteristic.getValue();
                 if (data != null && data.length > 0) {
                     String received = new String(data);  // 바이트 배열 → 문자열 변환
-                    speed = Integer.parseInt(received.replaceAll("[^0-9]",""));
+                    int speed = Integer.parseInt(received.replaceAll("[^0-9]",""));
+                    alertEngine.onSpeed(speed); // queued, not shared with other threads
                 }
             }
         }
@@ -456,65 +464,4 @@ public class MainActivity extends AppCompatActivity implements FragmentManager.O
             Log.d(TAG, "BLE scan stopped");
         }
     }
-
-    private static final String URL = "http://192.168.4.1/json";
-    private boolean traffic = false;
-    private void getTrafficStatus() {
-        OkHttpClient client = new OkHttpClient();
-
-        Request request = new Request.Builder()
-                .url(URL)
-                .build();
-
-        client.newCall(request).enqueue(new Callback() {
-            @Override
-            public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                e.printStackTrace();
-            }
-
-            @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    Log.e(TAG, "Unexpected code " + response);
-                    return;
-                }
-
-                String jsonData = response.body().string();
-
-                try {
-                    JSONObject jsonObject = new JSONObject(jsonData);
-                    int value = jsonObject.getInt("value");
-                    traffic = value > 600;
-                } catch (JSONException e) {
-                    Log.e(TAG, "JSON Parsing error: " + e.getMessage());
-                }
-            }
-        });
-    }
-
-    public class WifiConnectionReceiver extends BroadcastReceiver {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            if (ConnectivityManager.CONNECTIVITY_ACTION.equals(intent.getAction())) {
-                ConnectivityManager connManager =
-                        (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
-                NetworkInfo networkInfo = connManager.getActiveNetworkInfo();
-
-                if (networkInfo != null &&
-                        networkInfo.isConnected() &&
-                        networkInfo.getType() == ConnectivityManager.TYPE_WIFI) {
-
-                    WifiManager wifiManager =
-                            (WifiManager) context.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
-                    WifiInfo wifiInfo = wifiManager.getConnectionInfo();
-                    String ssid = wifiInfo.getSSID();
-
-                    if (ssid != null && ssid.replace("\"", "").equals("ESP32CAM_HOTSPOT")) {
-                        Log.d("WifiReceiver", "✅ ESP32CAM_HOTSPOT에 연결됨!");
-                        getTrafficStatus();
-                    }
-                }
-            }
-        }
-    }
 }
@@ -0,0 +1,176 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Wi-Fi state from ConnectivityManager.NetworkCallback, cached for reading in hot paths
+ *
+ * replaces querying WifiManager and all networks per camera frame and the deprecated
+ * CONNECTIVITY_ACTION broadcast. get() only reads an atomic reference. Listeners are
+ * called in main thread when the state changes.
+ *
+ * the SSID needs location permission, it is null until known.
+ */
+class NetworkMonitor {
+
+    private static final String TAG = "NetworkMonitor";
+    static final String ESP32_SSID = "ESP32CAM_HOTSPOT";
+
+    static final class State {
+        static final State NONE = new State(null, null);
+
+        final Network network; // null if no Wi-Fi
+        final String ssid;     // without quotes, null if unknown
+
+        State(Network network, String ssid) {
+            this.network = network;
+            this.ssid = ssid;
+        }
+
+        boolean isWifi() {
+            return network != null;
+        }
+
+        boolean isEsp32() {
+            return ESP32_SSID.equals(ssid);
+        }
+
+        boolean sameAs(State other) {
+            return (network == null ? other.network == null : network.equals(other.network))
+                    && (ssid == null ? other.ssid == null : ssid.equals(other.ssid));
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return network == null ? "no wifi" : "wifi " + (ssid != null ? ssid : "<unknown ssid>");
+        }
+    }
+
+    interface Listener {
+        void onNetworkStateChanged(State state);
+    }
+
+    private final ConnectivityManager connectivityManager;
+    private final WifiManager wifiManager;
+    private final AtomicReference<State> state = new AtomicReference<>(State.NONE);
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Handler mainLooper = new Handler(Looper.getMainLooper());
+    private ConnectivityManager.NetworkCallback callback;
+
+    NetworkMonitor(Context context) {
+        connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        wifiManager = (WifiManager) context.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+    }
+
+    State get() {
+        return state.get();
+    }
+
+    boolean isEsp32() {
+        return state.get().isEsp32();
+    }
+
+    void addListener(Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    void start() {
+        if(callback != null)
+            return;
+        callback = Build.VERSION.SDK_INT >= Build.VERSION_CODES.S
+                ? new Callback(ConnectivityManager.NetworkCallback.FLAG_INCLUDE_LOCATION_INFO)
+                : new Callback();
+        NetworkRequest request = new NetworkRequest.Builder()
+                .addTransportType(NetworkCapabilities.TRANSPORT_WIFI)
+                .build();
+        try {
+            connectivityManager.registerNetworkCallback(request, callback);
+        } catch (RuntimeException e) { // SecurityException or too many callbacks
+            Log.e(TAG, "registerNetworkCallback failed", e);
+            callback = null;
+        }
+    }
+
+    void stop() {
+        if(callback == null)
+            return;
+        try {
+            connectivityManager.unregisterNetworkCallback(callback);
+        } catch (IllegalArgumentException ignored) {
+        }
+        callback = null;
+        update(State.NONE);
+    }
+
+    private void update(State next) {
+        State previous = state.getAndSet(next);
+        if(previous.sameAs(next))
+            return;
+        Log.d(TAG, next.toString());
+        mainLooper.post(() -> {
+            if(state.get() != next)
+                return; // changed again, listeners get newer state
+            for(Listener listener : listeners)
+                listener.onNetworkStateChanged(next);
+        });
+    }
+
+    private String ssid(NetworkCapabilities capabilities) {
+        WifiInfo info = null;
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && capabilities.getTransportInfo() instanceof WifiInfo)
+            info = (WifiInfo) capabilities.getTransportInfo();
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.S && (info == null || isUnknown(info.getSSID())) && wifiManager != null)
+            info = wifiManager.getConnectionInfo(); // deprecated with S, where transport info is sufficient
+        String ssid = info != null ? info.getSSID() : null;
+        return isUnknown(ssid) ? null : ssid.replace("\"", "");
+    }
+
+    private static boolean isUnknown(String ssid) {
+        return ssid == null || ssid.equals(WifiManager.UNKNOWN_SSID);
+    }
+
+    /**
+     * called in ConnectivityThread
+     */
+    private class Callback extends ConnectivityManager.NetworkCallback {
+        Callback() {
+            super();
+        }
+
+        Callback(int flags) {
+            super(flags);
+        }
+
+        @Override
+        public void onCapabilitiesChanged(@NonNull Network network, @NonNull NetworkCapabilities capabilities) {
+            update(new State(network, ssid(capabilities)));
+        }
+
+        @Override
+        public void onLost(@NonNull Network network) {
+            if(network.equals(state.get().network))
+                update(State.NONE);
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+/**
+ * parse numbers from received text lines for plotting, e.g. "speed=12.5 rpm 300\n"
+ *
+ * each line gives one sample with up to MAX_VALUES values, the n-th number in a line is
+ * the value of series n. Numbers are decimal with optional '-' and fraction. Digits within
+ * words like "ch1" are ignored. Lines can be split into any chunks, parse() does not allocate.
+ */
+class NumberParser {
+
+    static final int MAX_VALUES = 8;
+
+    interface Sink {
+        void onValues(double[] values, int count); // values only valid during call
+    }
+
+    private static final double[] POW10 = new double[19];
+    static {
+        POW10[0] = 1;
+        for(int i = 1; i < POW10.length; i++)
+            POW10[i] = POW10[i - 1] * 10;
+    }
+
+    private final Sink sink;
+    private final double[] values = new double[MAX_VALUES];
+    private int count;
+
+    private boolean inWord, inNumber, minus, negative, fraction;
+    private long mantissa;
+    private int digits, scale;
+
+    NumberParser(Sink sink) {
+        this.sink = sink;
+    }
+
+    void parse(byte[] data) {
+        for(byte b : data) {
+            if(b >= '0' && b <= '9') {
+                if(inWord)
+                    continue;
+                if(!inNumber) {
+                    inNumber = true;
+                    negative = minus;
+                    fraction = false;
+                    mantissa = digits = scale = 0;
+                }
+                if(digits < 18) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    digits++;
+                    if(fraction)
+                        scale++;
+                } else if(!fraction && scale > -18) {
+                    scale--; // too many digits, keep magnitude
+                }
+                minus = false;
+                continue;
+            }
+            if(b == '.' && inNumber && !fraction) {
+                fraction = true;
+                continue;
+            }
+            endNumber();
+            inWord = b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b == '_';
+            minus = b == '-';
+            if(b == '\n')
+                endLine();
+        }
+    }
+
+    /**
+     * drop partial line, e.g. after reconnect
+     */
+    void reset() {
+        inWord = inNumber = minus = false;
+        count = 0;
+    }
+
+    private void endNumber() {
+        if(!inNumber)
+            return;
+        inNumber = false;
+        if(count < MAX_VALUES) {
+            double value = scale >= 0 ? mantissa / POW10[scale] : mantissa * POW10[-scale];
+            values[count++] = negative ? -value : value;
+        }
+    }
+
+    private void endLine() {
+        if(count > 0)
+            sink.onValues(values, count);
+        count = 0;
+    }
+
+}
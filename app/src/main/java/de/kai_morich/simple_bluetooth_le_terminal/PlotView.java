@@ -0,0 +1,128 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.View;
+
+import java.util.Locale;
+
+/**
+ * line plot of the last samples in a SampleBuffer, auto-scaled over all series
+ *
+ * each series is decimated to at most 2 points per pixel column, so drawing cost does not depend
+ * on the number of samples. All arrays are allocated in onSizeChanged, not per frame.
+ * Tap to cycle through the shown number of samples.
+ */
+public class PlotView extends View {
+
+    private static final int[] WINDOWS = {SampleBuffer.CAPACITY, 10000, 1000};
+    private static final int[] COLORS = {0xff00ff00, 0xff82caff, 0xffffdb58, 0xffff6e40,
+            0xffe040fb, 0xff18ffff, 0xffffffff, 0xffff1744};
+
+    private SampleBuffer buffer;
+    private int window = WINDOWS[0];
+    private final Paint[] paints = new Paint[NumberParser.MAX_VALUES];
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final float[] range = new float[2];
+    private final int[] counts = new int[NumberParser.MAX_VALUES];
+    private float[][] xs = new float[NumberParser.MAX_VALUES][0];
+    private float[][] ys = new float[NumberParser.MAX_VALUES][0];
+    private float[] lines = new float[0];
+
+    public PlotView(Context context) {
+        this(context, null);
+    }
+
+    public PlotView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        for (int i = 0; i < paints.length; i++) {
+            paints[i] = new Paint();
+            paints[i].setColor(COLORS[i]);
+            paints[i].setStrokeWidth(0); // hairline
+        }
+        textPaint.setColor(Color.LTGRAY);
+        textPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 12, getResources().getDisplayMetrics()));
+        setOnClickListener(v -> {
+            int i = 0;
+            while (WINDOWS[i] != window)
+                i++;
+            window = WINDOWS[(i + 1) % WINDOWS.length];
+            invalidate();
+        });
+    }
+
+    void setBuffer(SampleBuffer buffer) {
+        this.buffer = buffer;
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        for (int s = 0; s < NumberParser.MAX_VALUES; s++) {
+            xs[s] = new float[2 * w];
+            ys[s] = new float[2 * w];
+        }
+        lines = new float[8 * w];
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        SampleBuffer buffer = this.buffer;
+        int width = getWidth(), height = getHeight();
+        if (buffer == null || width == 0)
+            return;
+        long count = buffer.getCount();
+        int shown = (int) Math.min(window, Math.min(count, SampleBuffer.CAPACITY));
+        int seriesCount = buffer.getSeriesCount();
+        float min = Float.NaN, max = Float.NaN;
+        for (int s = 0; s < seriesCount; s++) {
+            counts[s] = buffer.decimate(s, shown, width, xs[s], ys[s]);
+            if (SampleBuffer.range(ys[s], counts[s], range) != null) {
+                min = min == min ? Math.min(min, range[0]) : range[0];
+                max = max == max ? Math.max(max, range[1]) : range[1];
+            }
+        }
+        float textHeight = textPaint.getTextSize();
+        String info = String.format(Locale.US, "%d of %d samples", shown, count);
+        canvas.drawText(info, width - textPaint.measureText(info), textHeight, textPaint);
+        if (min != min)
+            return;
+        if (max == min) {
+            max += 1;
+            min -= 1;
+        }
+        canvas.drawText(format(max), 0, textHeight, textPaint);
+        canvas.drawText(format(min), 0, height - textPaint.descent(), textPaint);
+        float top = textHeight * 1.5f, bottom = height - textHeight * 1.5f;
+        float scaleX = shown > 1 ? (float) (width - 1) / (shown - 1) : 0;
+        float scaleY = (bottom - top) / (max - min);
+        for (int s = 0; s < seriesCount; s++) {
+            float[] x = xs[s], y = ys[s];
+            int n = 0;
+            for (int i = 1; i < counts[s]; i++) {
+                if (y[i - 1] != y[i - 1] || y[i] != y[i])
+                    continue; // gap
+                lines[n++] = x[i - 1] * scaleX;
+                lines[n++] = bottom - (y[i - 1] - min) * scaleY;
+                lines[n++] = x[i] * scaleX;
+                lines[n++] = bottom - (y[i] - min) * scaleY;
+            }
+            if (counts[s] == 1 && y[0] == y[0])
+                canvas.drawPoint(0, bottom - (y[0] - min) * scaleY, paints[s]);
+            canvas.drawLines(lines, 0, n, paints[s]);
+        }
+    }
+
+    private static String format(float value) {
+        return Math.abs(value) >= 1e5 || Math.abs(value) < 1e-2 && value != 0
+                ? String.format(Locale.US, "%.3g", value)
+                : String.format(Locale.US, "%.2f", value);
+    }
+
+}
@@ -0,0 +1,55 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.util.ArrayDeque;
+
+/**
+ * merge data chunks until consumed, to reduce number of UI updates
+ *
+ * producer informs consumer only for the first chunk (add() returns true),
+ * further chunks are added until the consumer calls take(). If the consumer
+ * takes only part of the data, it has to continue on its own while !isEmpty()
+ */
+class ReadCoalescer {
+
+    private ArrayDeque<byte[]> datas = new ArrayDeque<>();
+    private int bytes;
+
+    /**
+     * @return true if consumer has to be informed
+     */
+    synchronized boolean add(byte[] data) {
+        boolean first = datas.isEmpty();
+        datas.add(data);
+        bytes += data.length;
+        return first;
+    }
+
+    synchronized ArrayDeque<byte[]> take() {
+        ArrayDeque<byte[]> taken = datas;
+        datas = new ArrayDeque<>();
+        bytes = 0;
+        return taken;
+    }
+
+    /**
+     * @return chunks up to maxBytes, at least one chunk if not empty
+     */
+    synchronized ArrayDeque<byte[]> take(int maxBytes) {
+        if(bytes <= maxBytes)
+            return take();
+        ArrayDeque<byte[]> taken = new ArrayDeque<>();
+        int length = 0;
+        while(!datas.isEmpty() && (taken.isEmpty() || length + datas.peek().length <= maxBytes)) {
+            byte[] data = datas.poll();
+            length += data.length;
+            taken.add(data);
+        }
+        bytes -= length;
+        return taken;
+    }
+
+    synchronized boolean isEmpty() {
+        return datas.isEmpty();
+    }
+
+}
@@ -0,0 +1,136 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Random;
+
+/**
+ * reconnect state for SerialService after an unexpected link loss
+ *   - jittered exponential backoff between reconnect attempts,
+ *   - bounded queue for data written while the link is down,
+ *   - outage statistics
+ *
+ * scheduling is left to the caller, so this class has no Android dependencies.
+ * Methods are synchronized, as data can be held from other threads than the one handling
+ * the outage. To combine isReconnecting() with hold() or writes to the socket, callers
+ * synchronize on the supervisor.
+ */
+class ReconnectSupervisor {
+
+    static final long INITIAL_DELAY = 500;       // ms
+    static final long MAX_DELAY = 30000;         // ms
+    static final int MAX_ATTEMPTS = 20;
+    static final int MAX_HELD_BYTES = 16 * 1024; // BLE link is slow, more would take ages to send after reconnect
+
+    private final ArrayDeque<byte[]> held = new ArrayDeque<>();
+    private final Random random;
+    private final long initialDelay, maxDelay;
+    private final int maxAttempts, maxHeldBytes;
+
+    private volatile boolean reconnecting;
+    private int attempt;
+    private int heldBytes;
+    private long lostTime;
+
+    // statistics
+    private int outages;
+    private long lastOutage, totalOutage;
+    private int lastHeldBytes, droppedBytes;
+
+    ReconnectSupervisor() {
+        this(INITIAL_DELAY, MAX_DELAY, MAX_ATTEMPTS, MAX_HELD_BYTES, new Random());
+    }
+
+    ReconnectSupervisor(long initialDelay, long maxDelay, int maxAttempts, int maxHeldBytes, Random random) {
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.maxAttempts = maxAttempts;
+        this.maxHeldBytes = maxHeldBytes;
+        this.random = random;
+    }
+
+    boolean isReconnecting() {
+        return reconnecting;
+    }
+
+    /**
+     * start outage. unsent data from the lost socket is kept, if it fits into the queue
+     */
+    synchronized void linkLost(long now, Collection<byte[]> unsent) {
+        if(reconnecting)
+            return;
+        reconnecting = true;
+        attempt = 0;
+        lostTime = now;
+        outages++;
+        for(byte[] data : unsent)
+            hold(data);
+    }
+
+    /**
+     * @return delay in ms before next attempt or -1 if attempts are exhausted
+     *
+     * 'equal jitter': half of the exponential delay is fixed, the other half random,
+     * so multiple devices losing the link at the same time do not retry in sync
+     */
+    synchronized long nextDelay() {
+        if(attempt >= maxAttempts)
+            return -1;
+        long delay = initialDelay << Math.min(attempt, 30);
+        if(delay <= 0 || delay > maxDelay)
+            delay = maxDelay;
+        attempt++;
+        return delay / 2 + (long) (random.nextDouble() * (delay / 2 + 1));
+    }
+
+    synchronized int getAttempt() {
+        return attempt;
+    }
+
+    /**
+     * @return false if queue is full and data was dropped
+     */
+    synchronized boolean hold(byte[] data) {
+        if(heldBytes + data.length > maxHeldBytes) {
+            droppedBytes += data.length;
+            return false;
+        }
+        held.add(data);
+        heldBytes += data.length;
+        return true;
+    }
+
+    /**
+     * end outage
+     * @return data held during outage, to be written in order
+     */
+    synchronized ArrayDeque<byte[]> linkRestored(long now) {
+        ArrayDeque<byte[]> datas = new ArrayDeque<>(held);
+        lastOutage = now - lostTime;
+        totalOutage += lastOutage;
+        lastHeldBytes = heldBytes;
+        held.clear();
+        heldBytes = 0;
+        reconnecting = false;
+        return datas;
+    }
+
+    /**
+     * stop reconnecting and drop held data
+     */
+    synchronized void reset() {
+        droppedBytes += heldBytes;
+        held.clear();
+        heldBytes = 0;
+        attempt = 0;
+        reconnecting = false;
+    }
+
+    synchronized int getHeldBytes()       { return heldBytes; }
+    synchronized int getOutages()         { return outages; }
+    synchronized long getLastOutage()     { return lastOutage; }
+    synchronized long getTotalOutage()    { return totalOutage; }
+    synchronized int getLastHeldBytes()   { return lastHeldBytes; }
+    synchronized int getDroppedBytes()    { return droppedBytes; }
+
+}
@@ -0,0 +1,229 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * replay received data without device, e.g. to reproduce problems or measure UI throughput
+ *
+ * drives SerialListener from a background thread like SerialSocket does from the GATT callback thread:
+ * onSerialConnect, onSerialRead per chunk and finally onSerialIoError with a summary.
+ * data comes from SessionCapture files or synthetic generators and is played
+ * at original timing, faster or as fast as possible.
+ */
+class ReplaySource implements SimulatedSocket {
+
+    static final double SPEED_MAX = 0; // as fast as possible
+
+    interface Generator {
+        /**
+         * @return next record or null at end. only DIRECTION_IN records are replayed
+         */
+        SessionCapture.Record next() throws IOException;
+        void close();
+    }
+
+    private final Generator generator;
+    private final double speed;
+
+    private volatile SerialListener listener;
+    private volatile boolean canceled;
+    private Thread thread;
+    private volatile long bytes, chunks, nanos;
+
+    /**
+     * @param speed 1 = original timing, 10 = 10x faster, SPEED_MAX = as fast as possible
+     */
+    ReplaySource(Generator generator, double speed) {
+        this.generator = generator;
+        this.speed = speed;
+    }
+
+    String getName() {
+        return "replay";
+    }
+
+    @Override
+    public void connect(SerialListener listener) throws IOException {
+        if(thread != null)
+            throw new IOException("already connected");
+        this.listener = listener;
+        thread = new Thread(this::run, "ReplaySource");
+        thread.start();
+    }
+
+    @Override
+    public void write(byte[] data) {
+        // sent data is ignored
+    }
+
+    @Override
+    public void disconnect() {
+        listener = null; // ignore remaining data and errors
+        canceled = true;
+        if(thread != null)
+            thread.interrupt();
+    }
+
+    long getBytes()  { return bytes; }
+    long getChunks() { return chunks; }
+    long getNanos()  { return nanos; }
+
+    private void run() {
+        long start = System.nanoTime();
+        Exception error = null;
+        try {
+            SerialListener listener = this.listener;
+            if(listener != null)
+                listener.onSerialConnect();
+            SessionCapture.Record record;
+            long firstTime = -1;
+            while(!canceled && (record = generator.next()) != null) {
+                if(record.direction != SessionCapture.DIRECTION_IN)
+                    continue;
+                if(firstTime < 0)
+                    firstTime = record.time;
+                if(speed > 0) {
+                    long due = start + (long) ((record.time - firstTime) / speed);
+                    long delay;
+                    while(!canceled && (delay = due - System.nanoTime()) > 0)
+                        LockSupport.parkNanos(delay);
+                }
+                listener = this.listener;
+                if(listener == null)
+                    break;
+                listener.onSerialRead(record.data);
+                bytes += record.data.length;
+                chunks++;
+            }
+        } catch (Exception e) {
+            error = e;
+        } finally {
+            generator.close();
+        }
+        nanos = System.nanoTime() - start;
+        SerialListener listener = this.listener;
+        if(listener != null) {
+            if(error != null)
+                listener.onSerialIoError(error);
+            else
+                listener.onSerialIoError(new IOException(String.format(Locale.US,
+                        "replay finished, %d bytes in %d ms, %.1f kB/s", bytes, nanos / 1000000, bytes * 1e6 / Math.max(nanos, 1))));
+        }
+    }
+
+    /**
+     * replay SessionCapture files in given order
+     */
+    static Generator fromCapture(List<File> files) {
+        ArrayList<File> remaining = new ArrayList<>(files);
+        return new Generator() {
+            private SessionCapture.Reader reader;
+            private long offset, lastTime; // files of one capture share time base, but be safe
+
+            @Override
+            public SessionCapture.Record next() throws IOException {
+                while(true) {
+                    if(reader == null) {
+                        if(remaining.isEmpty())
+                            return null;
+                        reader = new SessionCapture.Reader(remaining.remove(0));
+                        offset = lastTime;
+                    }
+                    SessionCapture.Record record = reader.next();
+                    if(record != null) {
+                        if(record.time + offset < lastTime)
+                            offset = lastTime - record.time;
+                        record.time += offset;
+                        lastTime = record.time;
+                        return record;
+                    }
+                    reader.close();
+                    reader = null;
+                }
+            }
+
+            @Override
+            public void close() {
+                try {
+                    if(reader != null)
+                        reader.close();
+                } catch (IOException ignored) {}
+            }
+        };
+    }
+
+    /**
+     * counter stream as sent by CounterStream.ino, see StreamVerifier.
+     * every dropEvery'th chunk is skipped to simulate lost notifications, 0 = no drops
+     */
+    static Generator counter(int chunkSize, long chunks, long intervalNanos, int dropEvery) {
+        return new Generator() {
+            private final StringBuilder sb = new StringBuilder();
+            private long value, count, time;
+
+            @Override
+            public SessionCapture.Record next() {
+                while(true) {
+                    if(count >= chunks)
+                        return null;
+                    while(sb.length() < chunkSize)
+                        sb.append(String.format(Locale.US, "%08X\n", value++ & 0xffffffffL));
+                    SessionCapture.Record record = new SessionCapture.Record();
+                    record.time = time;
+                    record.direction = SessionCapture.DIRECTION_IN;
+                    record.data = sb.substring(0, chunkSize).getBytes(StandardCharsets.US_ASCII);
+                    sb.delete(0, chunkSize);
+                    time += intervalNanos;
+                    count++;
+                    if(dropEvery == 0 || count % dropEvery != 0)
+                        return record;
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * numbered text lines like "0000001 xxxx...\r\n" with lineLength >= 10,
+     * sent in chunks of chunkSize every intervalNanos
+     */
+    static Generator synthetic(int lineLength, int chunkSize, long chunks, long intervalNanos) {
+        return new Generator() {
+            private final StringBuilder sb = new StringBuilder();
+            private long line, count;
+
+            @Override
+            public SessionCapture.Record next() {
+                if(count >= chunks)
+                    return null;
+                while(sb.length() < chunkSize) {
+                    sb.append(String.format(Locale.US, "%07d ", line++));
+                    for(int i = 10; i < lineLength; i++)
+                        sb.append('x');
+                    sb.append("\r\n");
+                }
+                SessionCapture.Record record = new SessionCapture.Record();
+                record.time = count * intervalNanos;
+                record.direction = SessionCapture.DIRECTION_IN;
+                record.data = sb.substring(0, chunkSize).getBytes(StandardCharsets.US_ASCII);
+                sb.delete(0, chunkSize);
+                count++;
+                return record;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+}
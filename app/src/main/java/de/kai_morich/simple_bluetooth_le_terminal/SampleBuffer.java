@@ -0,0 +1,236 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.util.Arrays;
+
+/**
+ * last CAPACITY samples of up to NumberParser.MAX_VALUES series in primitive ring buffers,
+ * decimated for drawing with cost depending on the output width, not on the number of samples
+ *
+ *   - few samples per pixel: Largest-Triangle-Three-Buckets (LTTB), keeping the shape of the line
+ *   - many samples per pixel: min/max per pixel column, keeping spikes. Min/max of buckets of
+ *     FACTOR, FACTOR^2, ... samples are updated on add(), so a column reads at most FACTOR entries
+ *
+ * add() and decimate() may be called from different threads.
+ */
+class SampleBuffer {
+
+    static final int CAPACITY = 65536;
+    static final int FACTOR = 16;
+    static final int LEVELS = 4; // raw, 16, 256, 4096 samples per entry
+
+    private final int series = NumberParser.MAX_VALUES;
+    private final float[][] values = new float[series][CAPACITY];
+    private final float[][][] mins = new float[LEVELS][][];   // [level][series][bucket], level 0 unused
+    private final float[][][] maxs = new float[LEVELS][][];
+
+    private long count;         // samples added
+    private int seriesCount;    // max values per sample
+
+    SampleBuffer() {
+        for(int level = 1; level < LEVELS; level++) {
+            mins[level] = new float[series][CAPACITY / bucketSize(level)];
+            maxs[level] = new float[series][CAPACITY / bucketSize(level)];
+        }
+    }
+
+    synchronized long getCount() {
+        return count;
+    }
+
+    synchronized int getSeriesCount() {
+        return seriesCount;
+    }
+
+    /**
+     * missing values are NaN and not drawn
+     */
+    synchronized void add(double[] sample, int length) {
+        for(; seriesCount < Math.min(length, series); seriesCount++) { // new series, no values before
+            Arrays.fill(values[seriesCount], Float.NaN);
+            for(int level = 1; level < LEVELS; level++) {
+                Arrays.fill(mins[level][seriesCount], Float.NaN);
+                Arrays.fill(maxs[level][seriesCount], Float.NaN);
+            }
+        }
+        int pos = (int) (count % CAPACITY);
+        for(int s = 0; s < seriesCount; s++) {
+            float value = s < length ? (float) sample[s] : Float.NaN;
+            values[s][pos] = value;
+            for(int level = 1; level < LEVELS; level++) {
+                int size = bucketSize(level);
+                int bucket = (int) (count / size % (CAPACITY / size));
+                if(count % size == 0) {
+                    mins[level][s][bucket] = Float.NaN;
+                    maxs[level][s][bucket] = Float.NaN;
+                }
+                if(value == value) {
+                    float min = mins[level][s][bucket];
+                    if(!(min <= value)) // NaN or larger
+                        mins[level][s][bucket] = value;
+                    float max = maxs[level][s][bucket];
+                    if(!(max >= value))
+                        maxs[level][s][bucket] = value;
+                }
+            }
+        }
+        count++;
+    }
+
+    synchronized void clear() {
+        count = 0;
+        seriesCount = 0;
+    }
+
+    /**
+     * decimate last window samples of series to at most 2 * width points
+     *
+     * @param xs    sample index relative to window start, size >= 2 * width
+     * @param ys    value, NaN for gaps
+     * @return number of points
+     */
+    synchronized int decimate(int s, int window, int width, float[] xs, float[] ys) {
+        window = (int) Math.min(window, Math.min(count, CAPACITY));
+        if(s >= seriesCount || window <= 0 || width <= 0)
+            return 0;
+        long start = count - window;
+        float[] data = values[s];
+        if(window <= 2 * width) {
+            for(int i = 0; i < window; i++) {
+                xs[i] = i;
+                ys[i] = data[(int) ((start + i) % CAPACITY)];
+            }
+            return window;
+        }
+        if(window <= FACTOR * width)
+            return lttb(data, start, window, 2 * width, xs, ys);
+        return minMax(s, start, window, width, xs, ys);
+    }
+
+    /**
+     * Largest-Triangle-Three-Buckets: first and last point, from each bucket in between the point
+     * with the largest triangle with the previously selected point and the average of the next bucket
+     */
+    private int lttb(float[] data, long start, int window, int threshold, float[] xs, float[] ys) {
+        double every = (double) (window - 2) / (threshold - 2);
+        int n = 0;
+        int a = 0; // selected point
+        xs[n] = 0;
+        ys[n++] = data[(int) (start % CAPACITY)];
+        for(int i = 0; i < threshold - 2; i++) {
+            int bucketStart = (int) (i * every) + 1;
+            int bucketEnd = Math.min((int) ((i + 1) * every) + 1, window - 1);
+            int nextStart = bucketEnd;
+            int nextEnd = Math.min((int) ((i + 2) * every) + 1, window);
+            double avgX = 0, avgY = 0;
+            int avgCount = 0;
+            for(int j = nextStart; j < nextEnd; j++) {
+                float y = data[(int) ((start + j) % CAPACITY)];
+                if(y == y) {
+                    avgX += j;
+                    avgY += y;
+                    avgCount++;
+                }
+            }
+            if(avgCount > 0) {
+                avgX /= avgCount;
+                avgY /= avgCount;
+            } else {
+                avgX = nextStart;
+                avgY = ys[n - 1];
+            }
+            float ay = data[(int) ((start + a) % CAPACITY)];
+            double maxArea = -1;
+            int selected = -1;
+            for(int j = bucketStart; j < bucketEnd; j++) {
+                float y = data[(int) ((start + j) % CAPACITY)];
+                if(y != y)
+                    continue;
+                double area = ay == ay ? Math.abs((a - avgX) * (y - ay) - (a - j) * (avgY - ay)) : Math.abs(y - avgY);
+                if(area > maxArea) {
+                    maxArea = area;
+                    selected = j;
+                }
+            }
+            if(selected < 0) { // only gaps in bucket
+                xs[n] = bucketStart;
+                ys[n++] = Float.NaN;
+                continue;
+            }
+            xs[n] = selected;
+            ys[n++] = data[(int) ((start + selected) % CAPACITY)];
+            a = selected;
+        }
+        xs[n] = window - 1;
+        ys[n++] = data[(int) ((start + window - 1) % CAPACITY)];
+        return n;
+    }
+
+    /**
+     * min and max per column from the coarsest level with at least one bucket per column
+     */
+    private int minMax(int s, long start, int window, int width, float[] xs, float[] ys) {
+        double perColumn = (double) window / width;
+        int level = 1;
+        while(level + 1 < LEVELS && bucketSize(level + 1) <= perColumn)
+            level++;
+        int size = bucketSize(level);
+        int buckets = CAPACITY / size;
+        long firstBucket = (start + size - 1) / size; // older buckets include samples before window or were reused
+        float[] data = values[s];
+        int n = 0;
+        for(int c = 0; c < width; c++) {
+            long from = start + (long) (c * perColumn);
+            long to = start + (long) ((c + 1) * perColumn);
+            float min = Float.NaN, max = Float.NaN;
+            for(long i = from; i < Math.min(to, firstBucket * size); i++) { // at most size - 1 samples at window start
+                float value = data[(int) (i % CAPACITY)];
+                if(!(min <= value))
+                    min = value == value ? value : min;
+                if(!(max >= value))
+                    max = value == value ? value : max;
+            }
+            for(long bucket = Math.max(from / size, firstBucket); bucket <= (to - 1) / size; bucket++) {
+                int slot = (int) (bucket % buckets);
+                float bucketMin = mins[level][s][slot], bucketMax = maxs[level][s][slot];
+                if(!(min <= bucketMin))
+                    min = bucketMin == bucketMin ? bucketMin : min;
+                if(!(max >= bucketMax))
+                    max = bucketMax == bucketMax ? bucketMax : max;
+            }
+            float x = (float) (c * perColumn);
+            xs[n] = x;
+            ys[n++] = min;
+            xs[n] = x;
+            ys[n++] = max;
+        }
+        return n;
+    }
+
+    private static int bucketSize(int level) {
+        int size = 1;
+        for(int i = 0; i < level; i++)
+            size *= FACTOR;
+        return size;
+    }
+
+    /**
+     * @return min and max of ys, ignoring NaN, or null if no values
+     */
+    static float[] range(float[] ys, int n, float[] range) {
+        boolean found = false;
+        for(int i = 0; i < n; i++) {
+            float y = ys[i];
+            if(y != y)
+                continue;
+            if(!found) {
+                range[0] = range[1] = y;
+                found = true;
+            } else {
+                range[0] = Math.min(range[0], y);
+                range[1] = Math.max(range[1], y);
+            }
+        }
+        return found ? range : null;
+    }
+
+}
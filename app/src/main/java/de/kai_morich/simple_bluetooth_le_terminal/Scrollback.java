@@ -0,0 +1,313 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * append-only store of received data with a trigram index, to search long sessions
+ * without keeping them in the TextView
+ *
+ * data is split into segments of SEGMENT_SIZE bytes, full segments are written to files in dir,
+ * each holding SEGMENTS_PER_FILE segments. The oldest file is deleted when more than maxBytes
+ * are stored. For each segment a bitmap of the trigrams (ASCII lower case) starting in the
+ * segment or up to OVERLAP bytes after it is kept in memory, FILTER_BITS / 8 bytes per segment.
+ * A search only reads segments containing all trigrams of the first OVERLAP bytes of the pattern,
+ * with few false positives, as the bitmap of a 64 kB log segment is typically < 20% filled.
+ *
+ * append() is called from one thread, e.g. SerialService io thread, find and read methods from any other thread.
+ */
+class Scrollback implements Closeable {
+
+    static final int SEGMENT_SIZE = 65536;
+    static final int SEGMENTS_PER_FILE = 64;
+    static final int FILTER_BITS = 32768;
+    static final int OVERLAP = 64;
+    static final long MAX_BYTES = 256L * 1024 * 1024;
+
+    private static final int FILTER_SHIFT = 32 - Integer.numberOfTrailingZeros(FILTER_BITS);
+
+    private final File dir;
+    private final long maxBytes;
+    private final ArrayList<long[]> filters = new ArrayList<>(); // from firstSegment
+    private final ArrayList<RandomAccessFile> files = new ArrayList<>(); // from firstSegment
+    private final byte[] buffer = new byte[SEGMENT_SIZE]; // current segment
+
+    private long firstSegment;  // older segments were deleted
+    private long size;          // bytes appended
+    private int trigram;        // last 2 bytes, lower case
+    private IOException error;
+
+    /**
+     * deletes files, like clear() and close(), so better not called in main thread
+     * @param dir for segment files, existing files are deleted
+     */
+    Scrollback(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = Math.max(maxBytes, (long) SEGMENTS_PER_FILE * SEGMENT_SIZE * 2);
+        deleteFiles();
+        filters.add(new long[FILTER_BITS / 64]);
+    }
+
+    synchronized long getStart() {
+        return firstSegment * SEGMENT_SIZE;
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    void append(byte[] data) throws IOException {
+        int pos = 0;
+        while(pos < data.length) {
+            synchronized (this) {
+                if(error != null)
+                    throw error;
+                int offset = (int) (size % SEGMENT_SIZE);
+                int length = Math.min(data.length - pos, SEGMENT_SIZE - offset);
+                System.arraycopy(data, pos, buffer, offset, length);
+                index(data, pos, length);
+                size += length;
+                pos += length;
+                if(size % SEGMENT_SIZE == 0) {
+                    try {
+                        writeSegment();
+                    } catch (IOException e) {
+                        error = e;
+                        throw e;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return offset of first match at or after from, or -1
+     */
+    long find(byte[] pattern, long from, boolean ignoreCase) throws IOException {
+        if(pattern.length == 0)
+            return -1;
+        int[] bits = trigramBits(pattern);
+        for(long segment = Math.max(from, getStart()) / SEGMENT_SIZE; ; segment++) {
+            long start = segment * SEGMENT_SIZE;
+            synchronized (this) {
+                if(start >= size)
+                    return -1;
+                if(segment < firstSegment || !contains(segment, bits))
+                    continue;
+            }
+            byte[] data = read(start, SEGMENT_SIZE + pattern.length - 1);
+            for(int pos = (int) Math.max(0, from - start); pos < Math.min(SEGMENT_SIZE, data.length); pos++)
+                if(matches(data, pos, pattern, ignoreCase))
+                    return start + pos;
+        }
+    }
+
+    /**
+     * @return offset of last match starting before before, or -1
+     */
+    long findLast(byte[] pattern, long before, boolean ignoreCase) throws IOException {
+        if(pattern.length == 0)
+            return -1;
+        int[] bits = trigramBits(pattern);
+        before = Math.min(before, getSize());
+        for(long segment = (before - 1) / SEGMENT_SIZE; before > 0 && segment >= 0; segment--) {
+            long start = segment * SEGMENT_SIZE;
+            synchronized (this) {
+                if(segment < firstSegment)
+                    return -1;
+                if(!contains(segment, bits))
+                    continue;
+            }
+            byte[] data = read(start, SEGMENT_SIZE + pattern.length - 1);
+            for(int pos = (int) Math.min(SEGMENT_SIZE, before - start) - 1; pos >= 0; pos--)
+                if(matches(data, pos, pattern, ignoreCase))
+                    return start + pos;
+        }
+        return -1;
+    }
+
+    /**
+     * @return data from offset, shorter at end of data, empty if offset was deleted
+     *
+     * segment files are read outside the lock, so append() is not blocked by a search. Written
+     * segments do not change and positional reads do not move the file pointer used by append().
+     */
+    byte[] read(long offset, int length) throws IOException {
+        byte[] data;
+        long fileEnd;
+        long firstFile = offset / SEGMENT_SIZE / SEGMENTS_PER_FILE;
+        ArrayList<FileChannel> channels = new ArrayList<>();
+        synchronized (this) {
+            if(offset < getStart() || offset >= size)
+                return new byte[0];
+            data = new byte[(int) Math.min(length, size - offset)];
+            fileEnd = Math.min(size / SEGMENT_SIZE * SEGMENT_SIZE, offset + data.length);
+            for(long fileIndex = firstFile; fileIndex * SEGMENTS_PER_FILE * SEGMENT_SIZE < fileEnd; fileIndex++)
+                channels.add(file(fileIndex).getChannel());
+            int pos = (int) Math.max(0, fileEnd - offset);
+            if(pos < data.length)
+                System.arraycopy(buffer, (int) ((offset + pos) % SEGMENT_SIZE), data, pos, data.length - pos);
+        }
+        try {
+            int pos = 0;
+            while(offset + pos < fileEnd) {
+                long fileIndex = (offset + pos) / SEGMENT_SIZE / SEGMENTS_PER_FILE;
+                long fileStart = fileIndex * SEGMENTS_PER_FILE * SEGMENT_SIZE;
+                int count = (int) (Math.min(fileEnd, fileStart + (long) SEGMENTS_PER_FILE * SEGMENT_SIZE) - offset - pos);
+                readFully(channels.get((int) (fileIndex - firstFile)), offset + pos - fileStart, data, pos, count);
+                pos += count;
+            }
+        } catch (IOException e) {
+            synchronized (this) { // file closed while reading
+                if(offset < getStart() || offset >= size)
+                    return new byte[0];
+            }
+            throw e;
+        }
+        return data;
+    }
+
+    synchronized void clear() {
+        closeFiles();
+        deleteFiles();
+        filters.clear();
+        filters.add(new long[FILTER_BITS / 64]);
+        firstSegment = size = 0;
+        trigram = 0;
+        error = null;
+    }
+
+    @Override
+    public synchronized void close() {
+        closeFiles();
+        deleteFiles();
+    }
+
+    /**
+     * add trigrams ending in data to filters of the segments containing them within OVERLAP
+     */
+    private void index(byte[] data, int pos, int length) {
+        long end = size + length;
+        int t = trigram;
+        for(long offset = size; offset < end; offset++) {
+            t = (t << 8 | lower(data[pos++])) & 0xffffff;
+            long start = offset - 2; // trigram start
+            if(start < 0)
+                continue;
+            int bit = bit(t);
+            long segment = start / SEGMENT_SIZE;
+            setBit(segment, bit);
+            if(start % SEGMENT_SIZE <= OVERLAP - 3 && segment > firstSegment)
+                setBit(segment - 1, bit);
+        }
+        trigram = t;
+    }
+
+    private void setBit(long segment, int bit) {
+        int index = (int) (segment - firstSegment);
+        while(filters.size() <= index)
+            filters.add(new long[FILTER_BITS / 64]);
+        filters.get(index)[bit >>> 6] |= 1L << bit;
+    }
+
+    private boolean contains(long segment, int[] bits) {
+        int index = (int) (segment - firstSegment);
+        if(index >= filters.size())
+            return false;
+        long[] filter = filters.get(index);
+        for(int bit : bits)
+            if((filter[bit >>> 6] & 1L << bit) == 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * @return filter bits of pattern trigrams within OVERLAP, empty if pattern is too short
+     */
+    private int[] trigramBits(byte[] pattern) {
+        int count = Math.max(0, Math.min(pattern.length, OVERLAP) - 2);
+        int[] bits = new int[count];
+        for(int i = 0; i < count; i++)
+            bits[i] = bit(lower(pattern[i]) << 16 | lower(pattern[i + 1]) << 8 | lower(pattern[i + 2]));
+        return bits;
+    }
+
+    private void writeSegment() throws IOException {
+        long segment = size / SEGMENT_SIZE - 1;
+        long fileIndex = segment / SEGMENTS_PER_FILE;
+        if(segment % SEGMENTS_PER_FILE == 0)
+            files.add(new RandomAccessFile(new File(dir, "scrollback-" + fileIndex), "rw"));
+        RandomAccessFile file = file(fileIndex);
+        file.seek((segment % SEGMENTS_PER_FILE) * SEGMENT_SIZE);
+        file.write(buffer);
+        if(size - getStart() > maxBytes) {
+            files.remove(0).close();
+            if(!new File(dir, "scrollback-" + firstSegment / SEGMENTS_PER_FILE).delete())
+                throw new IOException("cannot delete scrollback file");
+            for(int i = 0; i < SEGMENTS_PER_FILE; i++)
+                filters.remove(0);
+            firstSegment += SEGMENTS_PER_FILE;
+        }
+    }
+
+    private static void readFully(FileChannel channel, long position, byte[] data, int pos, int count) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data, pos, count);
+        while(buf.hasRemaining()) {
+            if(channel.read(buf, position + buf.position() - pos) < 0)
+                throw new EOFException();
+        }
+    }
+
+    private RandomAccessFile file(long fileIndex) throws IOException {
+        int index = (int) (fileIndex - firstSegment / SEGMENTS_PER_FILE);
+        if(index < 0 || index >= files.size())
+            throw new IOException("scrollback file missing");
+        return files.get(index);
+    }
+
+    private void closeFiles() {
+        for(RandomAccessFile file : files) {
+            try {
+                file.close();
+            } catch (IOException ignored) {
+            }
+        }
+        files.clear();
+    }
+
+    private void deleteFiles() {
+        if(!dir.isDirectory() && !dir.mkdirs())
+            return;
+        File[] list = dir.listFiles((d, name) -> name.startsWith("scrollback-"));
+        if(list != null)
+            for(File file : list)
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+    }
+
+    private static boolean matches(byte[] data, int pos, byte[] pattern, boolean ignoreCase) {
+        if(pos + pattern.length > data.length)
+            return false;
+        for(int i = 0; i < pattern.length; i++) {
+            byte b = data[pos + i];
+            if(b != pattern[i] && (!ignoreCase || lower(b) != lower(pattern[i])))
+                return false;
+        }
+        return true;
+    }
+
+    private static int lower(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b & 0xff;
+    }
+
+    private static int bit(int trigram) {
+        return (trigram * 0x9E3779B1) >>> FILTER_SHIFT;
+    }
+
+}
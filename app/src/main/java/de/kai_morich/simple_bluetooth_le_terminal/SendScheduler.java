@@ -0,0 +1,246 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * send periodic data or scripts in a timing thread, so send times do not depend on UI responsiveness
+ *
+ *   - deadlines are derived from the previous deadline, not from the actual send time, so
+ *     delays do not accumulate. If a deadline is missed by more than the wait, e.g. the thread
+ *     was not scheduled, the schedule continues from now instead of sending a burst (overrun)
+ *   - the thread sleeps until shortly before the deadline and busy waits the rest, as sleep
+ *     wakes up late by up to a few 100 us
+ *   - while the write queue has more than maxQueue chunks, sending pauses and the schedule
+ *     continues from the end of the pause, so a slow link is not flooded
+ *   - jitter is the delay between deadline and actual write, in a histogram
+ *
+ * script format, one command per line:
+ *   send text       text followed by newline
+ *   hex 01 02 0A    bytes
+ *   wait 20         ms after previous deadline
+ *   loop [count]    run script count times in total, without count forever
+ *   # comment
+ */
+class SendScheduler {
+
+    static final int MAX_QUEUE = 8;                 // write queue chunks
+    static final long SPIN_NANOS = 500000L;
+    static final long PAUSE_POLL_NANOS = 1000000L;
+
+    interface Sink {
+        int getWriteQueueSize();
+        void write(byte[] data) throws IOException;
+    }
+
+    interface Listener {
+        void onFinished(Stats stats, Exception e); // e null if completed or canceled, called in timing thread
+    }
+
+    static class Step {
+        final byte[] data;      // null for wait
+        final long waitNanos;
+
+        Step(byte[] data, long waitNanos) {
+            this.data = data;
+            this.waitNanos = waitNanos;
+        }
+    }
+
+    static class Script {
+        final ArrayList<Step> steps = new ArrayList<>();
+        int loops = 1;          // 0 = forever
+
+        /**
+         * @param count number of sends, 0 = forever
+         */
+        static Script periodic(byte[] data, long intervalMillis, int count) {
+            Script script = new Script();
+            script.steps.add(new Step(data, 0));
+            script.steps.add(new Step(null, intervalMillis * 1000000));
+            script.loops = count;
+            return script;
+        }
+
+        static Script parse(CharSequence text, String newline) {
+            Script script = new Script();
+            String[] lines = text.toString().split("\r?\n");
+            for(int i = 0; i < lines.length; i++) {
+                String line = lines[i].trim();
+                if(line.isEmpty() || line.startsWith("#"))
+                    continue;
+                int space = line.indexOf(' ');
+                String command = space < 0 ? line : line.substring(0, space);
+                String argument = space < 0 ? "" : line.substring(space + 1).trim();
+                try {
+                    switch (command) {
+                        case "send":
+                            script.steps.add(new Step((argument + newline).getBytes(), 0));
+                            break;
+                        case "hex":
+                            script.steps.add(new Step(TextCodec.fromHexString(argument), 0));
+                            break;
+                        case "wait":
+                            long millis = Long.parseLong(argument);
+                            if(millis < 0)
+                                throw new NumberFormatException();
+                            script.steps.add(new Step(null, millis * 1000000));
+                            break;
+                        case "loop":
+                            script.loops = argument.isEmpty() ? 0 : Integer.parseInt(argument);
+                            if(script.loops < 0)
+                                throw new NumberFormatException();
+                            return script.check();
+                        default:
+                            throw new IllegalArgumentException("line " + (i + 1) + ": unknown command " + command);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("line " + (i + 1) + ": invalid number " + argument);
+                }
+            }
+            return script.check();
+        }
+
+        private Script check() {
+            for(Step step : steps)
+                if(step.data != null)
+                    return this;
+            throw new IllegalArgumentException("nothing to send");
+        }
+    }
+
+    static class Stats {
+        long nanos;
+        long sends, bytes;
+        long overruns;
+        long pauses, pausedNanos;
+        LinkMetrics.Histogram jitter;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d sent, %d bytes in %.1f s, jitter %s, %d overruns, %d pauses / %d ms",
+                    sends, bytes, nanos / 1e9, jitter, overruns, pauses, pausedNanos / 1000000);
+        }
+    }
+
+    private final Script script;
+    private final Sink sink;
+    private final Listener listener;
+    private final int maxQueue;
+    private final LinkMetrics.Histogram jitter = new LinkMetrics.Histogram();
+
+    private volatile boolean canceled;
+    private Thread thread;
+    private long startTime, endTime;
+    private long sends, bytes, overruns, pauses, pausedNanos;
+
+    SendScheduler(Script script, Sink sink, Listener listener, int maxQueue) {
+        this.script = script;
+        this.sink = sink;
+        this.listener = listener;
+        this.maxQueue = maxQueue;
+    }
+
+    void start() {
+        synchronized (this) {
+            startTime = System.nanoTime();
+        }
+        thread = new Thread(this::run, "SendScheduler");
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    void cancel() {
+        canceled = true;
+        if(thread != null)
+            LockSupport.unpark(thread);
+    }
+
+    synchronized Stats stats() {
+        Stats stats = new Stats();
+        stats.nanos = (endTime != 0 ? endTime : System.nanoTime()) - startTime;
+        stats.sends = sends;
+        stats.bytes = bytes;
+        stats.overruns = overruns;
+        stats.pauses = pauses;
+        stats.pausedNanos = pausedNanos;
+        stats.jitter = jitter.copy();
+        return stats;
+    }
+
+    private void run() {
+        Exception error = null;
+        long deadline;
+        synchronized (this) {
+            deadline = startTime;
+        }
+        try {
+            for(int loop = 0; !canceled && (script.loops == 0 || loop < script.loops); loop++) {
+                for(Step step : script.steps) {
+                    if(canceled)
+                        break;
+                    if(step.data != null) {
+                        deadline = waitForQueue(deadline);
+                        waitUntil(deadline);
+                        if(canceled)
+                            break;
+                        long now = System.nanoTime();
+                        sink.write(step.data);
+                        synchronized (this) {
+                            sends++;
+                            bytes += step.data.length;
+                            jitter.add((now - deadline) / 1000);
+                        }
+                    } else {
+                        deadline += step.waitNanos;
+                        long now = System.nanoTime();
+                        if(now - deadline > step.waitNanos) {
+                            deadline = now;
+                            synchronized (this) {
+                                overruns++;
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            error = e;
+        }
+        synchronized (this) {
+            endTime = System.nanoTime();
+        }
+        listener.onFinished(stats(), error);
+    }
+
+    /**
+     * @return deadline, moved to end of pause
+     */
+    private long waitForQueue(long deadline) {
+        if(sink.getWriteQueueSize() <= maxQueue)
+            return deadline;
+        long start = System.nanoTime();
+        while(!canceled && sink.getWriteQueueSize() > maxQueue)
+            LockSupport.parkNanos(PAUSE_POLL_NANOS);
+        long now = System.nanoTime();
+        synchronized (this) {
+            pauses++;
+            pausedNanos += now - start;
+        }
+        return Math.max(deadline, now);
+    }
+
+    private void waitUntil(long deadline) {
+        while(!canceled) {
+            long remaining = deadline - System.nanoTime();
+            if(remaining <= 0)
+                return;
+            if(remaining > SPIN_NANOS)
+                LockSupport.parkNanos(remaining - SPIN_NANOS);
+            else
+                Thread.yield();
+        }
+    }
+
+}
@@ -8,4 +8,5 @@ interface SerialListener {
     void onSerialRead         (byte[] data);                // socket -> service
     void onSerialRead         (ArrayDeque<byte[]> datas);   // service -> UI thread
     void onSerialIoError      (Exception e);
+    void onSerialReconnecting (Exception e);                // service -> UI thread, link lost, reconnect pending
 }
@@ -5,20 +5,31 @@ import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.bluetooth.BluetoothDevice;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
 
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import androidx.core.app.NotificationCompat;
 
+import java.io.File;
 import java.io.IOException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 
 /**
  * create notification and queue serial data while activity is not in the foreground
@@ -30,7 +41,7 @@ public class SerialService extends Service implements SerialListener {
         SerialService getService() { return SerialService.this; }
     }
 
-    private enum QueueType {Connect, ConnectError, Read, IoError}
+    private enum QueueType {Connect, ConnectError, Read, IoError, Reconnecting}
 
     private static class QueueItem {
         QueueType type;
@@ -45,14 +56,35 @@ public class SerialService extends Service implements SerialListener {
         void add(byte[] data) { datas.add(data); }
     }
 
+    private static final String TAG = "SerialService";
+    static final int MAX_READ_BYTES_PER_FRAME = 16384;
+
     private final Handler mainLooper;
     private final IBinder binder;
     private final ArrayDeque<QueueItem> queue1, queue2;
-    private final QueueItem lastRead;
+    private final ReadCoalescer lastRead;
+    private final Choreographer choreographer;
+    private final Choreographer.FrameCallback readFrameCallback = this::onReadFrame;
+    private final FrameCounter frameCounter;
 
-    private SerialSocket socket;
+    private volatile SerialSocket socket;
     private SerialListener listener;
-    private boolean connected;
+    private boolean readsHeld; // guarded by this, until connect is delivered to listener
+    private volatile boolean connected; // volatile as written from SendScheduler thread
+
+    private volatile ReconnectSupervisor reconnect; // null if disabled
+    private BluetoothDevice reconnectDevice;
+    private final Runnable reconnectRunnable = this::reconnectNow;
+
+    private final LinkedHashMap<String, SerialSession> sessions;
+    private final SessionScheduler sessionScheduler;
+
+    private final IoDispatcher io;
+    private HandlerThread ioThread;
+
+    private volatile SessionCapture capture;
+    private volatile SimulatedSocket simulation; // ReplaySource, EchoSocket, ... instead of SerialSocket
+    private SendScheduler sendScheduler;
 
     /**
      * Lifecylce
@@ -62,13 +94,29 @@ public class SerialService extends Service implements SerialListener {
         binder = new SerialBinder();
         queue1 = new ArrayDeque<>();
         queue2 = new ArrayDeque<>();
-        lastRead = new QueueItem(QueueType.Read);
+        lastRead = new ReadCoalescer();
+        choreographer = Choreographer.getInstance(); // of main thread, as created in main thread
+        frameCounter = new FrameCounter();
+        sessions = new LinkedHashMap<>();
+        sessionScheduler = new SessionScheduler(mainLooper::post);
+        io = new IoDispatcher();
     }
 
     @Override
     public void onDestroy() {
         cancelNotification();
+        choreographer.removeFrameCallback(readFrameCallback);
         disconnect();
+        for(SerialSession session : sessions.values())
+            session.disconnect();
+        sessions.clear();
+        stopCapture();
+        io.clear();
+        if(ioThread != null) {
+            io.setExecutor(null);
+            ioThread.quitSafely();
+            ioThread = null;
+        }
         super.onDestroy();
     }
 
@@ -84,12 +132,38 @@ public class SerialService extends Service implements SerialListener {
     public void connect(SerialSocket socket) throws IOException {
         socket.connect(this);
         this.socket = socket;
+        reconnectDevice = socket.getDevice();
+        connected = true;
+    }
+
+    /**
+     * use simulated device like ReplaySource or EchoSocket instead of SerialSocket
+     */
+    public void connect(SimulatedSocket simulation) throws IOException {
+        // set before connect, simulations call onSerialConnect, onSerialRead right away from their thread
+        this.simulation = simulation;
         connected = true;
+        try {
+            simulation.connect(this);
+        } catch (IOException | RuntimeException e) {
+            connected = false;
+            this.simulation = null;
+            throw e;
+        }
     }
 
     public void disconnect() {
         connected = false; // ignore data,errors while disconnecting
+        stopSendScript();
+        mainLooper.removeCallbacks(reconnectRunnable);
+        if(reconnect != null)
+            reconnect.reset();
         cancelNotification();
+        io.reset();
+        if(simulation != null) {
+            simulation.disconnect();
+            simulation = null;
+        }
         if(socket != null) {
             socket.disconnect();
             socket = null;
@@ -99,9 +173,177 @@ public class SerialService extends Service implements SerialListener {
     public void write(byte[] data) throws IOException {
         if(!connected)
             throw new IOException("not connected");
+        SimulatedSocket simulation = this.simulation;
+        if(simulation != null) {
+            simulation.write(data);
+            return;
+        }
+        ReconnectSupervisor reconnect = this.reconnect;
+        if(reconnect != null) {
+            // also called from SendScheduler thread, so check and hold or write while
+            // link loss and restore in main thread cannot take or send the held data
+            synchronized (reconnect) {
+                if(reconnect.isReconnecting()) {
+                    if(!reconnect.hold(data))
+                        throw new IOException("reconnect queue full");
+                } else {
+                    writeSocket(data);
+                }
+            }
+        } else {
+            writeSocket(data);
+        }
+        SessionCapture capture = this.capture;
+        if(capture != null)
+            capture.record(SessionCapture.DIRECTION_OUT, data);
+    }
+
+    private void writeSocket(byte[] data) throws IOException {
+        SerialSocket socket = this.socket;
+        if(socket == null)
+            throw new IOException("not connected");
         socket.write(data);
     }
 
+    /**
+     * send script or periodic data in SendScheduler thread, paused while write queue is full.
+     * listener is called in main thread, also when stopped or disconnected
+     */
+    void startSendScript(SendScheduler.Script script, SendScheduler.Listener listener) throws IOException {
+        checkMainThread();
+        if(!connected)
+            throw new IOException("not connected");
+        stopSendScript();
+        SendScheduler.Sink sink = new SendScheduler.Sink() {
+            @Override
+            public int getWriteQueueSize() {
+                return SerialService.this.getWriteQueueSize();
+            }
+
+            @Override
+            public void write(byte[] data) throws IOException {
+                SerialService.this.write(data);
+            }
+        };
+        SendScheduler[] scheduler = new SendScheduler[1];
+        scheduler[0] = new SendScheduler(script, sink, (stats, e) -> mainLooper.post(() -> {
+            if(sendScheduler == scheduler[0])
+                sendScheduler = null;
+            listener.onFinished(stats, e);
+        }), SendScheduler.MAX_QUEUE);
+        sendScheduler = scheduler[0];
+        sendScheduler.start();
+    }
+
+    void stopSendScript() {
+        if(sendScheduler != null)
+            sendScheduler.cancel();
+    }
+
+    /**
+     * @return statistics of running send script or null
+     */
+    @Nullable
+    SendScheduler.Stats getSendScriptStats() {
+        return sendScheduler != null ? sendScheduler.stats() : null;
+    }
+
+    /**
+     * record data sent and received to files in dir, see SessionCapture
+     */
+    public void startCapture(File dir) throws IOException {
+        checkMainThread();
+        if(capture != null)
+            return;
+        String name = "capture-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        capture = new SessionCapture(dir, name);
+    }
+
+    /**
+     * remaining records are written in background, so the files can still grow
+     *
+     * @return capture files
+     */
+    public ArrayList<File> stopCapture() {
+        SessionCapture capture = this.capture;
+        if(capture == null)
+            return new ArrayList<>();
+        this.capture = null;
+        // close() waits until up to MAX_PENDING_BYTES are written, not in main thread
+        new Thread(() -> {
+            try {
+                capture.close();
+            } catch (IOException e) {
+                Log.w(TAG, "capture failed", e);
+            }
+            Log.d(TAG, "capture stopped, "+capture.getRecords()+" records, "+capture.getBytes()+" bytes, "+capture.getDroppedRecords()+" dropped");
+        }, "SessionCapture.close").start();
+        return capture.getFiles();
+    }
+
+    public boolean isCapturing() {
+        return capture != null;
+    }
+
+    /**
+     * reconnect automatically after link loss instead of reporting onSerialIoError.
+     * data written while reconnecting is queued and sent after reconnect.
+     */
+    public void setReconnect(boolean enabled) {
+        if(Looper.getMainLooper().getThread() != Thread.currentThread())
+            throw new IllegalArgumentException("not in main thread");
+        if(enabled && reconnect == null)
+            reconnect = new ReconnectSupervisor();
+        if(!enabled && reconnect != null) {
+            boolean wasReconnecting = reconnect.isReconnecting();
+            mainLooper.removeCallbacks(reconnectRunnable);
+            reconnect.reset();
+            reconnect = null;
+            if(wasReconnecting && connected) {
+                IOException e = new IOException("reconnect canceled");
+                io.onIoError(e);
+                if(listener != null)
+                    listener.onSerialIoError(e);
+            }
+        }
+    }
+
+    /**
+     * @return counters and histograms of current connection or null
+     */
+    @Nullable
+    LinkMetrics.Snapshot getLinkMetrics() {
+        SerialSocket socket = this.socket;
+        return socket != null ? socket.getMetrics() : null;
+    }
+
+    /**
+     * @return chunks waiting in socket write queue, e.g. for flow control in FileSender,
+     * Integer.MAX_VALUE while reconnecting
+     */
+    int getWriteQueueSize() {
+        if(reconnect != null && reconnect.isReconnecting())
+            return Integer.MAX_VALUE;
+        SerialSocket socket = this.socket;
+        return socket != null && simulation == null ? socket.getWriteQueueSize() : 0;
+    }
+
+    /**
+     * @return counters of frame synchronized read delivery to UI
+     */
+    FrameCounter getFrameCounter() {
+        return frameCounter;
+    }
+
+    public boolean isReconnectEnabled() {
+        return reconnect != null;
+    }
+
+    @Nullable
+    ReconnectSupervisor getReconnectSupervisor() {
+        return reconnect;
+    }
+
     public void attach(SerialListener listener) {
         if(Looper.getMainLooper().getThread() != Thread.currentThread())
             throw new IllegalArgumentException("not in main thread");
@@ -118,14 +360,17 @@ public class SerialService extends Service implements SerialListener {
                 case ConnectError:  listener.onSerialConnectError (item.e); break;
                 case Read:          listener.onSerialRead         (item.datas); break;
                 case IoError:       listener.onSerialIoError      (item.e); break;
+                case Reconnecting:  listener.onSerialReconnecting (item.e); break;
             }
         }
+        flushReads(); // received before detach, but not delivered in a frame yet
         for(QueueItem item : queue2) {
             switch(item.type) {
                 case Connect:       listener.onSerialConnect      (); break;
                 case ConnectError:  listener.onSerialConnectError (item.e); break;
                 case Read:          listener.onSerialRead         (item.datas); break;
                 case IoError:       listener.onSerialIoError      (item.e); break;
+                case Reconnecting:  listener.onSerialReconnecting (item.e); break;
             }
         }
         queue1.clear();
@@ -141,6 +386,125 @@ public class SerialService extends Service implements SerialListener {
         listener = null;
     }
 
+    /**
+     * Background listeners
+     *
+     * get the same events as the UI listener, but in a dedicated thread, so parsing, logging, ...
+     * does not compete with rendering and only final results have to be posted to the main thread.
+     * Events are in the same order as for the UI listener and reads are merged while the
+     * thread is busy, see IoDispatcher.
+     */
+    public void addIoListener(SerialListener listener) {
+        addIoListener(listener, false);
+    }
+
+    /**
+     * @param first deliver before listeners added earlier, e.g. for receive timestamps
+     */
+    public void addIoListener(SerialListener listener, boolean first) {
+        checkMainThread();
+        if(ioThread == null) {
+            ioThread = new HandlerThread("SerialService.io");
+            ioThread.start();
+            io.setExecutor(new Handler(ioThread.getLooper())::post);
+        }
+        if(first)
+            io.addFirst(listener);
+        else
+            io.add(listener);
+    }
+
+    public void removeIoListener(SerialListener listener) {
+        checkMainThread();
+        io.remove(listener);
+    }
+
+    /**
+     * Multiple devices
+     *
+     * sessions are additional connections besides the one from connect(SerialSocket),
+     * e.g. to monitor several sensors. Each session has its own listener, read queue and
+     * write queue. Events are delivered round robin to the listeners in the main thread,
+     * see SessionScheduler. Sessions are only accessed from main thread.
+     */
+    public void connect(String address, SerialSocket socket) throws IOException {
+        connect(address, new SimulatedSocket() {
+            @Override public void connect(SerialListener listener) throws IOException { socket.connect(listener); }
+            @Override public void write(byte[] data) throws IOException { socket.write(data); }
+            @Override public void disconnect() { socket.disconnect(); }
+        });
+    }
+
+    /**
+     * session with simulated device, e.g. ReplaySource or EchoSocket
+     */
+    public void connect(String address, SimulatedSocket socket) throws IOException {
+        checkMainThread();
+        if(sessions.containsKey(address))
+            throw new IOException("already connected");
+        SerialSession session = new SerialSession(address, socket, sessionScheduler);
+        sessions.put(address, session);
+        try {
+            session.connect();
+        } catch (IOException | RuntimeException e) {
+            sessions.remove(address);
+            throw e;
+        }
+    }
+
+    public void disconnect(String address) {
+        checkMainThread();
+        SerialSession session = sessions.remove(address);
+        if(session != null) {
+            sessionScheduler.remove(session);
+            session.disconnect();
+        }
+    }
+
+    public void write(String address, byte[] data) throws IOException {
+        checkMainThread();
+        SerialSession session = sessions.get(address);
+        if(session == null)
+            throw new IOException("not connected");
+        session.write(data);
+    }
+
+    public void attach(String address, SerialListener listener) {
+        checkMainThread();
+        SerialSession session = sessions.get(address);
+        if(session != null)
+            session.attach(listener);
+    }
+
+    public void detach(String address) {
+        checkMainThread();
+        SerialSession session = sessions.get(address);
+        if(session != null)
+            session.detach();
+    }
+
+    public ArrayList<String> getSessionAddresses() {
+        checkMainThread();
+        return new ArrayList<>(sessions.keySet());
+    }
+
+    @Nullable
+    SerialSession.Stats getSessionStats(String address) {
+        checkMainThread();
+        SerialSession session = sessions.get(address);
+        return session != null ? session.getStats() : null;
+    }
+
+    SerialSession.Stats getSessionStatsTotal() {
+        checkMainThread();
+        return SerialSession.Stats.total(sessions.values());
+    }
+
+    private void checkMainThread() {
+        if(Looper.getMainLooper().getThread() != Thread.currentThread())
+            throw new IllegalArgumentException("not in main thread");
+    }
+
     private void initNotification() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             NotificationChannel nc = new NotificationChannel(Constants.NOTIFICATION_CHANNEL, "Background service", NotificationManager.IMPORTANCE_LOW);
@@ -172,7 +536,7 @@ public class SerialService extends Service implements SerialListener {
                 .setSmallIcon(R.drawable.ic_notification)
                 .setColor(getResources().getColor(R.color.colorPrimary))
                 .setContentTitle(getResources().getString(R.string.app_name))
-                .setContentText(socket != null ? "Connected to "+socket.getName() : "Background Service")
+                .setContentText(socket != null ? "Connected to "+socket.getName() : simulation != null ? "Simulation" : "Background Service")
                 .setContentIntent(restartPendingIntent)
                 .setOngoing(true)
                 .addAction(new NotificationCompat.Action(R.drawable.ic_clear_white_24dp, "Disconnect", disconnectPendingIntent));
@@ -186,19 +550,117 @@ public class SerialService extends Service implements SerialListener {
         stopForeground(true);
     }
 
+    /**
+     * Reconnect
+     *
+     * all methods run in main thread, like attach() and detach(), so no synchronization needed
+     * for queue1. write() can also run in SendScheduler thread, so taking unsent and held data
+     * is synchronized on the supervisor, see write()
+     */
+    private void onLinkLost(Exception e) {
+        if(!connected || reconnect == null)
+            return;
+        flushReads();
+        if(!reconnect.isReconnecting()) {
+            synchronized (reconnect) {
+                reconnect.linkLost(SystemClock.elapsedRealtime(), socket != null ? socket.takeUnsent() : new ArrayDeque<>());
+            }
+            io.onReconnecting(e);
+            if (listener != null) {
+                listener.onSerialReconnecting(e);
+            } else {
+                queue1.add(new QueueItem(QueueType.Reconnecting, e));
+            }
+        } else if(socket == null) {
+            return; // next attempt already scheduled
+        }
+        if(socket != null) {
+            socket.disconnect();
+            socket = null;
+        }
+        long delay = reconnect.nextDelay();
+        if(delay < 0) {
+            reconnect.reset();
+            io.onIoError(e);
+            if (listener != null) {
+                listener.onSerialIoError(e);
+            } else {
+                queue1.add(new QueueItem(QueueType.IoError, e));
+                disconnect();
+            }
+            return;
+        }
+        Log.d(TAG, "reconnect attempt "+reconnect.getAttempt()+" in "+delay+" ms");
+        mainLooper.postDelayed(reconnectRunnable, delay);
+    }
+
+    private void reconnectNow() {
+        if(!connected || reconnect == null || !reconnect.isReconnecting())
+            return;
+        try {
+            SerialSocket socket = new SerialSocket(getApplicationContext(), reconnectDevice);
+            this.socket = socket;
+            socket.connect(this);
+        } catch (Exception e) {
+            onLinkLost(e);
+        }
+    }
+
+    private void onReconnected() {
+        if(!connected || reconnect == null || !reconnect.isReconnecting()) {
+            io.releaseReads();
+            releaseUiReads();
+            return;
+        }
+        IOException writeError = null;
+        synchronized (reconnect) { // held data first, before data written from other threads
+            for(byte[] data : reconnect.linkRestored(SystemClock.elapsedRealtime())) {
+                try {
+                    socket.write(data);
+                } catch (IOException e) {
+                    writeError = e;
+                    break;
+                }
+            }
+        }
+        Log.d(TAG, "reconnected after "+reconnect.getLastOutage()+" ms, "+reconnect.getLastHeldBytes()+" bytes held");
+        io.onConnect();
+        io.releaseReads();
+        if (listener != null) {
+            listener.onSerialConnect();
+        } else {
+            queue1.add(new QueueItem(QueueType.Connect));
+        }
+        releaseUiReads();
+        // reported after connect, as next outage
+        if(writeError != null)
+            onLinkLost(writeError);
+    }
+
     /**
      * SerialListener
      */
     public void onSerialConnect() {
         if(connected) {
+            if(reconnect != null && reconnect.isReconnecting()) {
+                io.holdReads(); // until connect is posted in onReconnected
+                synchronized (this) {
+                    readsHeld = true;
+                }
+                mainLooper.post(this::onReconnected);
+                return;
+            }
+            io.onConnect();
             synchronized (this) {
                 if (listener != null) {
+                    readsHeld = true;
                     mainLooper.post(() -> {
                         if (listener != null) {
                             listener.onSerialConnect();
                         } else {
                             queue1.add(new QueueItem(QueueType.Connect));
                         }
+                        releaseUiReads();
                     });
                 } else {
                     queue2.add(new QueueItem(QueueType.Connect));
@@ -209,9 +671,15 @@ public class SerialService extends Service implements SerialListener {
 
     public void onSerialConnectError(Exception e) {
         if(connected) {
+            if(reconnect != null && reconnect.isReconnecting()) {
+                mainLooper.post(() -> onLinkLost(e));
+                return;
+            }
+            io.onConnectError(e);
             synchronized (this) {
                 if (listener != null) {
                     mainLooper.post(() -> {
+                        flushReads();
                         if (listener != null) {
                             listener.onSerialConnectError(e);
                         } else {
@@ -229,36 +697,32 @@ public class SerialService extends Service implements SerialListener {
 
     public void onSerialRead(ArrayDeque<byte[]> datas) { throw new UnsupportedOperationException(); }
 
+    public void onSerialReconnecting(Exception e) { throw new UnsupportedOperationException(); }
+
     /**
      * reduce number of UI updates by merging data chunks.
      * Data can arrive at hundred chunks per second, but the UI can only
      * perform a dozen updates if receiveText already contains much text.
      *
-     * On new data inform UI thread once (1).
+     * On new data request a Choreographer frame callback once (1).
      * While not consumed (2), add more data (3).
+     * So data is delivered at most once per frame, right before layout, and limited to
+     * MAX_READ_BYTES_PER_FRAME. The rest is deferred to the next frame (4).
+     *
+     * Frame callbacks are asynchronous messages and can overtake runnables posted before,
+     * so after connect no callback is requested until the posted connect was delivered (5).
      */
     public void onSerialRead(byte[] data) {
         if(connected) {
+            SessionCapture capture = this.capture;
+            if(capture != null)
+                capture.record(SessionCapture.DIRECTION_IN, data);
+            io.onRead(data);
             synchronized (this) {
                 if (listener != null) {
-                    boolean first;
-                    synchronized (lastRead) {
-                        first = lastRead.datas.isEmpty(); // (1)
-                        lastRead.add(data); // (3)
-                    }
-                    if(first) {
-                        mainLooper.post(() -> {
-                            ArrayDeque<byte[]> datas;
-                            synchronized (lastRead) {
-                                datas = lastRead.datas;
-                                lastRead.init(); // (2)
-                            }
-                            if (listener != null) {
-                                listener.onSerialRead(datas);
-                            } else {
-                                queue1.add(new QueueItem(QueueType.Read, datas));
-                            }
-                        });
+                    if(lastRead.add(data) && !readsHeld) { // (1), (3), (5)
+                        frameCounter.onRequest(System.nanoTime());
+                        choreographer.postFrameCallback(readFrameCallback);
                     }
                 } else {
                     if(queue2.isEmpty() || queue2.getLast().type != QueueType.Read)
@@ -269,11 +733,76 @@ public class SerialService extends Service implements SerialListener {
         }
     }
 
+    private void onReadFrame(long frameTimeNanos) {
+        synchronized (this) {
+            if(readsHeld)
+                return; // requested again by releaseUiReads()
+        }
+        long start = System.nanoTime();
+        ArrayDeque<byte[]> datas;
+        boolean deferred;
+        synchronized (lastRead) { // no new callback requested by add() in between
+            datas = lastRead.take(MAX_READ_BYTES_PER_FRAME); // (2)
+            deferred = !lastRead.isEmpty();
+        }
+        if(deferred)
+            choreographer.postFrameCallback(readFrameCallback); // (4)
+        if(datas.isEmpty())
+            return;
+        int length = 0;
+        for(byte[] data : datas)
+            length += data.length;
+        deliverReads(datas);
+        frameCounter.onFrame(frameTimeNanos, System.nanoTime() - start, length, deferred);
+    }
+
+    /**
+     * deliver reads still waiting for a frame, before other events to keep the order
+     */
+    private void flushReads() {
+        synchronized (this) {
+            if(readsHeld)
+                return; // received after connect, that is still posted
+        }
+        choreographer.removeFrameCallback(readFrameCallback);
+        ArrayDeque<byte[]> datas = lastRead.take();
+        if(!datas.isEmpty())
+            deliverReads(datas);
+    }
+
+    /**
+     * called in main thread after connect was delivered, see (5)
+     */
+    private void releaseUiReads() {
+        synchronized (this) {
+            readsHeld = false;
+            if(!lastRead.isEmpty()) {
+                frameCounter.onRequest(System.nanoTime());
+                choreographer.removeFrameCallback(readFrameCallback); // skipped while held
+                choreographer.postFrameCallback(readFrameCallback);
+            }
+        }
+    }
+
+    private void deliverReads(ArrayDeque<byte[]> datas) {
+        if (listener != null) {
+            listener.onSerialRead(datas);
+        } else {
+            queue1.add(new QueueItem(QueueType.Read, datas));
+        }
+    }
+
     public void onSerialIoError(Exception e) {
         if(connected) {
+            if(reconnect != null && simulation == null && !(socket != null && socket.isDisconnectRequested())) {
+                mainLooper.post(() -> onLinkLost(e));
+                return;
+            }
+            io.onIoError(e);
             synchronized (this) {
                 if (listener != null) {
                     mainLooper.post(() -> {
+                        flushReads();
                         if (listener != null) {
                             listener.onSerialIoError(e);
                         } else {
@@ -0,0 +1,244 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * one of several concurrent device connections managed by SerialService
+ *
+ * socket events are queued per session in arrival order. SessionScheduler delivers
+ * them to the session listener in the main thread, a limited number of bytes per turn,
+ * so a chatty device cannot delay UI updates of the other devices. Consecutive reads are
+ * merged into one onSerialRead() per turn. Writes go to the write queue of the session socket.
+ * while no listener is attached, events stay queued.
+ *
+ * the socket is a SerialSocket or a simulated device, so sessions also run on a JVM,
+ * see SessionSimulation in benchmark module.
+ */
+class SerialSession implements SerialListener {
+
+    private enum EventType {Connect, ConnectError, Read, IoError}
+
+    private static class Event {
+        final EventType type;
+        final byte[] data;
+        final Exception e;
+
+        Event(EventType type, byte[] data, Exception e) { this.type=type; this.data=data; this.e=e; }
+    }
+
+    static class Stats {
+        String address;
+        long bytesIn, bytesOut, chunksIn;
+        long pendingBytes, maxPendingBytes;
+        long nanos; // since connect
+
+        double bytesInPerSecond()  { return nanos > 0 ? bytesIn  * 1e9 / nanos : 0; }
+        double bytesOutPerSecond() { return nanos > 0 ? bytesOut * 1e9 / nanos : 0; }
+
+        /**
+         * sum over sessions, throughput is related to longest running session
+         */
+        static Stats total(Iterable<SerialSession> sessions) {
+            Stats total = new Stats();
+            int count = 0;
+            for(SerialSession session : sessions) {
+                count++;
+                Stats stats = session.getStats();
+                total.bytesIn += stats.bytesIn;
+                total.bytesOut += stats.bytesOut;
+                total.chunksIn += stats.chunksIn;
+                total.pendingBytes += stats.pendingBytes;
+                total.maxPendingBytes += stats.maxPendingBytes;
+                total.nanos = Math.max(total.nanos, stats.nanos);
+            }
+            total.address = count + " sessions";
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: in %.1f kB/s, out %.1f kB/s, %d chunks, %d bytes pending (max %d)",
+                    address, bytesInPerSecond() / 1000, bytesOutPerSecond() / 1000, chunksIn, pendingBytes, maxPendingBytes);
+        }
+    }
+
+    private final String address;
+    private final SimulatedSocket socket;
+    private final SessionScheduler scheduler;
+    private final ArrayDeque<Event> events = new ArrayDeque<>();
+
+    private SerialListener listener; // only accessed in main thread
+    private volatile boolean connected;
+    private long bytesIn, chunksIn, pendingBytes, maxPendingBytes, bytesOut; // guarded by events
+    private long connectTime;
+
+    SerialSession(String address, SimulatedSocket socket, SessionScheduler scheduler) {
+        this.address = address;
+        this.socket = socket;
+        this.scheduler = scheduler;
+    }
+
+    String getAddress() {
+        return address;
+    }
+
+    void connect() throws IOException {
+        synchronized (events) {
+            connectTime = System.nanoTime();
+        }
+        connected = true;
+        try {
+            socket.connect(this);
+        } catch (IOException | RuntimeException e) {
+            connected = false;
+            throw e;
+        }
+    }
+
+    void disconnect() {
+        connected = false; // ignore data,errors while disconnecting
+        socket.disconnect();
+        synchronized (events) {
+            events.clear();
+            pendingBytes = 0;
+        }
+    }
+
+    void write(byte[] data) throws IOException {
+        if(!connected)
+            throw new IOException("not connected");
+        socket.write(data);
+        synchronized (events) {
+            bytesOut += data.length;
+        }
+    }
+
+    void attach(SerialListener listener) {
+        this.listener = listener;
+        boolean pending;
+        synchronized (events) {
+            pending = !events.isEmpty();
+        }
+        if(pending)
+            scheduler.ready(this);
+    }
+
+    void detach() {
+        listener = null;
+    }
+
+    /**
+     * called by SessionScheduler in main thread
+     * @return true if more events are pending
+     */
+    boolean deliver(int maxBytes) {
+        SerialListener listener = this.listener;
+        if(listener == null)
+            return false; // attach() reschedules
+        ArrayDeque<byte[]> datas = null;
+        int bytes = 0;
+        while(true) {
+            Event event;
+            synchronized (events) {
+                event = events.peek();
+                if(event == null || (event.type == EventType.Read && datas != null && bytes + event.data.length > maxBytes))
+                    break;
+                if(event.type != EventType.Read && datas != null)
+                    break; // deliver reads before next event to keep order
+                events.poll();
+                if(event.type == EventType.Read)
+                    pendingBytes -= event.data.length;
+            }
+            if(event.type == EventType.Read) {
+                if(datas == null)
+                    datas = new ArrayDeque<>();
+                datas.add(event.data);
+                bytes += event.data.length;
+                continue;
+            }
+            switch(event.type) {
+                case Connect:       listener.onSerialConnect(); break;
+                case ConnectError:  listener.onSerialConnectError(event.e); break;
+                case IoError:       listener.onSerialIoError(event.e); break;
+            }
+            break; // one control event per turn
+        }
+        if(datas != null)
+            listener.onSerialRead(datas);
+        synchronized (events) {
+            return !events.isEmpty();
+        }
+    }
+
+    Stats getStats() {
+        Stats stats = new Stats();
+        stats.address = address;
+        synchronized (events) {
+            stats.bytesIn = bytesIn;
+            stats.chunksIn = chunksIn;
+            stats.pendingBytes = pendingBytes;
+            stats.maxPendingBytes = maxPendingBytes;
+            stats.bytesOut = bytesOut;
+            stats.nanos = System.nanoTime() - connectTime;
+        }
+        return stats;
+    }
+
+    private void add(Event event) {
+        boolean first;
+        synchronized (events) {
+            first = events.isEmpty();
+            events.add(event);
+            if(event.type == EventType.Read) {
+                bytesIn += event.data.length;
+                chunksIn++;
+                pendingBytes += event.data.length;
+                maxPendingBytes = Math.max(maxPendingBytes, pendingBytes);
+            }
+        }
+        if(first)
+            scheduler.ready(this);
+    }
+
+    /**
+     * SerialListener, called from socket
+     */
+    @Override
+    public void onSerialConnect() {
+        if(connected)
+            add(new Event(EventType.Connect, null, null));
+    }
+
+    @Override
+    public void onSerialConnectError(Exception e) {
+        if(connected) {
+            add(new Event(EventType.ConnectError, null, e));
+            connected = false;
+            socket.disconnect();
+        }
+    }
+
+    @Override
+    public void onSerialRead(byte[] data) {
+        if(connected)
+            add(new Event(EventType.Read, data, null));
+    }
+
+    @Override
+    public void onSerialRead(ArrayDeque<byte[]> datas) { throw new UnsupportedOperationException(); }
+
+    @Override
+    public void onSerialIoError(Exception e) {
+        if(connected) {
+            add(new Event(EventType.IoError, null, e));
+            connected = false;
+            socket.disconnect();
+        }
+    }
+
+    @Override
+    public void onSerialReconnecting(Exception e) { throw new UnsupportedOperationException(); }
+
+}
@@ -14,6 +14,8 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.core.content.ContextCompat;
@@ -21,7 +23,6 @@ import androidx.core.content.ContextCompat;
 import java.io.IOException;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.UUID;
 
 /**
@@ -67,7 +68,9 @@ class SerialSocket extends BluetoothGattCallback {
     private static final int DEFAULT_MTU = 23;
     private static final String TAG = "SerialSocket";
 
-    private final ArrayList<byte[]> writeBuffer;
+    private final LinkMetrics metrics = new LinkMetrics();
+    private final WriteQueue writeQueue;
+    private final GattScheduler scheduler;
     private final IntentFilter pairingIntentFilter;
     private final BroadcastReceiver pairingBroadcastReceiver;
     private final BroadcastReceiver disconnectBroadcastReceiver;
@@ -79,17 +82,45 @@ class SerialSocket extends BluetoothGattCallback {
     private BluetoothGatt gatt;
     private BluetoothGattCharacteristic readCharacteristic, writeCharacteristic;
 
-    private boolean writePending;
     private boolean canceled;
     private boolean connected;
-    private int payloadSize = DEFAULT_MTU-3;
+    private boolean disconnectRequested;
 
     SerialSocket(Context context, BluetoothDevice device) {
         if(context instanceof Activity)
             throw new InvalidParameterException("expected non UI context");
         this.context = context;
         this.device = device;
-        writeBuffer = new ArrayList<>();
+        writeQueue = new WriteQueue(new WriteQueue.Link() {
+            @Override
+            public boolean canWrite() {
+                return delegate.canWrite();
+            }
+
+            @Override
+            public boolean startWrite(byte[] data) {
+                writeCharacteristic("write", GattScheduler.PRIORITY_DATA, writeCharacteristic, data);
+                return true;
+            }
+        }, metrics, WriteQueue.SYSTEM_CLOCK, DEFAULT_MTU-3);
+        Handler handler = new Handler(Looper.getMainLooper());
+        scheduler = new GattScheduler(new GattScheduler.Timer() {
+            @Override
+            public void schedule(Runnable runnable, long delayMillis) {
+                handler.postDelayed(runnable, delayMillis);
+            }
+
+            @Override
+            public void cancel(Runnable runnable) {
+                handler.removeCallbacks(runnable);
+            }
+        }, WriteQueue.SYSTEM_CLOCK, metrics, (operation, e) -> {
+            Log.d(TAG, operation.name + " failed");
+            if(connected)
+                onSerialIoError(e);
+            else
+                onSerialConnectError(e);
+        });
         pairingIntentFilter = new IntentFilter();
         pairingIntentFilter.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
         pairingIntentFilter.addAction(BluetoothDevice.ACTION_PAIRING_REQUEST);
@@ -102,6 +133,7 @@ class SerialSocket extends BluetoothGattCallback {
         disconnectBroadcastReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
+                disconnectRequested = true;
                 if(listener != null)
                     listener.onSerialIoError(new IOException("background disconnect"));
                 disconnect(); // disconnect now, else would be queued until UI re-attached
@@ -113,15 +145,42 @@ class SerialSocket extends BluetoothGattCallback {
         return device.getName() != null ? device.getName() : device.getAddress();
     }
 
+    BluetoothDevice getDevice() {
+        return device;
+    }
+
+    LinkMetrics.Snapshot getMetrics() {
+        return metrics.snapshot();
+    }
+
+    /**
+     * disconnect from notification, no reconnect wanted
+     */
+    boolean isDisconnectRequested() {
+        return disconnectRequested;
+    }
+
+    /**
+     * remove data not yet passed to gatt.writeCharacteristic, e.g. to resend after reconnect
+     */
+    ArrayList<byte[]> takeUnsent() {
+        return writeQueue.takeUnsent();
+    }
+
+    /**
+     * @return chunks not yet passed to gatt.writeCharacteristic
+     */
+    int getWriteQueueSize() {
+        return writeQueue.size();
+    }
+
     void disconnect() {
         Log.d(TAG, "disconnect");
         listener = null; // ignore remaining data and errors
         device = null;
         canceled = true;
-        synchronized (writeBuffer) {
-            writePending = false;
-            writeBuffer.clear();
-        }
+        writeQueue.clear();
+        scheduler.clear();
         readCharacteristic = null;
         writeCharacteristic = null;
         if(delegate != null)
@@ -221,7 +280,8 @@ class SerialSocket extends BluetoothGattCallback {
 
     private void connectCharacteristics1(BluetoothGatt gatt) {
         boolean sync = true;
-        writePending = false;
+        writeQueue.reset();
+        scheduler.clear();
         for (BluetoothGattService gattService : gatt.getServices()) {
             if (gattService.getUuid().equals(BLUETOOTH_LE_CC254X_SERVICE))
                 delegate = new Cc245XDelegate();
@@ -255,8 +315,12 @@ class SerialSocket extends BluetoothGattCallback {
     private void connectCharacteristics2(BluetoothGatt gatt) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
             Log.d(TAG, "request max MTU");
-            if (!gatt.requestMtu(MAX_MTU))
-                onSerialConnectError(new IOException("request MTU failed"));
+            scheduler.enqueue(new GattScheduler.Operation("request MTU", GattScheduler.PRIORITY_CONTROL, null) {
+                @Override
+                boolean start() {
+                    return gatt != null && gatt.requestMtu(MAX_MTU);
+                }
+            });
             // continues asynchronously in onMtuChanged
         } else {
             connectCharacteristics3(gatt);
@@ -266,9 +330,10 @@ class SerialSocket extends BluetoothGattCallback {
     @Override
     public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
         Log.d(TAG,"mtu size "+mtu+", status="+status);
+        scheduler.onComplete(null);
         if(status ==  BluetoothGatt.GATT_SUCCESS) {
-            payloadSize = mtu - 3;
-            Log.d(TAG, "payload size "+payloadSize);
+            writeQueue.setPayloadSize(mtu - 3);
+            Log.d(TAG, "payload size "+(mtu - 3));
         }
         connectCharacteristics3(gatt);
     }
@@ -301,14 +366,13 @@ class SerialSocket extends BluetoothGattCallback {
             return;
         }
         Log.d(TAG,"writing read characteristic descriptor");
-        if(!gatt.writeDescriptor(readDescriptor)) {
-            onSerialConnectError(new IOException("read characteristic CCCD descriptor not writable"));
-        }
+        writeDescriptor(readDescriptor);
         // continues asynchronously in onDescriptorWrite()
     }
 
     @Override
     public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+        scheduler.onComplete(descriptor);
         delegate.onDescriptorWrite(gatt, descriptor, status);
         if(canceled)
             return;
@@ -319,8 +383,9 @@ class SerialSocket extends BluetoothGattCallback {
             } else {
                 // onCharacteristicChanged with incoming data can happen after writeDescriptor(ENABLE_INDICATION/NOTIFICATION)
                 // before confirmed by this method, so receive data can be shown before device is shown as 'Connected'.
-                onSerialConnect();
+                // set connected before informing listener, so it can write immediately
                 connected = true;
+                onSerialConnect();
                 Log.d(TAG, "connected");
             }
         }
@@ -338,6 +403,7 @@ class SerialSocket extends BluetoothGattCallback {
             return;
         if(characteristic == readCharacteristic) { // NOPMD - test object identity
             byte[] data = readCharacteristic.getValue();
+            metrics.onRead(data.length, System.nanoTime());
             onSerialRead(data);
             Log.d(TAG,"read, len="+data.length);
         }
@@ -349,43 +415,17 @@ class SerialSocket extends BluetoothGattCallback {
     void write(byte[] data) throws IOException {
         if(canceled || !connected || writeCharacteristic == null)
             throw new IOException("not connected");
-        byte[] data0;
-        synchronized (writeBuffer) {
-            if(data.length <= payloadSize) {
-                data0 = data;
-            } else {
-                data0 = Arrays.copyOfRange(data, 0, payloadSize);
-            }
-            if(!writePending && writeBuffer.isEmpty() && delegate.canWrite()) {
-                writePending = true;
-            } else {
-                writeBuffer.add(data0);
-                Log.d(TAG,"write queued, len="+data0.length);
-                data0 = null;
-            }
-            if(data.length > payloadSize) {
-                for(int i=1; i<(data.length+payloadSize-1)/payloadSize; i++) {
-                    int from = i*payloadSize;
-                    int to = Math.min(from+payloadSize, data.length);
-                    writeBuffer.add(Arrays.copyOfRange(data, from, to));
-                    Log.d(TAG,"write queued, len="+(to-from));
-                }
-            }
-        }
-        if(data0 != null) {
-            writeCharacteristic.setValue(data0);
-            if (!gatt.writeCharacteristic(writeCharacteristic)) {
-                onSerialIoError(new IOException("write failed"));
-            } else {
-                Log.d(TAG,"write started, len="+data0.length);
-            }
-        }
+        if(!writeQueue.write(data))
+            onSerialIoError(new IOException("write failed"));
         // continues asynchronously in onCharacteristicWrite()
     }
 
     @Override
     public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-        if(canceled || !connected || writeCharacteristic == null)
+        if(canceled)
+            return;
+        scheduler.onComplete(characteristic);
+        if(!connected || writeCharacteristic == null)
             return;
         if(status != BluetoothGatt.GATT_SUCCESS) {
             onSerialIoError(new IOException("write failed"));
@@ -396,29 +436,36 @@ class SerialSocket extends BluetoothGattCallback {
             return;
         if(characteristic == writeCharacteristic) { // NOPMD - test object identity
             Log.d(TAG,"write finished, status="+status);
-            writeNext();
+            if(!writeQueue.onWriteFinished())
+                onSerialIoError(new IOException("write failed"));
         }
     }
 
-    private void writeNext() {
-        final byte[] data;
-        synchronized (writeBuffer) {
-            if (!writeBuffer.isEmpty() && delegate.canWrite()) {
-                writePending = true;
-                data = writeBuffer.remove(0);
-            } else {
-                writePending = false;
-                data = null;
+    /**
+     * GATT operations, started one after the other by scheduler
+     */
+    private void writeDescriptor(BluetoothGattDescriptor descriptor) {
+        scheduler.enqueue(new GattScheduler.Operation("write descriptor", GattScheduler.PRIORITY_CONTROL, descriptor) {
+            @Override
+            boolean start() {
+                return gatt != null && gatt.writeDescriptor(descriptor);
             }
-        }
-        if(data != null) {
-            writeCharacteristic.setValue(data);
-            if (!gatt.writeCharacteristic(writeCharacteristic)) {
-                onSerialIoError(new IOException("write failed"));
-            } else {
-                Log.d(TAG,"write started, len="+data.length);
+        });
+    }
+
+    private void writeCharacteristic(String name, int priority, BluetoothGattCharacteristic characteristic, byte[] data) {
+        scheduler.enqueue(new GattScheduler.Operation(name, priority, characteristic) {
+            @Override
+            boolean start() {
+                if(gatt == null)
+                    return false;
+                characteristic.setValue(data);
+                if(!gatt.writeCharacteristic(characteristic))
+                    return false;
+                Log.d(TAG, name+" started, len="+data.length);
+                return true;
             }
-        }
+        });
     }
 
     /**
@@ -431,6 +478,7 @@ class SerialSocket extends BluetoothGattCallback {
 
     private void onSerialConnectError(Exception e) {
         canceled = true;
+        scheduler.clear();
         if (listener != null)
             listener.onSerialConnectError(e);
     }
@@ -441,7 +489,8 @@ class SerialSocket extends BluetoothGattCallback {
     }
 
     private void onSerialIoError(Exception e) {
-        writePending = false;
+        writeQueue.reset();
+        scheduler.clear();
         canceled = true;
         if (listener != null)
             listener.onSerialIoError(e);
@@ -504,14 +553,13 @@ class SerialSocket extends BluetoothGattCallback {
     }
 
     private class TelitDelegate extends DeviceDelegate {
+        private final TelitCredits credits = new TelitCredits(true);
         private BluetoothGattCharacteristic readCreditsCharacteristic, writeCreditsCharacteristic;
-        private int readCredits, writeCredits;
 
         @Override
         boolean connectCharacteristics(BluetoothGattService gattService) {
             Log.d(TAG, "service telit tio 2.0");
-            readCredits = 0;
-            writeCredits = 0;
+            credits.reset();
             readCharacteristic = gattService.getCharacteristic(BLUETOOTH_LE_TIO_CHAR_RX);
             writeCharacteristic = gattService.getCharacteristic(BLUETOOTH_LE_TIO_CHAR_TX);
             readCreditsCharacteristic = gattService.getCharacteristic(BLUETOOTH_LE_TIO_CHAR_RX_CREDITS);
@@ -543,10 +591,7 @@ class SerialSocket extends BluetoothGattCallback {
             }
             readCreditsDescriptor.setValue(BluetoothGattDescriptor.ENABLE_INDICATION_VALUE);
             Log.d(TAG,"writing read credits characteristic descriptor");
-            if (!gatt.writeDescriptor(readCreditsDescriptor)) {
-                onSerialConnectError(new IOException("read credits characteristic CCCD descriptor not writable"));
-                return false;
-            }
+            writeDescriptor(readCreditsDescriptor);
             Log.d(TAG, "writing read credits characteristic descriptor");
             return false;
             // continues asynchronously in connectCharacteristics2
@@ -568,8 +613,7 @@ class SerialSocket extends BluetoothGattCallback {
                     readCharacteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
                     writeCharacteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
                     grantReadCredits();
-                    // grantReadCredits includes gatt.writeCharacteristic(writeCreditsCharacteristic)
-                    // but we do not have to wait for confirmation, as it is the last write of connect phase.
+                    // credit write is queued in scheduler, so data writes can start before it is confirmed
                 }
             }
         }
@@ -578,41 +622,38 @@ class SerialSocket extends BluetoothGattCallback {
         void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
             if(characteristic == readCreditsCharacteristic) { // NOPMD - test object identity
                 int newCredits = readCreditsCharacteristic.getValue()[0];
-                synchronized (writeBuffer) {
-                    writeCredits += newCredits;
-                }
-                Log.d(TAG, "got write credits +"+newCredits+" ="+writeCredits);
+                credits.onWriteCreditsGranted(newCredits);
+                Log.d(TAG, "got write credits +"+newCredits+" ="+credits.getWriteCredits());
+                if(newCredits > 0)
+                    metrics.onCreditResume(System.nanoTime());
 
-                if (!writePending && !writeBuffer.isEmpty()) {
-                    Log.d(TAG, "resume blocked write");
-                    writeNext();
-                }
+                if (!writeQueue.resume())
+                    onSerialIoError(new IOException("write failed"));
             }
             if(characteristic == readCharacteristic) { // NOPMD - test object identity
                 grantReadCredits();
-                Log.d(TAG, "read, credits=" + readCredits);
+                Log.d(TAG, "read, credits=" + credits.getReadCredits());
             }
         }
 
         @Override
         void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
             if(characteristic == writeCharacteristic) { // NOPMD - test object identity
-                synchronized (writeBuffer) {
-                    if (writeCredits > 0)
-                        writeCredits -= 1;
-                }
-                Log.d(TAG, "write finished, credits=" + writeCredits);
+                credits.onWrite();
+                Log.d(TAG, "write finished, credits=" + credits.getWriteCredits());
             }
             if(characteristic == writeCreditsCharacteristic) { // NOPMD - test object identity
+                credits.onGrantWritten(System.nanoTime());
                 Log.d(TAG,"write credits finished, status="+status);
             }
         }
 
         @Override
         boolean canWrite() {
-            if(writeCredits > 0)
+            if(credits.canWrite())
                 return true;
             Log.d(TAG, "no write credits");
+            metrics.onCreditStall(System.nanoTime());
             return false;
         }
 
@@ -623,22 +664,10 @@ class SerialSocket extends BluetoothGattCallback {
         }
 
         private void grantReadCredits() {
-            final int minReadCredits = 16;
-            final int maxReadCredits = 64;
-            if(readCredits > 0)
-                readCredits -= 1;
-            if(readCredits <= minReadCredits) {
-                int newCredits = maxReadCredits - readCredits;
-                readCredits += newCredits;
-                byte[] data = new byte[] {(byte)newCredits};
-                Log.d(TAG, "grant read credits +"+newCredits+" ="+readCredits);
-                writeCreditsCharacteristic.setValue(data);
-                if (!gatt.writeCharacteristic(writeCreditsCharacteristic)) {
-                    if(connected)
-                        onSerialIoError(new IOException("write read credits failed"));
-                    else
-                        onSerialConnectError(new IOException("write read credits failed"));
-                }
+            int newCredits = credits.onRead(System.nanoTime());
+            if(newCredits > 0) {
+                Log.d(TAG, "grant read credits +"+newCredits+" ="+credits.getReadCredits()+", threshold "+credits.getThreshold());
+                writeCharacteristic("write credits", GattScheduler.PRIORITY_CONTROL, writeCreditsCharacteristic, new byte[] {(byte)newCredits});
             }
         }
 
@@ -0,0 +1,286 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * record all data sent and received to append-only binary files
+ *
+ * record() only adds the data to a list, a background thread writes batches with a FileChannel,
+ * so the GATT callback thread is never blocked by file I/O. If the writer falls behind by more
+ * than MAX_PENDING_BYTES, records are dropped and counted instead of blocking.
+ * Files are rotated after MAX_FILE_SIZE.
+ *
+ * file format, little endian:
+ *   header: magic "BLECAP", version (short)
+ *   record: time (long, ns since capture start, monotonic), direction (byte), length (int), data
+ */
+class SessionCapture implements Closeable {
+
+    static final byte DIRECTION_IN  = 0;
+    static final byte DIRECTION_OUT = 1;
+
+    static final String FILE_SUFFIX = ".blecap";
+    static final long MAX_FILE_SIZE = 16 * 1024 * 1024;
+    static final int MAX_PENDING_BYTES = 4 * 1024 * 1024;
+
+    private static final byte[] MAGIC = {'B','L','E','C','A','P'};
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = MAGIC.length + 2;
+    private static final int RECORD_HEADER_SIZE = 8 + 1 + 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long FLUSH_INTERVAL = 100; // ms
+
+    static class Record {
+        long time;
+        byte direction;
+        byte[] data;
+    }
+
+    private final File dir;
+    private final String name;
+    private final long maxFileSize;
+    private final long startTime = System.nanoTime();
+    private final Thread thread;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final ArrayList<File> files = new ArrayList<>();
+
+    private ArrayList<Record> pending = new ArrayList<>(); // guarded by this
+    private ArrayList<Record> spare = new ArrayList<>();   // only used by writer thread
+    private int pendingBytes;                             // guarded by this
+    private boolean closed;                                // guarded by this
+    private IOException error;                             // guarded by this
+    private long records, bytes, droppedRecords;           // guarded by this
+
+    private FileChannel channel;
+    private long fileSize;
+
+    SessionCapture(File dir, String name) throws IOException {
+        this(dir, name, MAX_FILE_SIZE);
+    }
+
+    SessionCapture(File dir, String name, long maxFileSize) throws IOException {
+        if(!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("cannot create "+dir);
+        this.dir = dir;
+        this.name = name;
+        this.maxFileSize = maxFileSize;
+        openFile();
+        thread = new Thread(this::run, "SessionCapture");
+        thread.start();
+    }
+
+    /**
+     * called from any thread. data must not be modified afterwards
+     */
+    void record(byte direction, byte[] data) {
+        Record record = new Record();
+        record.time = System.nanoTime() - startTime;
+        record.direction = direction;
+        record.data = data;
+        synchronized (this) {
+            if(closed)
+                return;
+            if(pendingBytes + data.length > MAX_PENDING_BYTES) {
+                droppedRecords++;
+                return;
+            }
+            boolean first = pending.isEmpty();
+            pending.add(record);
+            pendingBytes += data.length;
+            if(first)
+                notifyAll();
+        }
+    }
+
+    /**
+     * write remaining records and close file
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if(error != null)
+                throw error;
+        }
+    }
+
+    synchronized long getRecords()        { return records; }
+    synchronized long getBytes()          { return bytes; }
+    synchronized long getDroppedRecords() { return droppedRecords; }
+
+    synchronized ArrayList<File> getFiles() {
+        return new ArrayList<>(files);
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                ArrayList<Record> batch;
+                boolean last;
+                synchronized (this) {
+                    while (!closed && pending.isEmpty())
+                        wait();
+                    // wait a bit after the first record, to write larger batches
+                    long until = System.nanoTime() / 1000000 + FLUSH_INTERVAL;
+                    long now;
+                    while (!closed && pendingBytes < BUFFER_SIZE && (now = System.nanoTime() / 1000000) < until)
+                        wait(until - now);
+                    batch = pending;
+                    pending = spare;
+                    pendingBytes = 0;
+                    last = closed;
+                }
+                for (Record record : batch)
+                    write(record);
+                flush();
+                synchronized (this) {
+                    records += batch.size();
+                    for (Record record : batch)
+                        bytes += record.data.length;
+                }
+                batch.clear();
+                spare = batch;
+                if (last)
+                    break;
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                error = e;
+                closed = true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private void write(Record record) throws IOException {
+        int size = RECORD_HEADER_SIZE + record.data.length;
+        if(fileSize > HEADER_SIZE && fileSize + size > maxFileSize) {
+            flush();
+            channel.close();
+            openFile();
+        }
+        if(buffer.remaining() < RECORD_HEADER_SIZE)
+            flush();
+        buffer.putLong(record.time).put(record.direction).putInt(record.data.length);
+        int pos = 0;
+        while(pos < record.data.length) {
+            if(!buffer.hasRemaining())
+                flush();
+            int len = Math.min(buffer.remaining(), record.data.length - pos);
+            buffer.put(record.data, pos, len);
+            pos += len;
+        }
+        fileSize += size;
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    private void openFile() throws IOException {
+        File file;
+        synchronized (this) {
+            file = new File(dir, String.format(Locale.US, "%s-%03d%s", name, files.size(), FILE_SUFFIX));
+            files.add(file);
+        }
+        channel = new FileOutputStream(file).getChannel();
+        buffer.clear();
+        buffer.put(MAGIC).putShort(VERSION);
+        flush();
+        fileSize = HEADER_SIZE;
+    }
+
+    /**
+     * read records of one capture file
+     */
+    static class Reader implements Closeable {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        Reader(File file) throws IOException {
+            channel = new FileInputStream(file).getChannel();
+            buffer.limit(0);
+            byte[] magic = new byte[MAGIC.length];
+            if(!fill(HEADER_SIZE))
+                throw new IOException("not a capture file");
+            buffer.get(magic);
+            short version = buffer.getShort();
+            if(!Arrays.equals(magic, MAGIC) || version != VERSION)
+                throw new IOException("not a capture file");
+        }
+
+        /**
+         * @return next record or null at end of file
+         */
+        Record next() throws IOException {
+            if(!fill(RECORD_HEADER_SIZE))
+                return null;
+            Record record = new Record();
+            record.time = buffer.getLong();
+            record.direction = buffer.get();
+            int length = buffer.getInt();
+            if(length < 0)
+                throw new IOException("invalid record length "+length);
+            record.data = new byte[length];
+            int pos = 0;
+            while(pos < length) {
+                if(!buffer.hasRemaining() && !fill(1))
+                    throw new EOFException("truncated record");
+                int len = Math.min(buffer.remaining(), length - pos);
+                buffer.get(record.data, pos, len);
+                pos += len;
+            }
+            return record;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private boolean fill(int size) throws IOException {
+            if(buffer.remaining() >= size)
+                return true;
+            buffer.compact();
+            while(buffer.position() < size) {
+                if(channel.read(buffer) < 0) {
+                    buffer.flip();
+                    if(buffer.hasRemaining())
+                        throw new EOFException("truncated record");
+                    return false;
+                }
+            }
+            buffer.flip();
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,101 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * deliver events of multiple SerialSessions round robin
+ *
+ * each turn a session can deliver up to MAX_BYTES_PER_TURN, then the next session
+ * with pending events follows. one dispatch run is limited to MAX_NANOS_PER_DISPATCH,
+ * then the remaining sessions are continued in a new run, so other work in the
+ * main looper, e.g. rendering, is not blocked.
+ */
+class SessionScheduler {
+
+    static final int MAX_BYTES_PER_TURN = 2048;
+    static final long MAX_NANOS_PER_DISPATCH = 8_000_000;
+
+    private final Executor executor;
+    private final ArrayDeque<SerialSession> ready = new ArrayDeque<>();
+    private final Runnable dispatchRunnable = this::dispatch;
+    private final int maxBytesPerTurn;
+    private final long maxNanosPerDispatch;
+
+    private boolean posted;
+    private long dispatches, turns;
+
+    /**
+     * @param executor runs dispatch in UI thread, e.g. mainLooper::post
+     */
+    SessionScheduler(Executor executor) {
+        this(executor, MAX_BYTES_PER_TURN, MAX_NANOS_PER_DISPATCH);
+    }
+
+    SessionScheduler(Executor executor, int maxBytesPerTurn, long maxNanosPerDispatch) {
+        this.executor = executor;
+        this.maxBytesPerTurn = maxBytesPerTurn;
+        this.maxNanosPerDispatch = maxNanosPerDispatch;
+    }
+
+    /**
+     * called from any thread, when session has new events
+     */
+    void ready(SerialSession session) {
+        boolean post = false;
+        synchronized (ready) {
+            if(!ready.contains(session))
+                ready.add(session);
+            if(!posted) {
+                posted = true;
+                post = true;
+            }
+        }
+        if(post)
+            executor.execute(dispatchRunnable);
+    }
+
+    void remove(SerialSession session) {
+        synchronized (ready) {
+            ready.remove(session);
+        }
+    }
+
+    private void dispatch() {
+        long start = System.nanoTime();
+        int count;
+        synchronized (ready) {
+            count = ready.size();
+            dispatches++;
+        }
+        // at most one turn per session and run, sessions getting ready meanwhile wait for next run
+        for(int i = 0; i < count; i++) {
+            SerialSession session;
+            synchronized (ready) {
+                session = ready.poll();
+                turns++;
+            }
+            if(session == null)
+                break;
+            if(session.deliver(maxBytesPerTurn)) {
+                synchronized (ready) {
+                    if(!ready.contains(session))
+                        ready.add(session);
+                }
+            }
+            if(System.nanoTime() - start > maxNanosPerDispatch)
+                break;
+        }
+        boolean post;
+        synchronized (ready) {
+            post = !ready.isEmpty();
+            posted = post;
+        }
+        if(post)
+            executor.execute(dispatchRunnable);
+    }
+
+    long getDispatches() { synchronized (ready) { return dispatches; } }
+    long getTurns()      { synchronized (ready) { return turns; } }
+
+}
@@ -0,0 +1,13 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.io.IOException;
+
+/**
+ * device simulated without Bluetooth, e.g. ReplaySource or EchoSocket, used by SerialService
+ * instead of SerialSocket. Listener methods are called from a background thread like SerialSocket does
+ */
+interface SimulatedSocket {
+    void connect(SerialListener listener) throws IOException;
+    void write(byte[] data) throws IOException;
+    void disconnect();
+}
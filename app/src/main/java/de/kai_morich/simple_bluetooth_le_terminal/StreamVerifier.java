@@ -0,0 +1,94 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+/**
+ * verify continuity of a counter stream sent by the device as fast as possible, e.g. by CounterStream.ino
+ *
+ * stream format: counter value as 8 hex digits followed by '\n', incremented by 1 per line.
+ * data is checked incrementally in any chunking. After lost notifications the first line is
+ * usually incomplete and counted as corrupt, then the next complete line resyncs.
+ * A line up to WINDOW values behind that was counted as missing is counted as reordered instead.
+ * onReceive() does not allocate, so it can run in the read path at full data rate.
+ */
+class StreamVerifier {
+
+    static final int DIGITS = 8;
+    static final long RESTART_DISTANCE = 1 << 16; // larger step back is a device restart, not a duplicate
+
+    static final int WINDOW = 64;                 // values behind expected tracked to tell late from duplicate
+
+    static final int BYTES = 0, VALUES = 1, GAPS = 2, MISSING = 3, DUPLICATES = 4, CORRUPT = 5, REORDERED = 6;
+    static final int COUNTERS = 7;
+
+    private final long[] counters = new long[COUNTERS];
+    private long expected = -1; // -1 = not synced
+    private long received;      // bit i set if expected - 1 - i was received
+    private long value;
+    private int digits;
+    private boolean invalid;
+
+    synchronized void onReceive(byte[] data) {
+        counters[BYTES] += data.length;
+        for(byte b : data) {
+            if(b == '\n') {
+                if(invalid || digits != DIGITS)
+                    counters[CORRUPT]++;
+                else
+                    onValue(value);
+                value = 0;
+                digits = 0;
+                invalid = false;
+                continue;
+            }
+            int digit = Character.digit(b, 16);
+            if(digit < 0 || digits >= DIGITS) {
+                invalid = true;
+            } else {
+                value = (value << 4) | digit;
+                digits++;
+            }
+        }
+    }
+
+    private void onValue(long value) {
+        counters[VALUES]++;
+        if(expected >= 0 && value < expected) {
+            long behind = expected - 1 - value;
+            if(behind >= RESTART_DISTANCE) {
+                resync(value);
+            } else if(behind < WINDOW && (received & (1L << behind)) == 0) {
+                received |= 1L << behind;
+                counters[REORDERED]++;
+                counters[MISSING]--;
+            } else {
+                counters[DUPLICATES]++;
+            }
+            return;
+        }
+        if(expected < 0) {
+            resync(value);
+            return;
+        }
+        long step = value + 1 - expected;
+        if(step > 1) {
+            counters[GAPS]++;
+            counters[MISSING] += step - 1;
+        }
+        received = step >= WINDOW ? 1 : (received << step) | 1;
+        expected = value + 1;
+        if(value == 0xffffffffL) // counter wraps
+            resync(-1);
+    }
+
+    private void resync(long value) {
+        expected = value + 1;
+        received = value >= 0 ? 1 : 0;
+    }
+
+    /**
+     * copy counters indexed by BYTES, VALUES, ... without allocation
+     */
+    synchronized void snapshot(long[] into) {
+        System.arraycopy(counters, 0, into, 0, COUNTERS);
+    }
+
+}
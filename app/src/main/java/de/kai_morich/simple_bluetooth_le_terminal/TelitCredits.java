@@ -0,0 +1,135 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+/**
+ * Telit TIO 2.0 credit based flow control
+ *   - each notification consumes one read credit, we grant new ones when running low
+ *   - each write consumes one write credit, granted by the device
+ *
+ * with fixed window, read credits are topped up to MAX_READ_CREDITS when MIN_READ_CREDITS are left.
+ *
+ * with adaptive window, the grant threshold covers the reads expected during THRESHOLD_RTTS
+ * credit round trips, measured from read interval and time from grant until credit write
+ * finished, so the device does not run out of credits while a grant is underway.
+ * Each grant adds at least GRANT_SIZE or threshold credits and only one grant is pending
+ * at a time, to keep control writes rare, as they delay data writes.
+ * At low data rate this is the same as the fixed window.
+ * Write credit starvation is measured by LinkMetrics.onCreditStall() / onCreditResume().
+ *
+ * used by SerialSocket.TelitDelegate and SimulatedLink
+ */
+class TelitCredits {
+
+    static final int MIN_READ_CREDITS = 16;
+    static final int MAX_READ_CREDITS = 64;
+
+    static final int GRANT_SIZE = MAX_READ_CREDITS - MIN_READ_CREDITS;
+    static final int MAX_WINDOW = 127; // granted as single byte, some devices read it signed
+    static final int THRESHOLD_RTTS = 2;
+    private static final long RATE_PERIOD = 250000000L; // ns, reads are counted over this period, as they come in bursts
+    private static final long MAX_GRANT_TIME = 1000000000L; // ns
+
+    private final boolean adaptive;
+    private int readCredits, writeCredits;
+    private int threshold = MIN_READ_CREDITS;
+    private long readInterval;          // ns, 0 if unknown
+    private long rateStart, rateReads;
+    private long roundTrip;             // ns, moving average
+    private long grantTime;             // ns, 0 if no grant pending
+    private long grants;
+
+    TelitCredits() {
+        this(false);
+    }
+
+    TelitCredits(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    synchronized void reset() {
+        readCredits = 0;
+        writeCredits = 0;
+        threshold = MIN_READ_CREDITS;
+        readInterval = rateStart = rateReads = 0;
+        roundTrip = grantTime = 0;
+    }
+
+    /**
+     * consume read credit
+     * @return read credits to be granted to device, 0 if none
+     */
+    synchronized int onRead(long now) {
+        if(readCredits > 0)
+            readCredits -= 1;
+        if(!adaptive) {
+            if(readCredits > MIN_READ_CREDITS)
+                return 0;
+            return grant(MAX_READ_CREDITS - readCredits, now);
+        }
+        if(rateReads == 0 || now - rateStart > 4 * RATE_PERIOD) { // restart after pause
+            rateStart = now;
+            rateReads = 0;
+        }
+        rateReads++;
+        if(now - rateStart >= RATE_PERIOD) {
+            readInterval = (now - rateStart) / rateReads;
+            rateStart = now;
+            rateReads = 0;
+        }
+        if(readInterval > 0 && roundTrip > 0)
+            threshold = (int) Math.max(MIN_READ_CREDITS, Math.min(MAX_WINDOW / 2, THRESHOLD_RTTS * roundTrip / readInterval));
+        boolean grantPending = grantTime != 0 && now - grantTime < MAX_GRANT_TIME; // in case credit write callback got lost
+        if(grantPending || readCredits > threshold)
+            return 0;
+        int window = Math.min(MAX_WINDOW, threshold + Math.max(GRANT_SIZE, threshold));
+        return grant(window - readCredits, now);
+    }
+
+    /**
+     * credit write finished
+     */
+    synchronized void onGrantWritten(long now) {
+        if(grantTime == 0)
+            return;
+        roundTrip = roundTrip == 0 ? now - grantTime : (roundTrip * 7 + now - grantTime) / 8;
+        grantTime = 0;
+    }
+
+    synchronized void onWriteCreditsGranted(int newCredits) {
+        writeCredits += newCredits;
+    }
+
+    synchronized void onWrite() {
+        if(writeCredits > 0)
+            writeCredits -= 1;
+    }
+
+    synchronized boolean canWrite() {
+        return writeCredits > 0;
+    }
+
+    synchronized int getReadCredits() {
+        return readCredits;
+    }
+
+    synchronized int getWriteCredits() {
+        return writeCredits;
+    }
+
+    synchronized int getThreshold() {
+        return threshold;
+    }
+
+    synchronized long getGrants() {
+        return grants;
+    }
+
+    private int grant(int newCredits, long now) {
+        if(newCredits <= 0)
+            return 0;
+        readCredits += newCredits;
+        grantTime = now;
+        grants++;
+        return newCredits;
+    }
+
+}
@@ -9,13 +9,19 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.database.Cursor;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.provider.OpenableColumns;
 import android.text.Editable;
 import android.text.Spannable;
 import android.text.SpannableStringBuilder;
 import android.text.method.ScrollingMovementMethod;
+import android.text.style.BackgroundColorSpan;
 import android.text.style.ForegroundColorSpan;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -23,6 +29,7 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -30,8 +37,17 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class TerminalFragment extends Fragment implements ServiceConnection, SerialListener {
 
@@ -42,13 +58,153 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
 
     private TextView receiveText;
     private TextView sendText;
+    private TextView linkStatsText;
+    private TextView sendProgressText;
     private TextUtil.HexWatcher hexWatcher;
 
     private Connected connected = Connected.False;
     private boolean initialStart = true;
     private boolean hexEnabled = false;
     private boolean pendingNewline = false;
+    private boolean reconnecting = false;
     private String newline = TextUtil.newline_crlf;
+    private boolean linkStatsEnabled = false;
+    private final Handler mainLooper = new Handler(Looper.getMainLooper()); // link stats, file send, latency probes, ...
+    private final Runnable linkStatsRunnable = this::updateLinkStats;
+
+    private volatile StreamVerifier streamVerifier;
+    private final long[] streamCounters = new long[StreamVerifier.COUNTERS];
+    private final long[] streamLastCounters = new long[StreamVerifier.COUNTERS];
+    private long streamStartTime;
+    private final Runnable streamRunnable = this::updateStreamTest;
+    private final SerialListener streamListener = new SerialListener() {
+        @Override public void onSerialConnect() {}
+        @Override public void onSerialConnectError(Exception e) {}
+        @Override public void onSerialRead(byte[] data) {}
+        @Override public void onSerialIoError(Exception e) {}
+        @Override public void onSerialReconnecting(Exception e) {}
+        @Override
+        public void onSerialRead(ArrayDeque<byte[]> datas) {
+            StreamVerifier verifier = streamVerifier;
+            if (verifier != null)
+                for (byte[] data : datas)
+                    verifier.onReceive(data);
+        }
+    };
+
+    private static final int SEND_FILE_REQUEST = 1;
+    private static final int SEND_FILE_QUEUE = 16; // write queue chunks, limits memory and keeps writes going
+    private static final int SEND_FILE_BLOCKS = -1; // block transfer protocol instead of rate
+    private FileSender fileSender;
+    private final Runnable fileRunnable = this::pumpFile;
+    private BlockSender blockSender;
+    private volatile BlockFrame.Decoder blockDecoder;
+    private final SerialListener blockListener = new SerialListener() {
+        // runs in SerialService background thread, frames are handled in main thread
+        @Override public void onSerialConnect() {}
+        @Override public void onSerialConnectError(Exception e) {}
+        @Override public void onSerialRead(byte[] data) {}
+        @Override public void onSerialIoError(Exception e) {}
+        @Override public void onSerialReconnecting(Exception e) {}
+        @Override
+        public void onSerialRead(ArrayDeque<byte[]> datas) {
+            BlockFrame.Decoder decoder = blockDecoder;
+            if (decoder == null)
+                return;
+            ArrayList<BlockFrame> frames = new ArrayList<>();
+            for (byte[] data : datas)
+                decoder.decode(data, frames);
+            if (!frames.isEmpty())
+                mainLooper.post(() -> {
+                    for (BlockFrame frame : frames)
+                        if (blockSender != null)
+                            blockSender.onFrame(frame);
+                });
+        }
+    };
+
+    private static final int SEND_SCRIPT_REQUEST = 2;
+    private static final int SEND_SCRIPT_MAX_SIZE = 65536;
+    private String sendScriptName; // null if not running
+    private final Runnable sendScriptRunnable = this::updateSendScript;
+
+    private static final int SEARCH_CONTEXT = 256; // bytes before and after match
+    private volatile Scrollback scrollback; // null until created
+    private final ExecutorService scrollbackExecutor = Executors.newSingleThreadExecutor(); // create, clear, close deleting files
+    private boolean scrollbackFailed;
+    private final SerialListener scrollbackListener = new SerialListener() {
+        // runs in SerialService background thread, so indexing does not block UI
+        @Override public void onSerialConnect() {}
+        @Override public void onSerialConnectError(Exception e) {}
+        @Override public void onSerialRead(byte[] data) {}
+        @Override public void onSerialIoError(Exception e) {}
+        @Override public void onSerialReconnecting(Exception e) {}
+        @Override
+        public void onSerialRead(ArrayDeque<byte[]> datas) {
+            Scrollback scrollback = TerminalFragment.this.scrollback;
+            if (scrollback == null)
+                return;
+            try {
+                for (byte[] data : datas)
+                    scrollback.append(data);
+            } catch (IOException e) {
+                mainLooper.post(() -> {
+                    if (!scrollbackFailed)
+                        status("scrollback failed: " + e.getMessage());
+                    scrollbackFailed = true;
+                });
+            }
+        }
+    };
+
+    private volatile SampleBuffer plotBuffer; // null if not plotting
+    private volatile PlotView plotView;
+    private final NumberParser plotParser = new NumberParser((values, count) -> {
+        SampleBuffer buffer = plotBuffer;
+        if (buffer != null)
+            buffer.add(values, count);
+    });
+    private final SerialListener plotListener = new SerialListener() {
+        // runs in SerialService background thread, PlotView only draws decimated samples once per frame
+        @Override public void onSerialConnect() {}
+        @Override public void onSerialConnectError(Exception e) {}
+        @Override public void onSerialRead(byte[] data) {}
+        @Override public void onSerialIoError(Exception e) {}
+        @Override public void onSerialReconnecting(Exception e) {}
+        @Override
+        public void onSerialRead(ArrayDeque<byte[]> datas) {
+            if (plotBuffer == null)
+                return;
+            for (byte[] data : datas)
+                plotParser.parse(data);
+            PlotView view = plotView;
+            if (view != null)
+                view.postInvalidateOnAnimation();
+        }
+    };
+
+    private static final int LATENCY_PROBES = 100;
+    private volatile LatencyProbe latencyProbe;
+    private long latencyInterval;
+    private final Runnable latencyRunnable = this::sendLatencyProbe;
+    private final Runnable latencyStopRunnable = this::stopLatencyBenchmark;
+    private final SerialListener latencyListener = new SerialListener() {
+        // runs in SerialService background thread, so timestamps do not include UI delays
+        @Override public void onSerialConnect() {}
+        @Override public void onSerialConnectError(Exception e) {}
+        @Override public void onSerialRead(byte[] data) {}
+        @Override public void onSerialIoError(Exception e) {}
+        @Override public void onSerialReconnecting(Exception e) {}
+        @Override
+        public void onSerialRead(ArrayDeque<byte[]> datas) {
+            LatencyProbe probe = latencyProbe;
+            if (probe != null) {
+                long now = System.nanoTime();
+                for (byte[] data : datas)
+                    probe.onReceive(data, now);
+            }
+        }
+    };
 
     /*
      * Lifecycle
@@ -59,12 +215,20 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
         setHasOptionsMenu(true);
         setRetainInstance(true);
         deviceAddress = getArguments().getString("device");
+        Context context = getActivity().getApplicationContext();
+        scrollbackExecutor.execute(() -> scrollback = new Scrollback(new File(context.getCacheDir(), "scrollback"), Scrollback.MAX_BYTES));
     }
 
     @Override
     public void onDestroy() {
         if (connected != Connected.False)
             disconnect();
+        if (service != null) {
+            service.removeIoListener(scrollbackListener);
+            service.removeIoListener(plotListener);
+        }
+        scrollbackExecutor.execute(() -> scrollback.close());
+        scrollbackExecutor.shutdown();
         getActivity().stopService(new Intent(getActivity(), SerialService.class));
         super.onDestroy();
     }
@@ -72,6 +236,7 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
     @Override
     public void onStart() {
         super.onStart();
+        updateLinkStats();
         if(service != null)
             service.attach(this);
         else
@@ -80,6 +245,7 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
 
     @Override
     public void onStop() {
+        mainLooper.removeCallbacks(linkStatsRunnable);
         if(service != null && !getActivity().isChangingConfigurations())
             service.detach();
         super.onStop();
@@ -111,6 +277,7 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
     public void onServiceConnected(ComponentName name, IBinder binder) {
         service = ((SerialService.SerialBinder) binder).getService();
         service.attach(this);
+        service.addIoListener(scrollbackListener);
         if(initialStart && isResumed()) {
             initialStart = false;
             getActivity().runOnUiThread(this::connect);
@@ -131,6 +298,17 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
         receiveText = view.findViewById(R.id.receive_text);                          // TextView performance decreases with number of spans
         receiveText.setTextColor(getResources().getColor(R.color.colorRecieveText)); // set as default color to reduce number of spans
         receiveText.setMovementMethod(ScrollingMovementMethod.getInstance());
+        linkStatsText = view.findViewById(R.id.link_stats);
+        linkStatsText.setVisibility(linkStatsEnabled ? View.VISIBLE : View.GONE);
+        plotView = view.findViewById(R.id.plot);
+        plotView.setBuffer(plotBuffer);
+        plotView.setVisibility(plotBuffer != null ? View.VISIBLE : View.GONE);
+        sendProgressText = view.findViewById(R.id.send_progress);
+        sendProgressText.setVisibility(fileSender != null || blockSender != null || sendScriptName != null ? View.VISIBLE : View.GONE);
+        sendProgressText.setOnClickListener(v -> {
+            stopSendFile();
+            stopSendScript();
+        });
 
         sendText = view.findViewById(R.id.send_text);
         hexWatcher = new TextUtil.HexWatcher(sendText);
@@ -150,6 +328,12 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
 
     public void onPrepareOptionsMenu(@NonNull Menu menu) {
         menu.findItem(R.id.hex).setChecked(hexEnabled);
+        menu.findItem(R.id.reconnect).setChecked(service != null && service.isReconnectEnabled());
+        menu.findItem(R.id.capture).setChecked(service != null && service.isCapturing());
+        menu.findItem(R.id.plot).setChecked(plotBuffer != null);
+        menu.findItem(R.id.sendRepeat).setChecked(sendScriptName != null);
+        menu.findItem(R.id.linkStats).setChecked(linkStatsEnabled);
+        menu.findItem(R.id.streamTest).setChecked(streamVerifier != null);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             menu.findItem(R.id.backgroundNotification).setChecked(service != null && service.areNotificationsEnabled());
         } else {
@@ -163,6 +347,22 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
         int id = item.getItemId();
         if (id == R.id.clear) {
             receiveText.setText("");
+            scrollbackExecutor.execute(() -> scrollback.clear());
+            scrollbackFailed = false;
+            if (plotBuffer != null) {
+                plotBuffer.clear();
+                plotView.invalidate();
+            }
+            return true;
+        } else if (id == R.id.search) {
+            selectSearch();
+            return true;
+        } else if (id == R.id.plot) {
+            if (plotBuffer != null)
+                stopPlot();
+            else
+                startPlot();
+            item.setChecked(plotBuffer != null);
             return true;
         } else if (id == R.id.newline) {
             String[] newlineNames = getResources().getStringArray(R.array.newline_names);
@@ -183,6 +383,69 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
             sendText.setHint(hexEnabled ? "HEX mode" : "");
             item.setChecked(hexEnabled);
             return true;
+        } else if (id == R.id.sendFile) {
+            selectSendFile();
+            return true;
+        } else if (id == R.id.sendRepeat) {
+            selectSendScript();
+            return true;
+        } else if (id == R.id.linkStats) {
+            linkStatsEnabled = !linkStatsEnabled;
+            item.setChecked(linkStatsEnabled);
+            linkStatsText.setVisibility(linkStatsEnabled ? View.VISIBLE : View.GONE);
+            mainLooper.removeCallbacks(linkStatsRunnable);
+            if (linkStatsEnabled)
+                updateLinkStats();
+            return true;
+        } else if (id == R.id.capture) {
+            if (service != null) {
+                if (service.isCapturing()) {
+                    ArrayList<File> files = service.stopCapture();
+                    status("capture saved to " + (files.isEmpty() ? "-" : files.get(0).getParent()));
+                } else {
+                    try {
+                        service.startCapture(getCaptureDir());
+                        status("capture started");
+                    } catch (IOException e) {
+                        status("capture failed: " + e.getMessage());
+                    }
+                }
+                item.setChecked(service.isCapturing());
+            }
+            return true;
+        } else if (id == R.id.streamTest) {
+            if (streamVerifier != null) {
+                stopStreamTest();
+            } else if (connected == Connected.False) {
+                Toast.makeText(getActivity(), "not connected", Toast.LENGTH_SHORT).show();
+            } else {
+                startStreamTest();
+            }
+            item.setChecked(streamVerifier != null);
+            return true;
+        } else if (id == R.id.latency) {
+            selectLatencyBenchmark();
+            return true;
+        } else if (id == R.id.echo) {
+            if (connected != Connected.False)
+                disconnect();
+            try {
+                status("connecting to simulated echo device...");
+                connected = Connected.Pending;
+                service.connect(new EchoSocket(10000, 20));
+            } catch (Exception e) {
+                onSerialConnectError(e);
+            }
+            return true;
+        } else if (id == R.id.replay) {
+            selectReplay();
+            return true;
+        } else if (id == R.id.reconnect) {
+            if (service != null) {
+                service.setReconnect(!service.isReconnectEnabled());
+                item.setChecked(service.isReconnectEnabled());
+            }
+            return true;
         } else if (id == R.id.backgroundNotification) {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
                 if (!service.areNotificationsEnabled() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
@@ -213,8 +476,585 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
         }
     }
 
+    /*
+     * replay captured or synthetic data instead of device data
+     */
+    private File getCaptureDir() {
+        File dir = getActivity().getExternalFilesDir(null);
+        if (dir == null)
+            dir = getActivity().getFilesDir();
+        return new File(dir, "captures");
+    }
+
+    private void selectReplay() {
+        // rotated files of one capture are named <capture>-000.blecap, <capture>-001.blecap, ...
+        TreeMap<String, ArrayList<File>> captures = new TreeMap<>(Collections.reverseOrder());
+        File[] files = getCaptureDir().listFiles((dir, name) -> name.endsWith(SessionCapture.FILE_SUFFIX));
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                String name = file.getName();
+                name = name.substring(0, Math.max(0, name.lastIndexOf('-')));
+                if (!captures.containsKey(name))
+                    captures.put(name, new ArrayList<>());
+                captures.get(name).add(file);
+            }
+        }
+        ArrayList<String> names = new ArrayList<>();
+        names.add("synthetic data");
+        names.add("synthetic counter stream");
+        names.addAll(captures.keySet());
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+        builder.setTitle("Replay");
+        builder.setItems(names.toArray(new String[0]), (dialog, item) -> {
+            ArrayList<File> capture = item <= 1 ? null : captures.get(names.get(item));
+            String[] speedNames = {"original speed", "10x speed", "max speed"};
+            double[] speedValues = {1, 10, ReplaySource.SPEED_MAX};
+            AlertDialog.Builder builder2 = new AlertDialog.Builder(getActivity());
+            builder2.setTitle("Replay speed");
+            builder2.setItems(speedNames, (dialog2, item2) -> {
+                // synthetic: 20 byte chunks every ms = 20kB/s at original speed
+                ReplaySource.Generator generator = capture != null
+                        ? ReplaySource.fromCapture(capture)
+                        : item == 0 ? ReplaySource.synthetic(40, 20, 100000, 1000000)
+                        : ReplaySource.counter(20, 100000, 1000000, 1000);
+                replay(generator, speedValues[item2]);
+            });
+            builder2.create().show();
+        });
+        builder.create().show();
+    }
+
+    private void replay(ReplaySource.Generator generator, double speed) {
+        if (connected != Connected.False)
+            disconnect();
+        try {
+            status("replay...");
+            connected = Connected.Pending;
+            service.connect(new ReplaySource(generator, speed));
+        } catch (Exception e) {
+            onSerialConnectError(e);
+        }
+    }
+
+    /*
+     * send file in chunks as write queue drains, so memory does not depend on file size
+     */
+    @SuppressWarnings("deprecation") // registerForActivityResult needs registration before onStart
+    private void selectSendFile() {
+        if (fileSender != null || blockSender != null) {
+            stopSendFile();
+            return;
+        }
+        if (connected != Connected.True) {
+            Toast.makeText(getActivity(), "not connected", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (sendScriptName != null) {
+            Toast.makeText(getActivity(), "repeated send running", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("*/*");
+        startActivityForResult(intent, SEND_FILE_REQUEST);
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (resultCode != Activity.RESULT_OK || data == null || data.getData() == null)
+            return;
+        Uri uri = data.getData();
+        if (requestCode == SEND_SCRIPT_REQUEST) {
+            sendScript(uri);
+            return;
+        }
+        if (requestCode != SEND_FILE_REQUEST)
+            return;
+        String[] rateNames = {"max speed", "10 kB/s", "1 kB/s", "block transfer protocol"};
+        int[] rateValues = {0, 10000, 1000, SEND_FILE_BLOCKS};
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+        builder.setTitle("Send speed");
+        builder.setItems(rateNames, (dialog, item) -> sendFile(uri, rateValues[item]));
+        builder.create().show();
+    }
+
+    private void sendFile(Uri uri, int bytesPerSecond) {
+        if (connected != Connected.True || fileSender != null || blockSender != null)
+            return;
+        String name = uri.getLastPathSegment();
+        long size = -1;
+        try (Cursor cursor = getActivity().getContentResolver().query(uri, null, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                int nameIndex = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
+                int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
+                if (nameIndex >= 0 && !cursor.isNull(nameIndex))
+                    name = cursor.getString(nameIndex);
+                if (sizeIndex >= 0 && !cursor.isNull(sizeIndex))
+                    size = cursor.getLong(sizeIndex);
+            }
+        } catch (Exception ignored) {
+            // name and size are only used for progress
+        }
+        InputStream input;
+        try {
+            input = getActivity().getContentResolver().openInputStream(uri);
+            if (input == null)
+                throw new IOException("cannot open file");
+        } catch (Exception e) {
+            status("send file failed: " + e.getMessage());
+            return;
+        }
+        String fileName = name;
+        if (bytesPerSecond == SEND_FILE_BLOCKS) {
+            sendBlocks(input, size, fileName);
+            return;
+        }
+        FileSender.Sink sink = new FileSender.Sink() {
+            @Override
+            public boolean isReady() {
+                return service != null && connected == Connected.True && service.getWriteQueueSize() < SEND_FILE_QUEUE;
+            }
+
+            @Override
+            public void write(byte[] data) throws IOException {
+                service.write(data);
+            }
+        };
+        FileSender.Listener listener = new FileSender.Listener() {
+            // pump() and cancel() run in main thread, so do these callbacks
+            @Override
+            public void onProgress(long sent, long total, long rate) {
+                sendProgressText.setText(total > 0
+                        ? String.format(Locale.US, "%s: %d / %d bytes (%d%%), %d B/s, tap to cancel", fileName, sent, total, sent * 100 / total, rate)
+                        : String.format(Locale.US, "%s: %d bytes, %d B/s, tap to cancel", fileName, sent, rate));
+            }
+
+            @Override
+            public void onFinished(long sent, Exception e) {
+                mainLooper.removeCallbacks(fileRunnable);
+                fileSender = null;
+                sendProgressText.setVisibility(View.GONE);
+                status(e == null ? "sent " + fileName + ", " + sent + " bytes"
+                        : "send file " + e.getMessage() + " after " + sent + " bytes");
+            }
+        };
+        status("sending " + fileName + "...");
+        sendProgressText.setText(fileName);
+        sendProgressText.setVisibility(View.VISIBLE);
+        fileSender = new FileSender(input, size, bytesPerSecond, sink, listener, WriteQueue.SYSTEM_CLOCK);
+        fileSender.start();
+        pumpFile();
+    }
+
+    private void pumpFile() {
+        FileSender sender = fileSender;
+        if (sender == null)
+            return;
+        long delay = sender.pump();
+        if (delay >= 0)
+            mainLooper.postDelayed(fileRunnable, delay);
+    }
+
+    /*
+     * reliable transfer with acknowledgment and retransmit, the device has to implement BlockReceiver
+     */
+    private void sendBlocks(InputStream input, long size, String fileName) {
+        if (size < 0) {
+            try { input.close(); } catch (IOException ignored) {}
+            status("send file failed: size unknown");
+            return;
+        }
+        // same id for same file, so the device can resume an interrupted transfer
+        int transfer = fileName.hashCode() ^ (int) (size ^ (size >>> 32));
+        long startTime = System.nanoTime();
+        GattScheduler.Timer timer = new GattScheduler.Timer() {
+            @Override
+            public void schedule(Runnable runnable, long delayMillis) {
+                mainLooper.postDelayed(runnable, delayMillis);
+            }
+
+            @Override
+            public void cancel(Runnable runnable) {
+                mainLooper.removeCallbacks(runnable);
+            }
+        };
+        BlockSender.Listener listener = new BlockSender.Listener() {
+            @Override
+            public void onProgress(long acknowledged, long total) {
+                long rate = (acknowledged - blockSender.getStartOffset()) * 1000000000L / Math.max(System.nanoTime() - startTime, 1);
+                sendProgressText.setText(String.format(Locale.US, "%s: %d / %d bytes (%d%%), %d B/s, %d retransmits, tap to cancel",
+                        fileName, acknowledged, total, total > 0 ? acknowledged * 100 / total : 100, rate, blockSender.getRetransmits()));
+            }
+
+            @Override
+            public void onFinished(Exception e) {
+                BlockSender sender = blockSender;
+                blockSender = null;
+                blockDecoder = null;
+                if (service != null)
+                    service.removeIoListener(blockListener);
+                sendProgressText.setVisibility(View.GONE);
+                double seconds = (System.nanoTime() - startTime) / 1e9;
+                long sent = sender.getAcknowledged() - sender.getStartOffset();
+                status(String.format(Locale.US, "%s %s, %d bytes in %.1f s = %.0f B/s, raw %.0f B/s, %d retransmits%s",
+                        e == null ? "sent" : "send file " + e.getMessage() + ",", fileName, sent, seconds, sent / seconds,
+                        sender.getRawBytes() / seconds, sender.getRetransmits(),
+                        sender.getStartOffset() > 0 ? ", resumed at " + sender.getStartOffset() : ""));
+            }
+        };
+        status("sending " + fileName + " with block transfer protocol...");
+        sendProgressText.setText(fileName);
+        sendProgressText.setVisibility(View.VISIBLE);
+        blockDecoder = new BlockFrame.Decoder();
+        service.addIoListener(blockListener);
+        BlockFrame.Writer writer = data -> {
+            if (service == null)
+                throw new IOException("not connected");
+            service.write(data);
+        };
+        BlockReader reader = new BlockReader(input, size, BlockSender.BLOCK_SIZE, BlockSender.WINDOW,
+                () -> mainLooper.post(() -> {
+                    if (blockSender != null)
+                        blockSender.onReadable();
+                }));
+        blockSender = new BlockSender(transfer, reader, size, BlockSender.BLOCK_SIZE, BlockSender.WINDOW,
+                writer, timer, WriteQueue.SYSTEM_CLOCK, listener);
+        blockSender.start();
+    }
+
+    private void stopSendFile() {
+        if (fileSender != null)
+            fileSender.cancel();
+        if (blockSender != null)
+            blockSender.cancel();
+    }
+
+    /*
+     * periodic send or send script in SerialService timing thread, e.g. to poll a device every 20 ms
+     */
+    @SuppressWarnings("deprecation")
+    private void selectSendScript() {
+        if (sendScriptName != null) {
+            stopSendScript();
+            return;
+        }
+        if (connected != Connected.True) {
+            Toast.makeText(getActivity(), "not connected", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (fileSender != null || blockSender != null) {
+            Toast.makeText(getActivity(), "send file running", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String[] names = {"every 10 ms", "every 20 ms", "every 100 ms", "every 1 s", "script file"};
+        int[] intervals = {10, 20, 100, 1000, 0};
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+        builder.setTitle("Repeat send");
+        builder.setItems(names, (dialog, item) -> {
+            if (intervals[item] == 0) {
+                Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                intent.setType("text/*");
+                startActivityForResult(intent, SEND_SCRIPT_REQUEST);
+                return;
+            }
+            String str = sendText.getText().toString();
+            if (str.isEmpty()) {
+                Toast.makeText(getActivity(), "nothing to send", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            startSendScript(SendScheduler.Script.periodic(sendData(str), intervals[item], 0), names[item]);
+        });
+        builder.create().show();
+    }
+
+    private void sendScript(Uri uri) {
+        SendScheduler.Script script;
+        try (InputStream input = getActivity().getContentResolver().openInputStream(uri)) {
+            if (input == null)
+                throw new IOException("cannot open file");
+            byte[] buffer = new byte[SEND_SCRIPT_MAX_SIZE];
+            int length = 0, read;
+            while (length < buffer.length && (read = input.read(buffer, length, buffer.length - length)) > 0)
+                length += read;
+            if (length == buffer.length)
+                throw new IOException("file too large");
+            script = SendScheduler.Script.parse(new String(buffer, 0, length), newline);
+        } catch (Exception e) {
+            status("send script failed: " + e.getMessage());
+            return;
+        }
+        startSendScript(script, "script " + uri.getLastPathSegment());
+    }
+
+    private void startSendScript(SendScheduler.Script script, String name) {
+        if (connected != Connected.True || sendScriptName != null)
+            return;
+        try {
+            service.startSendScript(script, (stats, e) -> {
+                mainLooper.removeCallbacks(sendScriptRunnable);
+                sendScriptName = null;
+                if (fileSender == null && blockSender == null)
+                    sendProgressText.setVisibility(View.GONE);
+                status(e == null ? "send " + name + ": " + stats
+                        : "send " + name + " failed: " + e.getMessage() + ", " + stats);
+            });
+        } catch (IOException e) {
+            status("send " + name + " failed: " + e.getMessage());
+            return;
+        }
+        sendScriptName = name;
+        status("send " + name + "...");
+        sendProgressText.setText(name);
+        sendProgressText.setVisibility(View.VISIBLE);
+        mainLooper.postDelayed(sendScriptRunnable, 1000);
+    }
+
+    private void updateSendScript() {
+        SendScheduler.Stats stats = service != null ? service.getSendScriptStats() : null;
+        if (sendScriptName == null || stats == null)
+            return;
+        sendProgressText.setText(String.format(Locale.US, "%s: %d sent, jitter mean %d, p99 <%d us, %d overruns, %d pauses, tap to stop",
+                sendScriptName, stats.sends, stats.jitter.mean(), stats.jitter.percentile(99), stats.overruns, stats.pauses));
+        mainLooper.postDelayed(sendScriptRunnable, 1000);
+    }
+
+    private void stopSendScript() {
+        if (service != null)
+            service.stopSendScript();
+    }
+
+    /*
+     * search received data in Scrollback, which keeps more than receiveText and is indexed while receiving.
+     * search runs in background thread, matches are shown with context in a dialog
+     */
+    private void selectSearch() {
+        EditText input = new EditText(getActivity());
+        input.setSingleLine();
+        input.setHint(hexEnabled ? "HEX bytes" : "text, ignoring case");
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+        builder.setTitle("Search");
+        builder.setView(input);
+        builder.setPositiveButton("Search", (dialog, which) -> {
+            String str = input.getText().toString();
+            byte[] pattern = hexEnabled ? TextUtil.fromHexString(str) : str.getBytes();
+            if (pattern.length == 0)
+                return;
+            search(pattern, !hexEnabled, -1, 0);
+        });
+        builder.setNegativeButton("Cancel", null);
+        builder.create().show();
+    }
+
+    /**
+     * @param current   offset of current match, -1 to search newest match
+     * @param direction < 0 for older, > 0 for newer match
+     */
+    private void search(byte[] pattern, boolean ignoreCase, long current, int direction) {
+        if (scrollback == null) {
+            status("search failed: scrollback not ready");
+            return;
+        }
+        new Thread(() -> {
+            long match, found, contextStart;
+            byte[] context;
+            try {
+                if (current < 0)
+                    match = scrollback.findLast(pattern, Long.MAX_VALUE, ignoreCase);
+                else if (direction < 0)
+                    match = scrollback.findLast(pattern, current, ignoreCase);
+                else
+                    match = scrollback.find(pattern, current + 1, ignoreCase);
+                found = match >= 0 ? match : current; // no more matches: stay on current match
+                contextStart = Math.max(scrollback.getStart(), found - SEARCH_CONTEXT);
+                context = found >= 0 ? scrollback.read(contextStart, 2 * SEARCH_CONTEXT + pattern.length) : null;
+            } catch (IOException e) {
+                mainLooper.post(() -> status("search failed: " + e.getMessage()));
+                return;
+            }
+            mainLooper.post(() -> showSearchResult(pattern, ignoreCase, match >= 0, found, context, contextStart));
+        }, "ScrollbackSearch").start();
+    }
+
+    /**
+     * @param found         offset of match, or of previous match if none found, -1 if neither
+     * @param context       data around found, read in search thread
+     */
+    private void showSearchResult(byte[] pattern, boolean ignoreCase, boolean matched, long found, byte[] context, long contextStart) {
+        if (!matched)
+            Toast.makeText(getActivity(), found < 0 ? "not found" : "no more matches", Toast.LENGTH_SHORT).show();
+        if (found < 0)
+            return;
+        int pos = (int) (found - contextStart);
+        if (pos + pattern.length > context.length)
+            return; // deleted meanwhile
+        SpannableStringBuilder spn = new SpannableStringBuilder();
+        int matchStart, matchEnd;
+        if (hexEnabled) {
+            int start = Math.max(0, pos - 32), end = Math.min(context.length, pos + pattern.length + 32);
+            spn.append(TextUtil.toHexString(context, start, pos));
+            matchStart = spn.length();
+            spn.append(TextUtil.toHexString(context, pos, pos + pattern.length));
+            matchEnd = spn.length();
+            spn.append(TextUtil.toHexString(context, pos + pattern.length, end));
+        } else {
+            int start = pos, end = pos + pattern.length;
+            for (int lines = 0; start > 0 && lines < 3; start--)
+                if (context[start - 1] == '\n' && ++lines == 3)
+                    break;
+            for (int lines = 0; end < context.length && lines < 3; end++)
+                if (context[end] == '\n')
+                    lines++;
+            spn.append(new String(context, start, pos - start));
+            matchStart = spn.length();
+            spn.append(new String(context, pos, pattern.length));
+            matchEnd = spn.length();
+            spn.append(new String(context, pos + pattern.length, end - pos - pattern.length));
+        }
+        spn.setSpan(new BackgroundColorSpan(getResources().getColor(R.color.colorAccent)), matchStart, matchEnd, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+        builder.setTitle(String.format(Locale.US, "offset %d of %d", found, scrollback.getSize()));
+        builder.setMessage(spn);
+        builder.setPositiveButton("Older", (dialog, which) -> search(pattern, ignoreCase, found, -1));
+        builder.setNeutralButton("Newer", (dialog, which) -> search(pattern, ignoreCase, found, 1));
+        builder.setNegativeButton("Close", null);
+        builder.create().show();
+    }
+
+    /*
+     * plot numbers from received lines, e.g. "x=1.5 y=-2\n" as 2 series.
+     * lines are parsed in SerialService background thread and not shown as text
+     */
+    private void startPlot() {
+        if (service == null)
+            return;
+        SampleBuffer buffer = new SampleBuffer();
+        plotParser.reset();
+        plotBuffer = buffer;
+        plotView.setBuffer(buffer);
+        plotView.setVisibility(View.VISIBLE);
+        service.addIoListener(plotListener);
+    }
+
+    private void stopPlot() {
+        if (service != null)
+            service.removeIoListener(plotListener);
+        plotBuffer = null;
+        plotView.setBuffer(null);
+        plotView.setVisibility(View.GONE);
+    }
+
+    /*
+     * round trip latency benchmark, the device has to echo all data, e.g. with LatencyEcho.ino
+     */
+    private void selectLatencyBenchmark() {
+        if (connected != Connected.True) {
+            Toast.makeText(getActivity(), "not connected", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (latencyProbe != null) {
+            stopLatencyBenchmark();
+            return;
+        }
+        String[] names = {"1 probe/s, 20 bytes", "10 probes/s, 20 bytes", "10 probes/s, 100 bytes", "50 probes/s, 20 bytes"};
+        int[] rates = {1, 10, 10, 50};
+        int[] sizes = {20, 20, 100, 20};
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+        builder.setTitle("Latency benchmark");
+        builder.setItems(names, (dialog, item) -> {
+            mainLooper.removeCallbacks(latencyStopRunnable); // of previous run
+            latencyProbe = new LatencyProbe(LATENCY_PROBES, sizes[item]);
+            latencyInterval = 1000 / rates[item];
+            service.addIoListener(latencyListener, true); // before scrollback and other slow listeners
+            status("latency benchmark, " + names[item]);
+            sendLatencyProbe();
+        });
+        builder.create().show();
+    }
+
+    private void sendLatencyProbe() {
+        if (latencyProbe == null)
+            return;
+        if (!latencyProbe.hasNext()) {
+            mainLooper.postDelayed(latencyStopRunnable, 2000); // wait for late echoes
+            return;
+        }
+        try {
+            service.write(latencyProbe.next(System.nanoTime()));
+        } catch (Exception e) {
+            onSerialIoError(e);
+            return;
+        }
+        mainLooper.postDelayed(latencyRunnable, latencyInterval);
+    }
+
+    private void stopLatencyBenchmark() {
+        mainLooper.removeCallbacks(latencyRunnable);
+        mainLooper.removeCallbacks(latencyStopRunnable);
+        if (latencyProbe == null)
+            return;
+        if (service != null)
+            service.removeIoListener(latencyListener);
+        status("latency: " + latencyProbe.result());
+        latencyProbe = null;
+    }
+
+    /*
+     * downlink throughput and integrity test, the device has to send a counter stream, e.g. with CounterStream.ino
+     * data is verified in SerialService background thread and not shown
+     */
+    private void startStreamTest() {
+        streamVerifier = new StreamVerifier();
+        Arrays.fill(streamCounters, 0);
+        Arrays.fill(streamLastCounters, 0);
+        streamStartTime = System.nanoTime();
+        service.addIoListener(streamListener);
+        status("stream test started");
+        mainLooper.postDelayed(streamRunnable, 1000);
+    }
+
+    private void updateStreamTest() {
+        StreamVerifier verifier = streamVerifier;
+        if (verifier == null)
+            return;
+        verifier.snapshot(streamCounters);
+        status(String.format(Locale.US, "stream: %d B/s, %d values/s, %d gaps (%d missing), %d reordered, %d duplicates, %d corrupt",
+                streamCounters[StreamVerifier.BYTES] - streamLastCounters[StreamVerifier.BYTES],
+                streamCounters[StreamVerifier.VALUES] - streamLastCounters[StreamVerifier.VALUES],
+                streamCounters[StreamVerifier.GAPS] - streamLastCounters[StreamVerifier.GAPS],
+                streamCounters[StreamVerifier.MISSING] - streamLastCounters[StreamVerifier.MISSING],
+                streamCounters[StreamVerifier.REORDERED] - streamLastCounters[StreamVerifier.REORDERED],
+                streamCounters[StreamVerifier.DUPLICATES] - streamLastCounters[StreamVerifier.DUPLICATES],
+                streamCounters[StreamVerifier.CORRUPT] - streamLastCounters[StreamVerifier.CORRUPT]));
+        System.arraycopy(streamCounters, 0, streamLastCounters, 0, StreamVerifier.COUNTERS);
+        mainLooper.postDelayed(streamRunnable, 1000);
+    }
+
+    private void stopStreamTest() {
+        StreamVerifier verifier = streamVerifier;
+        if (verifier == null)
+            return;
+        streamVerifier = null;
+        mainLooper.removeCallbacks(streamRunnable);
+        if (service != null)
+            service.removeIoListener(streamListener);
+        verifier.snapshot(streamCounters);
+        double seconds = (System.nanoTime() - streamStartTime) / 1e9;
+        status(String.format(Locale.US, "stream test: %d bytes in %.1f s = %.0f B/s, %d values, %d gaps (%d missing), %d reordered, %d duplicates, %d corrupt",
+                streamCounters[StreamVerifier.BYTES], seconds, streamCounters[StreamVerifier.BYTES] / seconds,
+                streamCounters[StreamVerifier.VALUES], streamCounters[StreamVerifier.GAPS], streamCounters[StreamVerifier.MISSING],
+                streamCounters[StreamVerifier.REORDERED], streamCounters[StreamVerifier.DUPLICATES], streamCounters[StreamVerifier.CORRUPT]));
+    }
+
     private void disconnect() {
+        stopSendFile();
+        stopLatencyBenchmark();
+        stopStreamTest();
         connected = Connected.False;
+        reconnecting = false;
         service.disconnect();
     }
 
@@ -224,18 +1064,8 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
             return;
         }
         try {
-            String msg;
-            byte[] data;
-            if(hexEnabled) {
-                StringBuilder sb = new StringBuilder();
-                TextUtil.toHexString(sb, TextUtil.fromHexString(str));
-                TextUtil.toHexString(sb, newline.getBytes());
-                msg = sb.toString();
-                data = TextUtil.fromHexString(msg);
-            } else {
-                msg = str;
-                data = (str + newline).getBytes();
-            }
+            byte[] data = sendData(str);
+            String msg = hexEnabled ? TextUtil.toHexString(data) : str;
             SpannableStringBuilder spn = new SpannableStringBuilder(msg + '\n');
             spn.setSpan(new ForegroundColorSpan(getResources().getColor(R.color.colorSendText)), 0, spn.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
             receiveText.append(spn);
@@ -245,7 +1075,28 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
         }
     }
 
+    /**
+     * @return send text with newline as bytes
+     */
+    private byte[] sendData(String str) {
+        if(hexEnabled) {
+            byte[] hex = hexWatcher.getBytes(); // already parsed while typing
+            byte[] nl = newline.getBytes();
+            byte[] data = Arrays.copyOf(hex, hex.length + nl.length);
+            System.arraycopy(nl, 0, data, hex.length, nl.length);
+            return data;
+        } else {
+            return (str + newline).getBytes();
+        }
+    }
+
     private void receive(ArrayDeque<byte[]> datas) {//TODO
+        if (streamVerifier != null)
+            return; // verified in background thread, rendering would limit throughput
+        if (blockSender != null)
+            return; // block transfer acknowledgments, handled in blockListener
+        if (plotBuffer != null)
+            return; // parsed in plotListener, shown in plotView
         SpannableStringBuilder spn = new SpannableStringBuilder();
         for (byte[] data : datas) {
             if (hexEnabled) {
@@ -273,6 +1124,16 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
         receiveText.append(spn);
     }
 
+    private void updateLinkStats() {
+        if (!linkStatsEnabled || linkStatsText == null)
+            return;
+        LinkMetrics.Snapshot snapshot = service != null ? service.getLinkMetrics() : null;
+        String frames = service != null ? "\n" + service.getFrameCounter() : "";
+        String sessions = service != null && !service.getSessionAddresses().isEmpty() ? "\n" + service.getSessionStatsTotal() : "";
+        linkStatsText.setText((snapshot != null ? snapshot.toString() : "not connected") + frames + sessions);
+        mainLooper.postDelayed(linkStatsRunnable, 1000);
+    }
+
     private void status(String str) {
         SpannableStringBuilder spn = new SpannableStringBuilder(str + '\n');
         spn.setSpan(new ForegroundColorSpan(getResources().getColor(R.color.colorStatusText)), 0, spn.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
@@ -302,7 +1163,12 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
      */
     @Override
     public void onSerialConnect() {
-        status("connected");
+        ReconnectSupervisor reconnect = service != null ? service.getReconnectSupervisor() : null;
+        if(reconnecting && reconnect != null)
+            status("reconnected after " + reconnect.getLastOutage() + " ms, " + reconnect.getLastHeldBytes() + " bytes held");
+        else
+            status("connected");
+        reconnecting = false;
         connected = Connected.True;
     }
 
@@ -329,4 +1195,10 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
         disconnect();
     }
 
+    @Override
+    public void onSerialReconnecting(Exception e) {
+        status("connection lost: " + e.getMessage() + ", reconnecting...");
+        reconnecting = true;
+    }
+
 }
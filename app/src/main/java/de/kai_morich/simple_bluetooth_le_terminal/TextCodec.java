@@ -0,0 +1,66 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * hex and caret encoding without Android dependencies, used by TextUtil
+ * and benchmarked in the benchmark module
+ */
+final class TextCodec {
+
+    private TextCodec() {
+    }
+
+    static byte[] fromHexString(final CharSequence s) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        byte b = 0;
+        int nibble = 0;
+        for(int pos = 0; pos<s.length(); pos++) {
+            if(nibble==2) {
+                buf.write(b);
+                nibble = 0;
+                b = 0;
+            }
+            int c = s.charAt(pos);
+            if(c>='0' && c<='9') { nibble++; b *= 16; b += c-'0';    }
+            if(c>='A' && c<='F') { nibble++; b *= 16; b += c-'A'+10; }
+            if(c>='a' && c<='f') { nibble++; b *= 16; b += c-'a'+10; }
+        }
+        if(nibble>0)
+            buf.write(b);
+        return buf.toByteArray();
+    }
+
+    static void toHexString(StringBuilder sb, final byte[] buf, int begin, int end) {
+        for(int pos=begin; pos<end; pos++) {
+            if(sb.length()>0)
+                sb.append(' ');
+            int c;
+            c = (buf[pos]&0xff) / 16;
+            if(c >= 10) c += 'A'-10;
+            else        c += '0';
+            sb.append((char)c);
+            c = (buf[pos]&0xff) % 16;
+            if(c >= 10) c += 'A'-10;
+            else        c += '0';
+            sb.append((char)c);
+        }
+    }
+
+    /**
+     * @return position of next control character to be shown in caret notation, -1 if none
+     */
+    static int findControl(CharSequence s, boolean keepNewline, int from, int length) {
+        for (int pos = from; pos < length; pos++) {
+            char c = s.charAt(pos);
+            if (c < 32 && (!keepNewline || c != '\n'))
+                return pos;
+        }
+        return -1;
+    }
+
+    static char toCaret(char c) {
+        return (char)(c + 64);
+    }
+
+}
@@ -2,16 +2,16 @@ package de.kai_morich.simple_bluetooth_le_terminal;
 
 import android.text.Editable;
 import android.text.InputType;
+import android.text.Selection;
 import android.text.Spannable;
 import android.text.SpannableStringBuilder;
+import android.text.TextUtils;
 import android.text.TextWatcher;
 import android.text.style.BackgroundColorSpan;
 import android.widget.TextView;
 
 import androidx.annotation.ColorInt;
 
-import java.io.ByteArrayOutputStream;
-
 final class TextUtil {
 
     @ColorInt static int caretBackground = 0xff666666;
@@ -20,23 +20,7 @@ final class TextUtil {
     final static String newline_lf = "\n";
 
     static byte[] fromHexString(final CharSequence s) {
-        ByteArrayOutputStream buf = new ByteArrayOutputStream();
-        byte b = 0;
-        int nibble = 0;
-        for(int pos = 0; pos<s.length(); pos++) {
-            if(nibble==2) {
-                buf.write(b);
-                nibble = 0;
-                b = 0;
-            }
-            int c = s.charAt(pos);
-            if(c>='0' && c<='9') { nibble++; b *= 16; b += c-'0';    }
-            if(c>='A' && c<='F') { nibble++; b *= 16; b += c-'A'+10; }
-            if(c>='a' && c<='f') { nibble++; b *= 16; b += c-'a'+10; }
-        }
-        if(nibble>0)
-            buf.write(b);
-        return buf.toByteArray();
+        return TextCodec.fromHexString(s);
     }
 
     static String toHexString(final byte[] buf) {
@@ -54,19 +38,7 @@ final class TextUtil {
     }
 
     static void toHexString(StringBuilder sb, final byte[] buf, int begin, int end) {
-        for(int pos=begin; pos<end; pos++) {
-            if(sb.length()>0)
-                sb.append(' ');
-            int c;
-            c = (buf[pos]&0xff) / 16;
-            if(c >= 10) c += 'A'-10;
-            else        c += '0';
-            sb.append((char)c);
-            c = (buf[pos]&0xff) % 16;
-            if(c >= 10) c += 'A'-10;
-            else        c += '0';
-            sb.append((char)c);
-        }
+        TextCodec.toHexString(sb, buf, begin, end);
     }
 
     /**
@@ -77,34 +49,37 @@ final class TextUtil {
     }
 
     static CharSequence toCaretString(CharSequence s, boolean keepNewline, int length) {
-        boolean found = false;
-        for (int pos = 0; pos < length; pos++) {
-            if (s.charAt(pos) < 32 && (!keepNewline ||s.charAt(pos)!='\n')) {
-                found = true;
-                break;
-            }
-        }
-        if(!found)
+        int pos = TextCodec.findControl(s, keepNewline, 0, length);
+        if(pos < 0)
             return s;
         SpannableStringBuilder sb = new SpannableStringBuilder();
-        for(int pos=0; pos<length; pos++)
-            if (s.charAt(pos) < 32 && (!keepNewline ||s.charAt(pos)!='\n')) {
-                sb.append('^');
-                sb.append((char)(s.charAt(pos) + 64));
-                sb.setSpan(new BackgroundColorSpan(caretBackground), sb.length()-2, sb.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-            } else {
-                sb.append(s.charAt(pos));
-            }
+        int start = 0;
+        while(pos >= 0) {
+            sb.append(s, start, pos); // copy runs of printable characters at once
+            sb.append('^');
+            sb.append(TextCodec.toCaret(s.charAt(pos)));
+            sb.setSpan(new BackgroundColorSpan(caretBackground), sb.length()-2, sb.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            start = pos + 1;
+            pos = TextCodec.findControl(s, keepNewline, start, length);
+        }
+        sb.append(s, start, length);
         return sb;
     }
 
 
+    /**
+     * format hex input as "AB CD E" while typing. Only the changed region is reformatted
+     * and the digits are kept parsed in HexBuffer, as reformatting the whole text per
+     * keystroke froze the UI when pasting large hex data
+     */
     static class HexWatcher implements TextWatcher {
 
         private final TextView view;
+        private final HexBuffer hex = new HexBuffer();
         private final StringBuilder sb = new StringBuilder();
         private boolean self = false;
         private boolean enabled = false;
+        private int changeStart, changeBefore, changeCount;
 
         HexWatcher(TextView view) {
             this.view = view;
@@ -117,6 +92,24 @@ final class TextUtil {
                 view.setInputType(InputType.TYPE_CLASS_TEXT + InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS);
             }
             enabled = enable;
+            if(enable) {
+                CharSequence text = view.getText();
+                hex.set(text);
+                sb.setLength(0);
+                hex.appendFormatted(sb, 0, hex.length());
+                if(!TextUtils.equals(sb, text)) {
+                    self = true;
+                    view.setText(sb);
+                    self = false;
+                }
+            }
+        }
+
+        /**
+         * @return data of hex text, without parsing
+         */
+        byte[] getBytes() {
+            return hex.getBytes();
         }
 
         @Override
@@ -125,30 +118,39 @@ final class TextUtil {
 
         @Override
         public void onTextChanged(CharSequence s, int start, int before, int count) {
+            changeStart = start;
+            changeBefore = before;
+            changeCount = count;
         }
 
         @Override
         public void afterTextChanged(Editable s) {
             if(!enabled || self)
                 return;
-
-            sb.delete(0,sb.length());
-            int i;
-            for(i=0; i<s.length(); i++) {
-                char c = s.charAt(i);
-                if(c >= '0' && c <= '9') sb.append(c);
-                if(c >= 'A' && c <= 'F') sb.append(c);
-                if(c >= 'a' && c <= 'f') sb.append((char)(c+'A'-'a'));
-            }
-            for(i=2; i<sb.length(); i+=3)
-                sb.insert(i,' ');
-            final String s2 = sb.toString();
-
-            if(!s2.equals(s.toString())) {
-                self = true;
-                s.replace(0, s.length(), s2);
-                self = false;
+            int cursor;
+            if(s.length() != hex.length() - changeBefore + changeCount) { // not in sync, e.g. multiple changes
+                hex.set(s);
+                cursor = hex.size();
+                sb.setLength(0);
+                hex.appendFormatted(sb, 0, hex.length());
+                replace(s, 0, s.length());
+            } else {
+                cursor = hex.replace(changeStart, changeBefore, s, changeStart, changeStart + changeCount);
+                int start = hex.getChangeStart();
+                int end = s.length() - hex.getChangeSuffix();
+                sb.setLength(0);
+                hex.appendFormatted(sb, start, hex.length() - hex.getChangeSuffix());
+                replace(s, start, end);
             }
+            Selection.setSelection(s, hex.position(cursor));
+        }
+
+        private void replace(Editable s, int start, int end) {
+            if(end - start == sb.length() && TextUtils.regionMatches(s, start, sb, 0, sb.length()))
+                return;
+            self = true;
+            s.replace(start, end, sb);
+            self = false;
         }
     }
 
@@ -0,0 +1,276 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.BufferedSource;
+
+/**
+ * traffic light state from the ESP32 hotspot, pushed as server-sent events with fallback to polling
+ *
+ *   - push: GET /events keeps the connection open, the server sends `data: {"value":N}` on every
+ *     change and at least every PUSH_TIMEOUT / 2 as keepalive. Comment lines are accepted as keepalive
+ *   - poll: GET /json every POLL_INTERVAL, used if the server has no /events or the stream
+ *     fails. Push is tried again after PUSH_RETRY
+ *   - the last state is cached with the time it was last confirmed, so readers can detect stale state
+ *
+ * runs in its own thread, the listener is called there. Each start() has its own Run, so after
+ * stop() a thread still ending its request neither calls the listener nor affects a new start().
+ * No Android dependencies, so it can run against a local stand-in server, see TrafficSimulation
+ * in benchmark module.
+ */
+class TrafficChannel {
+
+    static final int GREEN_THRESHOLD = 600;
+    static final long POLL_INTERVAL = 500;      // ms
+    static final long PUSH_RETRY = 30000;       // ms
+    static final long PUSH_TIMEOUT = 3000;      // ms without event or keepalive
+    static final long MAX_AGE = 3000;           // ms
+
+    enum Mode { PUSH, POLL }
+
+    static final class State {
+        final int value;
+        final boolean green;
+        final long nanos;   // last confirmed, WriteQueue.Clock time
+        final Mode mode;
+
+        State(int value, long nanos, Mode mode) {
+            this.value = value;
+            this.green = value > GREEN_THRESHOLD;
+            this.nanos = nanos;
+            this.mode = mode;
+        }
+
+        boolean isStale(long now) {
+            return now - nanos > MAX_AGE * 1_000_000L;
+        }
+
+        @Override
+        public String toString() {
+            return (green ? "green" : "red") + " (" + value + ", " + mode.name().toLowerCase(Locale.US) + ")";
+        }
+    }
+
+    interface Listener {
+        void onTrafficState(State state, boolean changed); // changed false if only confirmed
+    }
+
+    /**
+     * thread from start() to stop()
+     */
+    private static final class Run {
+        volatile boolean running = true;
+        Call call;          // current request, to cancel on stop
+    }
+
+    private final OkHttpClient client, pushClient;
+    private final String baseUrl;
+    private final Listener listener;
+    private final WriteQueue.Clock clock;
+
+    private volatile State state;   // null if not received yet
+    private Run run;                // null if stopped
+    private Thread thread;
+    private long pushEvents, polls, errors;
+
+    /**
+     * @param baseUrl e.g. http://192.168.4.1
+     */
+    TrafficChannel(OkHttpClient client, String baseUrl, Listener listener, WriteQueue.Clock clock) {
+        this.client = client;
+        this.pushClient = client.newBuilder().readTimeout(PUSH_TIMEOUT, TimeUnit.MILLISECONDS).build();
+        this.baseUrl = baseUrl;
+        this.listener = listener;
+        this.clock = clock;
+    }
+
+    State getState() {
+        return state;
+    }
+
+    synchronized long getErrors() {
+        return errors;
+    }
+
+    synchronized String getStats() {
+        State s = state;
+        return String.format(Locale.US, "traffic %s, %d push events, %d polls, %d errors",
+                s != null ? s : "-", pushEvents, polls, errors);
+    }
+
+    synchronized void start() {
+        if(run != null)
+            return;
+        Run r = new Run();
+        run = r;
+        thread = new Thread(() -> run(r), "TrafficChannel");
+        thread.start();
+    }
+
+    synchronized void stop() {
+        if(run == null)
+            return;
+        run.running = false;
+        if(run.call != null)
+            run.call.cancel();
+        run = null;
+        thread.interrupt();
+        thread = null;
+    }
+
+    private void run(Run run) {
+        long pushRetryTime = 0; // ms, clock time / 1e6
+        while(run.running) {
+            if(millis() >= pushRetryTime) {
+                boolean streamed = push(run);
+                // dropped stream: poll once and reconnect. not supported: poll until retry
+                pushRetryTime = millis() + (streamed ? POLL_INTERVAL : PUSH_RETRY);
+            }
+            if(!run.running)
+                return;
+            long next = millis() + POLL_INTERVAL;
+            try {
+                poll(run);
+            } catch (IOException e) {
+                countError(run);
+            }
+            try {
+                long wait = Math.min(next, pushRetryTime) - millis();
+                if(wait > 0)
+                    Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * read events until the stream ends or fails
+     *
+     * @return false if no stream could be opened
+     */
+    private boolean push(Run run) {
+        boolean streamed = false;
+        Request request = new Request.Builder().url(baseUrl + "/events").header("Accept", "text/event-stream").build();
+        try (Response response = execute(run, pushClient, request)) {
+            String type = response.header("Content-Type", "");
+            if(!response.isSuccessful() || type == null || !type.startsWith("text/event-stream"))
+                throw new IOException("no event stream: " + response.code());
+            streamed = true;
+            BufferedSource source = response.body().source();
+            String line;
+            while(run.running && (line = source.readUtf8Line()) != null) {
+                if(line.startsWith("data:")) {
+                    int value = parseValue(line.substring(5));
+                    synchronized (this) {
+                        if(!run.running)
+                            break;
+                        pushEvents++;
+                        update(value, Mode.PUSH);
+                    }
+                } else if(line.startsWith(":")) {
+                    confirm(run); // keepalive
+                }
+            }
+        } catch (IOException e) {
+            countError(run);
+        } finally {
+            synchronized (this) {
+                run.call = null;
+            }
+        }
+        return streamed;
+    }
+
+    private void poll(Run run) throws IOException {
+        Request request = new Request.Builder().url(baseUrl + "/json").build();
+        try (Response response = execute(run, client, request)) {
+            if(!response.isSuccessful())
+                throw new IOException("unexpected code " + response.code());
+            int value = parseValue(response.body().string());
+            synchronized (this) {
+                if(!run.running)
+                    return;
+                polls++;
+                update(value, Mode.POLL);
+            }
+        } finally {
+            synchronized (this) {
+                run.call = null;
+            }
+        }
+    }
+
+    private Response execute(Run run, OkHttpClient client, Request request) throws IOException {
+        Call c = client.newCall(request);
+        synchronized (this) {
+            if(!run.running)
+                c.cancel();
+            run.call = c;
+        }
+        return c.execute();
+    }
+
+    /**
+     * called with lock held, like stop(), so the listener is not called after stop() returned
+     */
+    private void update(int value, Mode mode) {
+        State previous = state;
+        State next = new State(value, clock.nanoTime(), mode);
+        state = next;
+        listener.onTrafficState(next, previous == null || previous.green != next.green);
+    }
+
+    private synchronized void confirm(Run run) {
+        State previous = state;
+        if(previous == null || !run.running)
+            return;
+        State next = new State(previous.value, clock.nanoTime(), Mode.PUSH);
+        state = next;
+        listener.onTrafficState(next, false);
+    }
+
+    /**
+     * failed requests of a stopped run are cancelled, not errors
+     */
+    private synchronized void countError(Run run) {
+        if(run.running)
+            errors++;
+    }
+
+    private long millis() {
+        return clock.nanoTime() / 1_000_000L;
+    }
+
+    /**
+     * "value" from JSON object like {"value":712}, without JSON library, so it also runs outside Android
+     */
+    static int parseValue(String json) throws IOException {
+        int pos = json.indexOf("\"value\"");
+        if(pos < 0)
+            throw new IOException("value missing");
+        pos = json.indexOf(':', pos + 7);
+        if(pos < 0)
+            throw new IOException("value missing");
+        pos++;
+        while(pos < json.length() && Character.isWhitespace(json.charAt(pos)))
+            pos++;
+        int end = pos;
+        if(end < json.length() && json.charAt(end) == '-')
+            end++;
+        while(end < json.length() && Character.isDigit(json.charAt(end)))
+            end++;
+        try {
+            return Integer.parseInt(json.substring(pos, end));
+        } catch (NumberFormatException e) {
+            throw new IOException("invalid value");
+        }
+    }
+
+}
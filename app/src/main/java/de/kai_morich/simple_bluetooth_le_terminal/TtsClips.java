@@ -0,0 +1,299 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.speech.tts.TextToSpeech;
+import android.speech.tts.UtteranceProgressListener;
+import android.speech.tts.Voice;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * fixed phrases rendered once with synthesizeToFile and played from static AudioTracks,
+ * so they start without synthesis delay
+ *
+ * files are cached in dir, named by a hash of engine, voice, locale and text, so a changed
+ * voice renders new files. Phrases are rendered in the TTS queue, which is flushed by live
+ * speech, so prepare() is called again after live speech to render the remaining ones.
+ *
+ * reading files and creating AudioTracks runs in a loader thread, not in the caller thread,
+ * which is typically the main thread holding the Utility lock. Loaded clips are published by
+ * replacing the clips map, so play() never waits for loading.
+ */
+class TtsClips {
+
+    private static final String TAG = "TtsClips";
+    static final String ID_PREFIX = "clip-";
+
+    private static class Clip {
+        final AudioTrack track;
+        final int frames;
+
+        Clip(AudioTrack track, int frames) {
+            this.track = track;
+            this.frames = frames;
+        }
+    }
+
+    private final File dir;
+    private final String[] texts;
+    private final ExecutorService loader = Executors.newSingleThreadExecutor();
+    private volatile HashMap<String, Clip> clips = new HashMap<>();         // by text, replaced, not modified
+    private final HashMap<String, String> rendering = new HashMap<>();      // text by utterance id
+    private final Handler mainLooper = new Handler(Looper.getMainLooper());
+    private final LinkMetrics.Histogram latency = new LinkMetrics.Histogram(); // trigger to audio start
+    private final AudioTimestamp timestamp = new AudioTimestamp();
+
+    private String key = "";    // engine, voice and locale
+    private boolean closed;
+    private Clip playing;
+    private String playingId;
+    private long playingTrigger;
+    private UtteranceProgressListener playingListener;
+
+    TtsClips(File dir, String[] texts) {
+        this.dir = dir;
+        this.texts = texts;
+        //noinspection ResultOfMethodCallIgnored
+        dir.mkdirs();
+    }
+
+    /**
+     * load cached phrases and render missing ones in loader thread, call after TTS language is set
+     */
+    synchronized void prepare(TextToSpeech tts) {
+        if(!closed)
+            loader.execute(() -> load(tts));
+    }
+
+    boolean isComplete() {
+        return clips.size() == texts.length;
+    }
+
+    /**
+     * call from UtteranceProgressListener for ID_PREFIX utterances
+     */
+    synchronized void onRendered(String utteranceId, boolean success) {
+        if(!closed)
+            loader.execute(() -> loadRendered(utteranceId, success));
+    }
+
+    /**
+     * stop current clip and play text if rendered
+     *
+     * @param trigger System.nanoTime() when requested, for latency
+     * @return false if not rendered, use live TTS
+     */
+    synchronized boolean play(String text, String utteranceId, long trigger, UtteranceProgressListener listener) {
+        stop();
+        Clip clip = clips.get(text);
+        if(clip == null)
+            return false;
+        try {
+            clip.track.stop();
+            clip.track.reloadStaticData();
+            clip.track.setNotificationMarkerPosition(clip.frames - 1);
+            clip.track.play();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "clip play failed: " + e.getMessage());
+            return false;
+        }
+        playing = clip;
+        playingId = utteranceId;
+        playingTrigger = trigger;
+        playingListener = listener;
+        if(listener != null)
+            listener.onStart(utteranceId);
+        return true;
+    }
+
+    synchronized void stop() {
+        if(playing == null)
+            return;
+        playing.track.pause();
+        UtteranceProgressListener listener = playingListener;
+        String utteranceId = playingId;
+        playing = null;
+        playingListener = null;
+        if(listener != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
+            listener.onStop(utteranceId, true);
+        else if(listener != null)
+            listener.onDone(utteranceId);
+    }
+
+    synchronized LinkMetrics.Histogram getLatency() {
+        return latency.copy();
+    }
+
+    synchronized void release() {
+        stop();
+        for(Clip clip : clips.values())
+            clip.track.release();
+        clips = new HashMap<>();
+        rendering.clear();
+    }
+
+    /**
+     * release clips and stop loader, clips loaded meanwhile are released when published
+     */
+    synchronized void close() {
+        closed = true;
+        release();
+        loader.shutdown();
+    }
+
+    /**
+     * loader thread
+     */
+    private void load(TextToSpeech tts) {
+        Voice voice = tts.getVoice();
+        String key = tts.getDefaultEngine() + '\n' + (voice != null ? voice.getName() + '\n' + voice.getLocale() : "");
+        synchronized (this) {
+            if(!key.equals(this.key)) {
+                release();
+                this.key = key;
+            }
+        }
+        for(String text : texts) {
+            synchronized (this) {
+                if(closed)
+                    return;
+                if(clips.containsKey(text) || rendering.containsValue(text))
+                    continue;
+            }
+            String name = hash(key + '\n' + text);
+            File file = new File(dir, name + ".wav");
+            if(file.exists()) {
+                try {
+                    publish(text, load(file));
+                    continue;
+                } catch (IOException e) {
+                    Log.w(TAG, "cached clip invalid: " + e.getMessage());
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                }
+            }
+            String utteranceId = ID_PREFIX + name;
+            synchronized (this) {
+                rendering.put(utteranceId, text);
+            }
+            tts.synthesizeToFile(text, null, new File(dir, name + ".tmp"), utteranceId);
+        }
+    }
+
+    /**
+     * loader thread
+     */
+    private void loadRendered(String utteranceId, boolean success) {
+        String text;
+        synchronized (this) {
+            text = rendering.remove(utteranceId);
+        }
+        if(text == null)
+            return;
+        String name = utteranceId.substring(ID_PREFIX.length());
+        File tmp = new File(dir, name + ".tmp"), file = new File(dir, name + ".wav");
+        try {
+            if(!success || !tmp.renameTo(file))
+                throw new IOException("rendering failed");
+            publish(text, load(file));
+        } catch (IOException e) {
+            Log.w(TAG, "clip '" + text + "' not available: " + e.getMessage());
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+        }
+    }
+
+    private synchronized void publish(String text, Clip clip) {
+        if(closed) {
+            clip.track.release();
+            return;
+        }
+        HashMap<String, Clip> clips = new HashMap<>(this.clips);
+        clips.put(text, clip);
+        this.clips = clips;
+    }
+
+    private Clip load(File file) throws IOException {
+        WavClip clip = WavClip.read(file);
+        AudioFormat format = new AudioFormat.Builder()
+                .setEncoding(clip.bitsPerSample == 8 ? AudioFormat.ENCODING_PCM_8BIT : AudioFormat.ENCODING_PCM_16BIT)
+                .setSampleRate(clip.sampleRate)
+                .setChannelMask(clip.channels == 2 ? AudioFormat.CHANNEL_OUT_STEREO : AudioFormat.CHANNEL_OUT_MONO)
+                .build();
+        AudioAttributes attributes = new AudioAttributes.Builder()
+                .setUsage(AudioAttributes.USAGE_MEDIA) // same volume as TTS
+                .setContentType(AudioAttributes.CONTENT_TYPE_SPEECH)
+                .build();
+        AudioTrack track;
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            track = new AudioTrack.Builder()
+                    .setAudioAttributes(attributes)
+                    .setAudioFormat(format)
+                    .setBufferSizeInBytes(clip.pcm.length)
+                    .setTransferMode(AudioTrack.MODE_STATIC)
+                    .setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY)
+                    .build();
+        } else {
+            track = new AudioTrack(attributes, format, clip.pcm.length, AudioTrack.MODE_STATIC, AudioManager.AUDIO_SESSION_ID_GENERATE);
+        }
+        if(track.write(clip.pcm, 0, clip.pcm.length) != clip.pcm.length || track.getState() != AudioTrack.STATE_INITIALIZED) {
+            track.release();
+            throw new IOException("AudioTrack not initialized");
+        }
+        track.setPlaybackPositionUpdateListener(new AudioTrack.OnPlaybackPositionUpdateListener() {
+            @Override
+            public void onMarkerReached(AudioTrack track) {
+                onEnd(track);
+            }
+
+            @Override
+            public void onPeriodicNotification(AudioTrack track) {}
+        }, mainLooper);
+        return new Clip(track, clip.frames());
+    }
+
+    private synchronized void onEnd(AudioTrack track) {
+        if(playing == null || track != playing.track)
+            return;
+        // time of first frame from a timestamp of a later frame, as play() returns before audio starts
+        long start = track.getTimestamp(timestamp)
+                ? timestamp.nanoTime - timestamp.framePosition * 1_000_000_000L / track.getSampleRate()
+                : System.nanoTime() - playing.frames * 1_000_000_000L / track.getSampleRate();
+        latency.add(Math.max(0, start - playingTrigger) / 1000);
+        UtteranceProgressListener listener = playingListener;
+        String utteranceId = playingId;
+        playing = null;
+        playingListener = null;
+        if(listener != null)
+            listener.onDone(utteranceId);
+    }
+
+    private static String hash(String s) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(s.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for(int i = 0; i < 10; i++)
+                sb.append(String.format(Locale.US, "%02x", digest[i]));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(s.hashCode());
+        }
+    }
+
+}
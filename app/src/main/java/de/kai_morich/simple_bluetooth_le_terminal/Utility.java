@@ -2,18 +2,90 @@ package de.kai_morich.simple_bluetooth_le_terminal;
 
 import android.content.Context;
 import android.speech.tts.TextToSpeech;
+import android.speech.tts.UtteranceProgressListener;
 import android.util.Log;
 
+import java.io.File;
 import java.util.Locale;
 
 public class Utility {
     public static Context appContext;
     private static TextToSpeech tts;
-    private static boolean isInitialized = false;
+    private static volatile boolean isInitialized = false;
+    private static volatile UtteranceProgressListener progressListener;
+    private static String pendingText, pendingUtteranceId; // latest text while initializing
+    private static long pendingTrigger;
+    private static TtsClips clips; // fixed phrases, null without warmUp
+    private static String liveUtteranceId; // null if not speaking live
+    private static long liveTrigger;
+    private static final LinkMetrics.Histogram liveLatency = new LinkMetrics.Histogram(); // speak to onStart
+
+    /**
+     * create TTS engine and render fixed phrases at startup, so the first alert is not dropped or delayed
+     */
+    public static synchronized void warmUp(Context context, String[] phrases) {
+        appContext = context.getApplicationContext();
+        if (clips == null)
+            clips = new TtsClips(new File(appContext.getCacheDir(), "tts"), phrases);
+        if (tts == null)
+            init();
+    }
 
     public static void speak(final String text) {
-        if (tts == null) {
-            tts = new TextToSpeech(appContext.getApplicationContext(), status -> {
+        speak(text, "tts1");
+    }
+
+    /**
+     * flushes current speech, can be called from any thread.
+     * fixed phrases are played from pre-rendered clips, other text with live TTS
+     */
+    public static synchronized void speak(final String text, final String utteranceId) {
+        long trigger = System.nanoTime();
+        if (clips != null && clips.play(text, utteranceId, trigger, progressListener)) {
+            if (liveUtteranceId != null)
+                tts.stop();
+            return;
+        }
+        if (tts == null)
+            init();
+        if (isInitialized) {
+            speakLive(text, utteranceId, trigger);
+        } else {
+            pendingText = text;
+            pendingUtteranceId = utteranceId;
+            pendingTrigger = trigger;
+        }
+    }
+
+    /**
+     * called in TTS thread with utterance ids given to speak
+     */
+    public static void setProgressListener(UtteranceProgressListener listener) {
+        progressListener = listener;
+    }
+
+    public static synchronized String getLatencyStats() {
+        return "tts clip " + (clips != null ? clips.getLatency() : "-") + "\ntts live " + liveLatency;
+    }
+
+    public static synchronized void shutdown() {
+        if (clips != null) {
+            clips.close();
+            clips = null;
+        }
+        if (tts != null) {
+            tts.stop();
+            tts.shutdown();
+            tts = null;
+            isInitialized = false;
+        }
+    }
+
+    private static void init() {
+        tts = new TextToSpeech(appContext.getApplicationContext(), status -> {
+            synchronized (Utility.class) {
+                if (tts == null)
+                    return;
                 if (status == TextToSpeech.SUCCESS) {
                     int result = tts.setLanguage(Locale.KOREAN);
                     if (result == TextToSpeech.LANG_MISSING_DATA ||
@@ -21,23 +93,93 @@ public class Utility {
                         Log.e("TTSUtil", "한국어 음성 언어를 지원하지 않음");
                     } else {
                         isInitialized = true;
-                        tts.speak(text, TextToSpeech.QUEUE_FLUSH, null, "tts1");
+                        tts.setOnUtteranceProgressListener(ttsListener);
+                        if (pendingText != null) {
+                            speakLive(pendingText, pendingUtteranceId, pendingTrigger);
+                            pendingText = null;
+                        }
+                        if (clips != null)
+                            clips.prepare(tts); // in background, rendering queued after pending text
                     }
                 } else {
                     Log.e("TTSUtil", "TTS 초기화 실패");
                 }
-            });
-        } else if (isInitialized) {
-            tts.speak(text, TextToSpeech.QUEUE_FLUSH, null, "tts1");
-        }
+            }
+        });
     }
 
-    public static void shutdown() {
-        if (tts != null) {
-            tts.stop();
-            tts.shutdown();
-            tts = null;
-            isInitialized = false;
-        }
+    private static void speakLive(String text, String utteranceId, long trigger) {
+        liveUtteranceId = utteranceId;
+        liveTrigger = trigger;
+        tts.speak(text, TextToSpeech.QUEUE_FLUSH, null, utteranceId);
+    }
+
+    /**
+     * live speech flushes the TTS queue including clip rendering, so render remaining clips when done
+     */
+    private static synchronized void onLiveDone(String utteranceId) {
+        if (!utteranceId.equals(liveUtteranceId))
+            return;
+        liveUtteranceId = null;
+        if (clips != null && isInitialized && !clips.isComplete())
+            clips.prepare(tts);
     }
+
+    private static final UtteranceProgressListener ttsListener = new UtteranceProgressListener() {
+        @Override
+        public void onStart(String utteranceId) {
+            if (utteranceId.startsWith(TtsClips.ID_PREFIX))
+                return;
+            synchronized (Utility.class) {
+                if (utteranceId.equals(liveUtteranceId))
+                    liveLatency.add((System.nanoTime() - liveTrigger) / 1000);
+            }
+            UtteranceProgressListener listener = progressListener;
+            if (listener != null)
+                listener.onStart(utteranceId);
+        }
+
+        @Override
+        public void onDone(String utteranceId) {
+            if (onClipRendered(utteranceId, true))
+                return;
+            onLiveDone(utteranceId);
+            UtteranceProgressListener listener = progressListener;
+            if (listener != null)
+                listener.onDone(utteranceId);
+        }
+
+        @SuppressWarnings("deprecation") // abstract, onError(String, int) is only called additionally
+        @Override
+        public void onError(String utteranceId) {
+            if (onClipRendered(utteranceId, false))
+                return;
+            onLiveDone(utteranceId);
+            UtteranceProgressListener listener = progressListener;
+            if (listener != null)
+                listener.onError(utteranceId);
+        }
+
+        @Override
+        public void onStop(String utteranceId, boolean interrupted) {
+            if (onClipRendered(utteranceId, false))
+                return;
+            onLiveDone(utteranceId);
+            UtteranceProgressListener listener = progressListener;
+            if (listener != null)
+                listener.onStop(utteranceId, interrupted);
+        }
+
+        private boolean onClipRendered(String utteranceId, boolean success) {
+            if (!utteranceId.startsWith(TtsClips.ID_PREFIX))
+                return false;
+            TtsClips c;
+            synchronized (Utility.class) {
+                c = clips;
+            }
+            if (c != null)
+                c.onRendered(utteranceId, success);
+            return true;
+        }
+    };
 }
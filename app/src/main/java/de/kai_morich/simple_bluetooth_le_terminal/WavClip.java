@@ -0,0 +1,89 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * PCM samples of a WAV file, as written by TextToSpeech.synthesizeToFile
+ */
+class WavClip {
+
+    final int sampleRate;
+    final int channels;
+    final int bitsPerSample;    // 8 or 16
+    final byte[] pcm;
+
+    WavClip(int sampleRate, int channels, int bitsPerSample, byte[] pcm) {
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.bitsPerSample = bitsPerSample;
+        this.pcm = pcm;
+    }
+
+    int frames() {
+        return pcm.length / (channels * bitsPerSample / 8);
+    }
+
+    static WavClip read(File file) throws IOException {
+        if(file.length() > Integer.MAX_VALUE)
+            throw new IOException("wav file too large");
+        byte[] data = new byte[(int) file.length()];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(data);
+        }
+        return parse(data);
+    }
+
+    /**
+     * RIFF chunks, unknown chunks are skipped. Some engines write the data size before the samples
+     * are known, so an invalid data size is replaced by the remaining length
+     */
+    static WavClip parse(byte[] data) throws IOException {
+        if(data.length < 12 || !tag(data, 0, "RIFF") || !tag(data, 8, "WAVE"))
+            throw new IOException("not a wav file");
+        int channels = 0, sampleRate = 0, bits = 0;
+        int pos = 12;
+        while(pos + 8 <= data.length) {
+            int size = int32(data, pos + 4);
+            int start = pos + 8;
+            if(tag(data, pos, "fmt ")) {
+                if(size < 16 || start + 16 > data.length)
+                    throw new IOException("invalid wav format");
+                if(int16(data, start) != 1)
+                    throw new IOException("wav not PCM");
+                channels = int16(data, start + 2);
+                sampleRate = int32(data, start + 4);
+                bits = int16(data, start + 14);
+            } else if(tag(data, pos, "data")) {
+                if(channels < 1 || channels > 2 || sampleRate <= 0 || (bits != 8 && bits != 16))
+                    throw new IOException("unsupported wav format");
+                int length = size <= 0 || size > data.length - start ? data.length - start : size;
+                length -= length % (channels * bits / 8);
+                return new WavClip(sampleRate, channels, bits, Arrays.copyOfRange(data, start, start + length));
+            }
+            if(size < 0 || size > data.length - start)
+                break;
+            pos = start + size + (size & 1);
+        }
+        throw new IOException("wav data missing");
+    }
+
+    private static boolean tag(byte[] data, int pos, String tag) {
+        for(int i = 0; i < 4; i++)
+            if(data[pos + i] != tag.charAt(i))
+                return false;
+        return true;
+    }
+
+    private static int int16(byte[] data, int pos) {
+        return (data[pos] & 0xff) | (data[pos + 1] & 0xff) << 8;
+    }
+
+    private static int int32(byte[] data, int pos) {
+        return (data[pos] & 0xff) | (data[pos + 1] & 0xff) << 8 | (data[pos + 2] & 0xff) << 16 | (data[pos + 3] & 0xff) << 24;
+    }
+
+}
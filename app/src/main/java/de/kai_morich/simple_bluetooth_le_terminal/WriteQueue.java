@@ -0,0 +1,142 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * split data into chunks of payload size and write them one after the other,
+ * as Android allows only one pending characteristic write
+ *
+ * the link does the actual write, e.g. gatt.writeCharacteristic() in SerialSocket
+ * or SimulatedLink, and reports completion with onWriteFinished().
+ */
+class WriteQueue {
+
+    interface Link {
+        boolean canWrite();                 // e.g. Telit write credits available
+        boolean startWrite(byte[] data);    // false if write could not be started
+    }
+
+    interface Clock {
+        long nanoTime();
+    }
+
+    static final Clock SYSTEM_CLOCK = System::nanoTime;
+
+    private final ArrayDeque<byte[]> buffer = new ArrayDeque<>();
+    private final Link link;
+    private final LinkMetrics metrics;
+    private final Clock clock;
+
+    private boolean writePending;
+    private int payloadSize;
+
+    WriteQueue(Link link, LinkMetrics metrics, Clock clock, int payloadSize) {
+        this.link = link;
+        this.metrics = metrics;
+        this.clock = clock;
+        this.payloadSize = payloadSize;
+    }
+
+    synchronized void setPayloadSize(int payloadSize) {
+        this.payloadSize = payloadSize;
+        metrics.onPayloadSize(payloadSize);
+    }
+
+    synchronized int getPayloadSize() {
+        return payloadSize;
+    }
+
+    /**
+     * @return false if write could not be started
+     */
+    boolean write(byte[] data) {
+        byte[] data0 = null;
+        synchronized (this) {
+            int chunks = Math.max(1, (data.length + payloadSize - 1) / payloadSize);
+            for(int i = 0; i < chunks; i++) {
+                byte[] chunk = chunks == 1 ? data : Arrays.copyOfRange(data, i * payloadSize, Math.min((i + 1) * payloadSize, data.length));
+                if(i == 0 && !writePending && buffer.isEmpty() && link.canWrite()) {
+                    writePending = true;
+                    data0 = chunk;
+                } else {
+                    buffer.add(chunk);
+                }
+            }
+            metrics.onQueueDepth(buffer.size());
+        }
+        return data0 == null || start(data0);
+    }
+
+    /**
+     * previous write finished, start next
+     * @return false if write could not be started
+     */
+    boolean onWriteFinished() {
+        metrics.onWriteFinished(clock.nanoTime());
+        return writeNext();
+    }
+
+    /**
+     * continue blocked writes, e.g. after getting Telit write credits
+     * @return false if write could not be started
+     */
+    boolean resume() {
+        synchronized (this) {
+            if(writePending || buffer.isEmpty())
+                return true;
+        }
+        return writeNext();
+    }
+
+    synchronized boolean isWritePending() {
+        return writePending;
+    }
+
+    synchronized int size() {
+        return buffer.size();
+    }
+
+    /**
+     * stop after write error. queued data is kept, e.g. for takeUnsent()
+     */
+    synchronized void reset() {
+        writePending = false;
+    }
+
+    synchronized void clear() {
+        writePending = false;
+        buffer.clear();
+    }
+
+    /**
+     * remove data not yet passed to link, e.g. to resend after reconnect
+     */
+    synchronized ArrayList<byte[]> takeUnsent() {
+        ArrayList<byte[]> unsent = new ArrayList<>(buffer);
+        buffer.clear();
+        return unsent;
+    }
+
+    private boolean writeNext() {
+        final byte[] data;
+        synchronized (this) {
+            if (!buffer.isEmpty() && link.canWrite()) {
+                writePending = true;
+                data = buffer.poll();
+            } else {
+                writePending = false;
+                data = null;
+            }
+            metrics.onQueueDepth(buffer.size());
+        }
+        return data == null || start(data);
+    }
+
+    private boolean start(byte[] data) {
+        metrics.onWriteStart(data.length, clock.nanoTime());
+        return link.startWrite(data);
+    }
+
+}
@@ -0,0 +1,104 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * YOLOv5 output decoding and non-maximum suppression without Android dependencies,
+ * used by YoloHelper and benchmarked in the benchmark module
+ *
+ * output rows: cx, cy, w, h, confidence, class scores...
+ */
+final class YoloDecoder {
+
+    static class Detection {
+        float left, top, right, bottom, score;
+        int classId;
+
+        Detection(float left, float top, float right, float bottom, float score, int classId) {
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+            this.score = score;
+            this.classId = classId;
+        }
+    }
+
+    private YoloDecoder() {
+    }
+
+    static List<Detection> decode(float[][] output, int numClasses, float scoreThreshold) {
+        List<Detection> detections = new ArrayList<>();
+
+        for (float[] row : output) {
+            float confidence = row[4];
+            if (confidence < scoreThreshold) continue;
+
+            float maxClassScore = 0;
+            int classId = -1;
+            for (int c = 0; c < numClasses; c++) {
+                float classScore = row[5 + c];
+                if (classScore > maxClassScore) {
+                    maxClassScore = classScore;
+                    classId = c;
+                }
+            }
+
+            float finalScore = confidence * maxClassScore;
+            if (finalScore < scoreThreshold) continue;
+
+            float cx = row[0];
+            float cy = row[1];
+            float w = row[2];
+            float h = row[3];
+
+            detections.add(new Detection(cx - w / 2, cy - h / 2, cx + w / 2, cy + h / 2, finalScore, classId));
+        }
+
+        return detections;
+    }
+
+    /**
+     * sorts detections by descending score
+     */
+    static List<Detection> nonMaxSuppression(List<Detection> detections, float iouThreshold) {
+        List<Detection> nmsList = new ArrayList<>();
+
+        Collections.sort(detections, (d1, d2) -> Float.compare(d2.score, d1.score));
+
+        boolean[] removed = new boolean[detections.size()];
+
+        for (int i = 0; i < detections.size(); i++) {
+            if (removed[i]) continue;
+            Detection detA = detections.get(i);
+            nmsList.add(detA);
+
+            for (int j = i + 1; j < detections.size(); j++) {
+                if (removed[j]) continue;
+                Detection detB = detections.get(j);
+
+                if (iou(detA, detB) > iouThreshold) {
+                    removed[j] = true;
+                }
+            }
+        }
+
+        return nmsList;
+    }
+
+    static float iou(Detection a, Detection b) {
+        float areaA = (a.right - a.left) * (a.bottom - a.top);
+        float areaB = (b.right - b.left) * (b.bottom - b.top);
+
+        float interLeft = Math.max(a.left, b.left);
+        float interTop = Math.max(a.top, b.top);
+        float interRight = Math.min(a.right, b.right);
+        float interBottom = Math.min(a.bottom, b.bottom);
+
+        float interArea = Math.max(0, interRight - interLeft) * Math.max(0, interBottom - interTop);
+        return interArea / (areaA + areaB - interArea);
+    }
+
+}
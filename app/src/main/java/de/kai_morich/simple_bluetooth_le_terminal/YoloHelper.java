@@ -5,9 +5,12 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.os.Build;
 import android.util.Log;
 
+import androidx.concurrent.futures.CallbackToFutureAdapter;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
 import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.Interpreter;
 import org.tensorflow.lite.support.common.FileUtil;
@@ -17,6 +20,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 public class YoloHelper {
 
@@ -29,12 +33,37 @@ public class YoloHelper {
     private final float IOU_THRESHOLD = 0.5f;
 
     private List<String> lastDetectedClasses = new ArrayList<>();
+    private long loadNanos;         // constructor
+    private long[] warmUpNanos = {};
 
     public List<String> getLastDetectedClasses() {
         return lastDetectedClasses;
     }
 
+    /**
+     * construct and warm up in a background thread, as loading the model and the first
+     * inferences take too long for the main thread
+     *
+     * @return future completed with the ready helper in the loading thread
+     */
+    public static ListenableFuture<YoloHelper> load(Context context, String modelPath, String labelPath, int warmUpRuns) {
+        Context appContext = context.getApplicationContext();
+        return CallbackToFutureAdapter.getFuture(completer -> {
+            new Thread(() -> {
+                try {
+                    YoloHelper helper = new YoloHelper(appContext, modelPath, labelPath);
+                    helper.warmUp(warmUpRuns);
+                    completer.set(helper);
+                } catch (IOException | RuntimeException e) {
+                    completer.setException(e);
+                }
+            }, "YoloHelper").start();
+            return "YoloHelper.load";
+        });
+    }
+
     public YoloHelper(Context context, String modelPath, String labelPath) throws IOException {
+        long start = System.nanoTime();
         // TFLite 모델 로드
         ByteBuffer modelBuffer = FileUtil.loadMappedFile(context, modelPath);
         tflite = new Interpreter(modelBuffer);
@@ -45,6 +74,36 @@ public class YoloHelper {
         // 디버깅용 입력 정보 출력
         int[] inputShape = tflite.getInputTensor(0).shape();
         DataType inputType = tflite.getInputTensor(0).dataType();
+        loadNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * inferences on a zero input, so the first camera frame does not pay for
+     * tensor allocation and delegate initialization
+     */
+    public void warmUp(int runs) {
+        ByteBuffer inputBuffer = ByteBuffer.allocateDirect(INPUT_SIZE * INPUT_SIZE * 3 * 4);
+        inputBuffer.order(ByteOrder.nativeOrder());
+        float[][][] output = new float[1][NUM_BOXES][NUM_CLASSES + 5];
+        warmUpNanos = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            inputBuffer.rewind();
+            tflite.run(inputBuffer, output);
+            warmUpNanos[i] = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * e.g. "load 812 ms, warm-up 1290 ms 402 ms"
+     */
+    public String getStartupStats() {
+        StringBuilder sb = new StringBuilder(String.format(Locale.US, "load %d ms, warm-up", loadNanos / 1_000_000L));
+        for (long nanos : warmUpNanos)
+            sb.append(String.format(Locale.US, " %d ms", nanos / 1_000_000L));
+        if (warmUpNanos.length == 0)
+            sb.append(" none");
+        return sb.toString();
     }
 
     // 메인 감지 함수: 입력 비트맵 → 탐지 결과 비트맵 반환
@@ -54,13 +113,14 @@ public class YoloHelper {
         float[][][] output = new float[1][NUM_BOXES][NUM_CLASSES + 5];
         tflite.run(inputBuffer, output);
 
-        List<Detection> detections = decodeOutput(output[0]);
-        List<Detection> nmsDetections = nonMaxSuppression(detections);
+        lastDetectedClasses.clear();
+        List<YoloDecoder.Detection> detections = YoloDecoder.decode(output[0], NUM_CLASSES, SCORE_THRESHOLD);
+        List<YoloDecoder.Detection> nmsDetections = YoloDecoder.nonMaxSuppression(detections, IOU_THRESHOLD);
 
         // 감지 결과 로그 찍기
         if (nmsDetections.isEmpty()) {
         } else {
-            for (Detection det : nmsDetections) {
+            for (YoloDecoder.Detection det : nmsDetections) {
                 String label = labels.get(det.classId);
                 Log.d("YoloHelper", "Detected: " + label + " with confidence: " + det.score);
                 lastDetectedClasses.add(label);
@@ -96,91 +156,8 @@ public class YoloHelper {
         return buffer;
     }
 
-    // 모델 출력 배열을 객체 정보 리스트로 변환
-    private List<Detection> decodeOutput(float[][] output) {
-        List<Detection> detections = new ArrayList<>();
-
-        lastDetectedClasses.clear();
-        for (int i = 0; i < NUM_BOXES; i++) {
-            float confidence = output[i][4];
-            if (confidence < SCORE_THRESHOLD) continue;
-
-            // 클래스별 점수 최대값과 인덱스 찾기
-            float maxClassScore = 0;
-            int classId = -1;
-            for (int c = 0; c < NUM_CLASSES; c++) {
-                float classScore = output[i][5 + c];
-                if (classScore > maxClassScore) {
-                    maxClassScore = classScore;
-                    classId = c;
-                }
-            }
-
-            float finalScore = confidence * maxClassScore;
-            if (finalScore < SCORE_THRESHOLD) continue;
-
-            // 박스 좌표 (YOLOv5는 cx, cy, w, h 형식)
-            float cx = output[i][0];
-            float cy = output[i][1];
-            float w = output[i][2];
-            float h = output[i][3];
-
-            float left = cx - w / 2;
-            float top = cy - h / 2;
-            float right = cx + w / 2;
-            float bottom = cy + h / 2;
-
-            detections.add(new Detection(left, top, right, bottom, finalScore, classId));
-        }
-
-        return detections;
-    }
-
-    // Non-Maximum Suppression (NMS) - 박스 중복 제거
-    private List<Detection> nonMaxSuppression(List<Detection> detections) {
-        List<Detection> nmsList = new ArrayList<>();
-
-        // 점수 내림차순 정렬
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-            detections.sort((d1, d2) -> Float.compare(d2.score, d1.score));
-        }
-
-        boolean[] removed = new boolean[detections.size()];
-
-        for (int i = 0; i < detections.size(); i++) {
-            if (removed[i]) continue;
-            Detection detA = detections.get(i);
-            nmsList.add(detA);
-
-            for (int j = i + 1; j < detections.size(); j++) {
-                if (removed[j]) continue;
-                Detection detB = detections.get(j);
-
-                if (iou(detA, detB) > IOU_THRESHOLD) {
-                    removed[j] = true;
-                }
-            }
-        }
-
-        return nmsList;
-    }
-
-    // IoU 계산
-    private float iou(Detection a, Detection b) {
-        float areaA = (a.right - a.left) * (a.bottom - a.top);
-        float areaB = (b.right - b.left) * (b.bottom - b.top);
-
-        float interLeft = Math.max(a.left, b.left);
-        float interTop = Math.max(a.top, b.top);
-        float interRight = Math.min(a.right, b.right);
-        float interBottom = Math.min(a.bottom, b.bottom);
-
-        float interArea = Math.max(0, interRight - interLeft) * Math.max(0, interBottom - interTop);
-        return interArea / (areaA + areaB - interArea);
-    }
-
     // 탐지 결과를 원본 Bitmap에 그리기
-    private Bitmap drawDetections(Bitmap bitmap, List<Detection> detections) {
+    private Bitmap drawDetections(Bitmap bitmap, List<YoloDecoder.Detection> detections) {
         Bitmap mutableBitmap = bitmap.copy(Bitmap.Config.ARGB_8888, true);
         Canvas canvas = new Canvas(mutableBitmap);
 
@@ -194,7 +171,7 @@ public class YoloHelper {
         textPaint.setTextSize(40);
         textPaint.setStyle(Paint.Style.FILL);
 
-        for (Detection det : detections) {
+        for (YoloDecoder.Detection det : detections) {
             // 좌표를 원본 크기에 맞게 조정 (모델 출력은 0~640 비율)
             float scaleX = (float) bitmap.getWidth() / INPUT_SIZE;
             float scaleY = (float) bitmap.getHeight() / INPUT_SIZE;
@@ -213,19 +190,4 @@ public class YoloHelper {
         return mutableBitmap;
     }
 
-    // 탐지 결과 클래스
-    private static class Detection {
-        float left, top, right, bottom, score;
-        int classId;
-
-        Detection(float left, float top, float right, float bottom, float score, int classId) {
-            this.left = left;
-            this.top = top;
-            this.right = right;
-            this.bottom = bottom;
-            this.score = score;
-            this.classId = classId;
-        }
-    }
-
 }
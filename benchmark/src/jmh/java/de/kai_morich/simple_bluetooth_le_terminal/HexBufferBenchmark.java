@@ -0,0 +1,115 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * hex send field formatting as done by TextUtil.HexWatcher, when pasting large hex data
+ * and typing into it, compared with the previous full reformatting per change
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HexBufferBenchmark {
+
+    @Param({"1024", "65536"})
+    int size;
+
+    private String pasted;          // unformatted lower case hex, as copied from elsewhere
+    private String formatted;       // field content after paste
+    private HexBuffer field;        // field content after paste
+    private StringBuilder text;
+    private final StringBuilder sb = new StringBuilder();
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        StringBuilder hexBuilder = new StringBuilder(3 * size);
+        TextCodec.toHexString(hexBuilder, data, 0, data.length);
+        formatted = hexBuilder.toString();
+        pasted = formatted.replace(" ", "").toLowerCase();
+        field = new HexBuffer();
+        field.set(formatted);
+        text = new StringBuilder(formatted);
+    }
+
+    /**
+     * previous HexWatcher.afterTextChanged, filtering and reformatting the whole text
+     */
+    @Benchmark
+    public String fullReformatPaste() {
+        return fullReformat(pasted);
+    }
+
+    @Benchmark
+    public int incrementalPaste() {
+        HexBuffer hex = new HexBuffer();
+        hex.replace(0, 0, pasted, 0, pasted.length());
+        sb.setLength(0);
+        hex.appendFormatted(sb, hex.getChangeStart(), hex.length() - hex.getChangeSuffix());
+        return sb.length();
+    }
+
+    /**
+     * append one digit to the pasted data, previous HexWatcher reformatted the whole text
+     */
+    @Benchmark
+    public String fullReformatType() {
+        text.append('a');
+        String s = fullReformat(text);
+        text.setLength(text.length() - 1);
+        return s;
+    }
+
+    @Benchmark
+    public int incrementalType() {
+        int start = field.length();
+        int cursor = field.replace(start, 0, "a", 0, 1);
+        sb.setLength(0);
+        field.appendFormatted(sb, field.getChangeStart(), field.length() - field.getChangeSuffix());
+        field.replace(field.position(cursor - 1), 1, "", 0, 0);
+        return sb.length();
+    }
+
+    /**
+     * previous TerminalFragment.send: parse, format, parse again
+     */
+    @Benchmark
+    public byte[] sendParse() {
+        StringBuilder sb = new StringBuilder();
+        byte[] data = TextCodec.fromHexString(formatted);
+        TextCodec.toHexString(sb, data, 0, data.length);
+        return TextCodec.fromHexString(sb);
+    }
+
+    @Benchmark
+    public byte[] sendBytes() {
+        return field.getBytes();
+    }
+
+    private String fullReformat(CharSequence s) {
+        sb.setLength(0);
+        int i;
+        for(i=0; i<s.length(); i++) {
+            char c = s.charAt(i);
+            if(c >= '0' && c <= '9') sb.append(c);
+            if(c >= 'A' && c <= 'F') sb.append(c);
+            if(c >= 'a' && c <= 'f') sb.append((char)(c+'A'-'a'));
+        }
+        for(i=2; i<sb.length(); i+=3)
+            sb.insert(i,' ');
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,73 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * parsing numeric lines into SampleBuffer and decimating for one PlotView frame,
+ * decimation time should be about constant for any history length
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlotBenchmark {
+
+    static final int SERIES = 4;
+    static final int WIDTH = 1080;
+
+    @Param({"1000", "10000", "65536"})
+    int window;
+
+    private SampleBuffer buffer;
+    private NumberParser parser;
+    private byte[] lines;
+    private final float[] xs = new float[2 * WIDTH];
+    private final float[] ys = new float[2 * WIDTH];
+
+    @Setup
+    public void setup() {
+        buffer = new SampleBuffer();
+        parser = new NumberParser(buffer::add);
+        Random random = new Random(1);
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < 100; i++)
+            sb.append(String.format(Locale.US, "t=%d ax=%.3f ay=%.3f az=%.3f\n",
+                    i, random.nextGaussian(), random.nextGaussian(), 9.81 + random.nextGaussian()));
+        lines = sb.toString().getBytes();
+        while(buffer.getCount() < SampleBuffer.CAPACITY)
+            parser.parse(lines);
+    }
+
+    /**
+     * 100 lines with 4 values, as received in about 0.2 s at 500 samples/s
+     */
+    @Benchmark
+    public long parse() {
+        parser.parse(lines);
+        return buffer.getCount();
+    }
+
+    /**
+     * all series, as in PlotView.onDraw
+     */
+    @Benchmark
+    public float decimate() {
+        float sum = 0;
+        for(int s = 0; s < SERIES; s++) {
+            int n = buffer.decimate(s, window, WIDTH, xs, ys);
+            sum += ys[n - 1];
+        }
+        return sum;
+    }
+
+}
@@ -0,0 +1,40 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * read coalescing of SerialService.onSerialRead(), with the GATT callback thread adding
+ * chunks while the main thread takes them
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReadCoalescerBenchmark {
+
+    private final ReadCoalescer coalescer = new ReadCoalescer();
+    private final byte[] data = new byte[244];
+
+    @Benchmark
+    @Group("coalesce")
+    @GroupThreads(1)
+    public boolean add() {
+        return coalescer.add(data);
+    }
+
+    @Benchmark
+    @Group("coalesce")
+    @GroupThreads(1)
+    public int take() {
+        return coalescer.take().size();
+    }
+
+}
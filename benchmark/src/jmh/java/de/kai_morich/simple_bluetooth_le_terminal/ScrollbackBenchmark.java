@@ -0,0 +1,143 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * search in Scrollback with synthetic device logs, compared with scanning all data
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ScrollbackBenchmark {
+
+    static final String NEEDLE = "FAULT code=0x7e21 stage 42";
+
+    @Param({"16", "128"})
+    int megabytes;
+
+    private File dir;
+    private Scrollback scrollback;
+    private Scrollback appendScrollback;
+    private byte[] chunk;
+    private byte[] needle;
+    private byte[] missing;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("scrollback").toFile();
+        scrollback = new Scrollback(new File(dir, "search"), Scrollback.MAX_BYTES);
+        appendScrollback = new Scrollback(new File(dir, "append"), 0);
+        Random random = new Random(1);
+        long size = megabytes * 1024L * 1024;
+        long needleAt = size / 10;
+        boolean needleAdded = false;
+        while(scrollback.getSize() < size) {
+            byte[] data = logLines(random, 20);
+            scrollback.append(data);
+            if(!needleAdded && scrollback.getSize() > needleAt) {
+                scrollback.append((NEEDLE + "\n").getBytes());
+                needleAdded = true;
+            }
+        }
+        chunk = logLines(random, 100);
+        needle = NEEDLE.getBytes();
+        missing = "watchdog reset".getBytes();
+    }
+
+    @TearDown
+    public void tearDown() {
+        scrollback.close();
+        appendScrollback.close();
+        File[] files = dir.listFiles();
+        if(files != null)
+            for(File file : files)
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+        //noinspection ResultOfMethodCallIgnored
+        dir.delete();
+    }
+
+    /**
+     * newest to oldest, as when searching from the end of the terminal
+     */
+    @Benchmark
+    public long findLastRare() throws IOException {
+        return scrollback.findLast(needle, Long.MAX_VALUE, true);
+    }
+
+    @Benchmark
+    public long findLastMissing() throws IOException {
+        return scrollback.findLast(missing, Long.MAX_VALUE, true);
+    }
+
+    @Benchmark
+    public long findLastCommon() throws IOException {
+        return scrollback.findLast("ERROR".getBytes(), Long.MAX_VALUE, false);
+    }
+
+    /**
+     * without index, reading and scanning all segments
+     */
+    @Benchmark
+    public long scanMissing() throws IOException {
+        for(long offset = scrollback.getStart(); offset < scrollback.getSize(); offset += Scrollback.SEGMENT_SIZE) {
+            byte[] data = scrollback.read(offset, Scrollback.SEGMENT_SIZE + missing.length - 1);
+            for(int pos = 0; pos + missing.length <= data.length && pos < Scrollback.SEGMENT_SIZE; pos++) {
+                int i = 0;
+                while(i < missing.length && data[pos + i] == missing[i])
+                    i++;
+                if(i == missing.length)
+                    return offset + pos;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * about 10 kB of log lines, including indexing and writing full segments
+     */
+    @Benchmark
+    public long append() throws IOException {
+        appendScrollback.append(chunk);
+        return appendScrollback.getSize();
+    }
+
+    // arguments: small int, int, positive int, float
+    private static final String[] MESSAGES = {
+            "sensor[%1$d]: temperature=%4$.1f humidity=%2$d",
+            "adc ch%1$d raw=%2$d filtered=%4$.3f",
+            "tx seq=%2$d len=%1$d crc=%3$08x",
+            "rx seq=%2$d rssi=-%1$d dBm",
+            "state %1$d -> %2$d after %3$d ms",
+            "ERROR i2c timeout addr=0x%1$02x retry %2$d",
+            "battery %2$d mV, %1$d%%",
+    };
+
+    static byte[] logLines(Random random, int lines) {
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < lines; i++) {
+            int message = random.nextInt(MESSAGES.length);
+            sb.append(String.format(Locale.US, "%02d:%02d:%02d.%03d %c ", random.nextInt(24), random.nextInt(60),
+                    random.nextInt(60), random.nextInt(1000), "DIWE".charAt(random.nextInt(4))));
+            sb.append(String.format(Locale.US, MESSAGES[message], random.nextInt(256), random.nextInt(100000),
+                    random.nextInt() & 0x7fffffff, random.nextFloat() * 100)).append('\n');
+        }
+        return sb.toString().getBytes();
+    }
+
+}
@@ -0,0 +1,94 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * capture throughput: record 1 MB in chunks of GATT payload size until all is written,
+ * and read it back
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SessionCaptureBenchmark {
+
+    static final int BYTES = 1024 * 1024;
+
+    @Param({"20", "244"})
+    int chunkSize;
+
+    private File dir;
+    private byte[][] chunks;
+    private File readFile;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("capture").toFile();
+        Random random = new Random(1);
+        chunks = new byte[BYTES / chunkSize][];
+        for(int i = 0; i < chunks.length; i++) {
+            chunks[i] = new byte[chunkSize];
+            random.nextBytes(chunks[i]);
+        }
+        SessionCapture capture = capture("read");
+        readFile = capture.getFiles().get(0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if(files != null)
+            for(File file : files)
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+        //noinspection ResultOfMethodCallIgnored
+        dir.delete();
+    }
+
+    /**
+     * record() in caller thread, file writes in capture thread, until close() returns
+     */
+    @Benchmark
+    public long capture() throws IOException {
+        SessionCapture capture = capture("write");
+        for(File file : capture.getFiles())
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        return capture.getRecords();
+    }
+
+    @Benchmark
+    public long read() throws IOException {
+        long bytes = 0;
+        try (SessionCapture.Reader reader = new SessionCapture.Reader(readFile)) {
+            SessionCapture.Record record;
+            while((record = reader.next()) != null)
+                bytes += record.data.length;
+        }
+        return bytes;
+    }
+
+    private SessionCapture capture(String name) throws IOException {
+        SessionCapture capture = new SessionCapture(dir, name);
+        for(int i = 0; i < chunks.length; i++)
+            capture.record(i % 2 == 0 ? SessionCapture.DIRECTION_IN : SessionCapture.DIRECTION_OUT, chunks[i]);
+        capture.close();
+        if(capture.getDroppedRecords() != 0)
+            throw new IllegalStateException("dropped records");
+        return capture;
+    }
+
+}
@@ -0,0 +1,85 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * hex and caret encoding as done by TerminalFragment for each received chunk
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TextCodecBenchmark {
+
+    @Param({"20", "244", "4096"})
+    int size;
+
+    private byte[] data;
+    private String hex;
+    private String text;            // printable with '\n', common case
+    private String controlText;     // with control characters to be shown as caret
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        data = new byte[size];
+        random.nextBytes(data);
+        StringBuilder hexBuilder = new StringBuilder(3 * size);
+        TextCodec.toHexString(hexBuilder, data, 0, data.length);
+        hex = hexBuilder.toString();
+        StringBuilder sb = new StringBuilder(size), sb2 = new StringBuilder(size);
+        for(int i = 0; i < size; i++) {
+            char c = i % 40 == 39 ? '\n' : (char)(' ' + random.nextInt(95));
+            sb.append(c);
+            sb2.append(i % 16 == 15 ? (char) random.nextInt(32) : c);
+        }
+        text = sb.toString();
+        controlText = sb2.toString();
+    }
+
+    @Benchmark
+    public String toHexString() {
+        StringBuilder sb = new StringBuilder(3 * size);
+        TextCodec.toHexString(sb, data, 0, data.length);
+        return sb.toString();
+    }
+
+    @Benchmark
+    public byte[] fromHexString() {
+        return TextCodec.fromHexString(hex);
+    }
+
+    @Benchmark
+    public int findControl() {
+        return TextCodec.findControl(text, true, 0, text.length());
+    }
+
+    /**
+     * same loop as TextUtil.toCaretString, with StringBuilder instead of SpannableStringBuilder
+     */
+    @Benchmark
+    public StringBuilder toCaretString() {
+        StringBuilder sb = new StringBuilder(controlText.length() + 16);
+        int start = 0;
+        int pos = TextCodec.findControl(controlText, true, 0, controlText.length());
+        while(pos >= 0) {
+            sb.append(controlText, start, pos);
+            sb.append('^');
+            sb.append(TextCodec.toCaret(controlText.charAt(pos)));
+            start = pos + 1;
+            pos = TextCodec.findControl(controlText, true, start, controlText.length());
+        }
+        sb.append(controlText, start, controlText.length());
+        return sb;
+    }
+
+}
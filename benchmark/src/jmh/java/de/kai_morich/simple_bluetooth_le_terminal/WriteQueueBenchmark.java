@@ -0,0 +1,61 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * chunking and queueing of SerialSocket.write(), with a link that accepts every write,
+ * so only the WriteQueue and LinkMetrics overhead is measured
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WriteQueueBenchmark {
+
+    @Param({"20", "244"})
+    int payloadSize;
+
+    @Param({"20", "1024", "16384"})
+    int writeSize;
+
+    private byte[] data;
+    private WriteQueue writeQueue;
+    private long written;
+
+    @Setup
+    public void setup() {
+        data = new byte[writeSize];
+        writeQueue = new WriteQueue(new WriteQueue.Link() {
+            @Override
+            public boolean canWrite() {
+                return true;
+            }
+
+            @Override
+            public boolean startWrite(byte[] data) {
+                written += data.length;
+                return true;
+            }
+        }, new LinkMetrics(), WriteQueue.SYSTEM_CLOCK, payloadSize);
+    }
+
+    /**
+     * write and complete all chunks, like onCharacteristicWrite() callbacks would do
+     */
+    @Benchmark
+    public long writeAndDrain() {
+        writeQueue.write(data);
+        while(writeQueue.isWritePending())
+            writeQueue.onWriteFinished();
+        return written;
+    }
+
+}
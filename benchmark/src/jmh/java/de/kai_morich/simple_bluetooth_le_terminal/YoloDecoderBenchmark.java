@@ -0,0 +1,98 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * YoloHelper output decoding and NMS
+ *
+ * tensor is a recorded model output, as raw little endian float32 rows of
+ * cx, cy, w, h, confidence, class scores, given with -Ptensor=/path/to/file.
+ * Without file, a synthetic output with clusters of overlapping boxes is used.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class YoloDecoderBenchmark {
+
+    static final int NUM_BOXES = 25200;
+    static final int NUM_CLASSES = 6;
+    static final float SCORE_THRESHOLD = 0.3f;
+    static final float IOU_THRESHOLD = 0.5f;
+
+    @Param({""})
+    String tensor;
+
+    private float[][] output;
+    private List<YoloDecoder.Detection> detections;
+
+    @Setup
+    public void setup() throws IOException {
+        output = tensor.isEmpty() ? synthetic() : load(tensor);
+        detections = YoloDecoder.decode(output, NUM_CLASSES, SCORE_THRESHOLD);
+    }
+
+    @Benchmark
+    public List<YoloDecoder.Detection> decode() {
+        return YoloDecoder.decode(output, NUM_CLASSES, SCORE_THRESHOLD);
+    }
+
+    /**
+     * includes copy of detections, as nonMaxSuppression() sorts in place
+     */
+    @Benchmark
+    public List<YoloDecoder.Detection> nonMaxSuppression() {
+        return YoloDecoder.nonMaxSuppression(new ArrayList<>(detections), IOU_THRESHOLD);
+    }
+
+    @Benchmark
+    public List<YoloDecoder.Detection> decodeAndNonMaxSuppression() {
+        return YoloDecoder.nonMaxSuppression(YoloDecoder.decode(output, NUM_CLASSES, SCORE_THRESHOLD), IOU_THRESHOLD);
+    }
+
+    private static float[][] load(String file) throws IOException {
+        FloatBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(Paths.get(file))).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        float[][] output = new float[buffer.remaining() / (NUM_CLASSES + 5)][NUM_CLASSES + 5];
+        for(float[] row : output)
+            buffer.get(row);
+        return output;
+    }
+
+    /**
+     * ~2% candidates above threshold, in 20 objects with overlapping boxes
+     */
+    private static float[][] synthetic() {
+        Random random = new Random(1);
+        float[][] output = new float[NUM_BOXES][NUM_CLASSES + 5];
+        float[][] objects = new float[20][];
+        for(int i = 0; i < objects.length; i++)
+            objects[i] = new float[] {random.nextFloat() * 640, random.nextFloat() * 640, 20 + random.nextFloat() * 200, 20 + random.nextFloat() * 200};
+        for(float[] row : output) {
+            float[] object = objects[random.nextInt(objects.length)];
+            for(int i = 0; i < 4; i++)
+                row[i] = object[i] * (0.9f + random.nextFloat() * 0.2f);
+            row[4] = random.nextFloat() < 0.02f ? 0.3f + random.nextFloat() * 0.7f : random.nextFloat() * 0.3f;
+            for(int c = 0; c < NUM_CLASSES; c++)
+                row[5 + c] = random.nextFloat();
+        }
+        return output;
+    }
+
+}
@@ -0,0 +1,237 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import static de.kai_morich.simple_bluetooth_le_terminal.Checks.check;
+import static de.kai_morich.simple_bluetooth_le_terminal.Checks.checkEquals;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * replay an event trace through AlertEngine with virtual time and print what is spoken
+ *
+ *   ./gradlew :benchmark:simulateAlerts [--args=<trace files>]
+ *   ./gradlew :benchmark:replayAlertTraces
+ *
+ * trace files have one AlertEngine.Event per line, e.g. "8033.000 vehicle 1", lines starting
+ * with # are ignored. Times are relative to the first event. Speech events in the trace are
+ * ignored, as speech is simulated: it starts SPEECH_DELAY after speak() and takes CHAR_MILLIS
+ * per character. If <name>.expected exists next to <name>.trace, the outputs are compared with
+ * its lines like CROSSING. replayAlertTraces replays all traces in benchmark/traces.
+ *
+ * without trace file a crossing scenario is generated and compared with speaking on every
+ * camera frame as before. At 30 frames/s, traffic light polled every 100 ms while on the ESP32
+ * hotspot: 0-5 s red, then green. 8-14 s a vehicle is detected in 70% of the frames, faster than
+ * FAST_SPEED until 11 s, then stopped. At 24 s the hotspot is left.
+ *
+ * self-checking: the crossing scenario has to give the CROSSING outputs. In every replay a
+ * traffic light alert has to match the traffic light input within INPUT_NANOS, e.g. no red
+ * alert while green, and an alert is not spoken again within its minimum interval, or within
+ * its repeat interval if it stayed the current alert.
+ */
+public class AlertSimulation {
+
+    static final long MILLIS = 1_000_000L;
+    static final long END = 30_000 * MILLIS;
+    static final long FRAME = 33 * MILLIS;
+    static final long POLL = 100 * MILLIS;
+    static final long SPEECH_DELAY = 80 * MILLIS;
+    static final long CHAR_MILLIS = 70;
+
+    // millis output of the crossing scenario
+    static final String[] CROSSING = {
+            "0 speak RED-1",
+            "5300 vibrate 500", "5300 speak GREEN-2",
+            "8549 vibrate 500", "8549 speak VEHICLE_APPROACHING-3",
+            "11322 speak VEHICLE_STOPPED-4",
+            "15025 vibrate 500", "15025 speak GREEN-5",
+            "23025 vibrate 500", "23025 speak GREEN-6",
+    };
+
+    private static final long NONE = Long.MIN_VALUE / 2;
+
+    private long now;
+    private String pendingId;
+    private long speechStart = Long.MAX_VALUE, speechEnd = Long.MAX_VALUE;
+    private String speechId;
+    private AlertEngine engine;
+
+    private final List<String> outputs = new ArrayList<>(); // millis output, as in CROSSING
+    private final long[] lastSpoken = new long[AlertEngine.Alert.values().length];
+    private AlertEngine.Alert current;                      // of engine
+    private long currentSince;
+    private long lastTraffic = NONE;                        // traffic light input
+    private long redUntil = NONE, greenUntil = NONE;        // Long.MAX_VALUE while red / green
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0) {
+            for (String file : args) {
+                System.out.println(file);
+                AlertSimulation simulation = new AlertSimulation();
+                System.out.println(simulation.replay(read(file), Long.MIN_VALUE));
+                File expected = new File(file.replaceFirst("\\.trace$", "") + ".expected");
+                if (expected.exists())
+                    simulation.checkOutputs(readLines(expected));
+            }
+            return;
+        }
+        List<AlertEngine.Event> trace = new ArrayList<>();
+        long naive = crossing(trace);
+        AlertSimulation simulation = new AlertSimulation();
+        AlertEngine.Stats stats = simulation.replay(trace, END);
+        System.out.println();
+        System.out.println("speak calls per frame before: " + naive);
+        System.out.println(stats);
+        simulation.checkOutputs(Arrays.asList(CROSSING));
+    }
+
+    void checkOutputs(List<String> expected) {
+        for (int i = 0; i < Math.min(expected.size(), outputs.size()); i++)
+            check(expected.get(i).equals(outputs.get(i)), "output " + i + ": expected '" + expected.get(i) + "', got '" + outputs.get(i) + "'");
+        checkEquals(expected.size(), outputs.size(), "outputs");
+    }
+
+    static List<AlertEngine.Event> read(String file) throws IOException {
+        List<AlertEngine.Event> trace = new ArrayList<>();
+        for (String line : readLines(new File(file)))
+            trace.add(AlertEngine.Event.parse(line));
+        trace.sort((a, b) -> Long.compare(a.nanos, b.nanos)); // recorded from several threads, stable per input
+        return trace;
+    }
+
+    /**
+     * @return lines without empty lines and comments starting with #
+     */
+    static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty() && !line.startsWith("#"))
+                    lines.add(line.trim());
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * @return speak calls per frame before AlertEngine
+     */
+    static long crossing(List<AlertEngine.Event> trace) {
+        Random random = new Random(1);
+        long naive = 0;
+        for (long t = 0; t < END; t += MILLIS) {
+            boolean onHotspot = t < 24_000 * MILLIS;
+            if (onHotspot && t % POLL == 0)
+                trace.add(new AlertEngine.Event(AlertEngine.Input.TRAFFIC_LIGHT, t, t >= 5_000 * MILLIS ? 1 : 0, null));
+            if (t % FRAME == 0) {
+                boolean vehicle = t >= 8_000 * MILLIS && t < 14_000 * MILLIS && random.nextDouble() < 0.7;
+                trace.add(new AlertEngine.Event(AlertEngine.Input.VEHICLE, t, vehicle ? 1 : 0, null));
+                trace.add(new AlertEngine.Event(AlertEngine.Input.SPEED, t, t < 11_000 * MILLIS ? 20 : 0, null));
+                if (vehicle || onHotspot)
+                    naive++;
+            }
+        }
+        return naive;
+    }
+
+    /**
+     * @param end virtual end time, Long.MIN_VALUE for 5 s after last event
+     */
+    AlertEngine.Stats replay(List<AlertEngine.Event> trace, long end) {
+        engine = new AlertEngine(new AlertEngine.Output() {
+            @Override
+            public void speak(String text, String utteranceId) {
+                checkSpeak(AlertEngine.Alert.valueOf(utteranceId.substring(0, utteranceId.lastIndexOf('-'))));
+                outputs.add(String.format(Locale.US, "%d speak %s", now / MILLIS, utteranceId));
+                if (speechId != null)
+                    engine.onSpeechDone(speechId); // flushed
+                speechId = null;
+                pendingId = utteranceId;
+                speechStart = now + SPEECH_DELAY;
+                speechEnd = speechStart + text.length() * CHAR_MILLIS * MILLIS;
+                System.out.printf(Locale.US, "%6.2f s  speak    %s%n", now / 1e9, utteranceId);
+            }
+
+            @Override
+            public void vibrate(long millis) {
+                outputs.add(String.format(Locale.US, "%d vibrate %d", now / MILLIS, millis));
+                System.out.printf(Locale.US, "%6.2f s  vibrate  %d ms%n", now / 1e9, millis);
+            }
+        }, () -> now);
+        Arrays.fill(lastSpoken, NONE);
+
+        long start = trace.isEmpty() ? 0 : trace.get(0).nanos;
+        if (end == Long.MIN_VALUE)
+            end = trace.isEmpty() ? 0 : trace.get(trace.size() - 1).nanos - start + 5_000 * MILLIS;
+        int next = 0;
+        for (now = 0; now < end; now += MILLIS) {
+            if (now >= speechStart) {
+                speechId = pendingId;
+                speechStart = Long.MAX_VALUE;
+                engine.onSpeechStarted(speechId);
+            }
+            if (now >= speechEnd) {
+                engine.onSpeechDone(speechId);
+                speechId = null;
+                speechEnd = Long.MAX_VALUE;
+            }
+            for (; next < trace.size() && trace.get(next).nanos - start <= now; next++) {
+                AlertEngine.Event event = trace.get(next);
+                if (event.input == AlertEngine.Input.TRAFFIC_LIGHT)
+                    trafficLight(event.value != 0, event.nanos - start);
+                if (event.input != AlertEngine.Input.SPEECH_STARTED && event.input != AlertEngine.Input.SPEECH_DONE)
+                    engine.post(new AlertEngine.Event(event.input, event.nanos - start, event.value, null));
+            }
+            engine.update(); // every ms instead of waiting for deadline or input
+            updateCurrent();
+        }
+        return engine.stats();
+    }
+
+    /**
+     * traffic light input, to check alerts against
+     */
+    private void trafficLight(boolean isGreen, long nanos) {
+        if (nanos - lastTraffic >= AlertEngine.TRAFFIC_MAX_AGE)
+            redUntil = greenUntil = NONE; // unknown in between
+        lastTraffic = nanos;
+        if (isGreen) {
+            if (redUntil == Long.MAX_VALUE)
+                redUntil = nanos;
+            greenUntil = Long.MAX_VALUE;
+        } else {
+            if (greenUntil == Long.MAX_VALUE)
+                greenUntil = nanos;
+            redUntil = Long.MAX_VALUE;
+        }
+    }
+
+    private void updateCurrent() {
+        AlertEngine.Alert alert = engine.getCurrent();
+        if (alert != current) {
+            current = alert;
+            currentSince = now;
+        }
+    }
+
+    private void checkSpeak(AlertEngine.Alert alert) {
+        updateCurrent();
+        long last = lastSpoken[alert.ordinal()];
+        check(now - last >= alert.minIntervalNanos, alert + " again after " + (now - last) / MILLIS + " ms");
+        if (currentSince <= last)
+            check(now - last >= alert.repeatNanos, alert + " repeated after " + (now - last) / MILLIS + " ms");
+        if (alert == AlertEngine.Alert.RED)
+            check(redUntil >= now - AlertEngine.INPUT_NANOS, "red alert while green at " + now / MILLIS + " ms");
+        if (alert == AlertEngine.Alert.GREEN)
+            check(greenUntil >= now - AlertEngine.INPUT_NANOS, "green alert while red at " + now / MILLIS + " ms");
+        lastSpoken[alert.ordinal()] = now;
+    }
+
+}
@@ -0,0 +1,349 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import static de.kai_morich.simple_bluetooth_le_terminal.Checks.check;
+import static de.kai_morich.simple_bluetooth_le_terminal.Checks.checkEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * block transfer between BlockSender and BlockReceiver over a simulated lossy serial link,
+ * to compare goodput (file bytes per second) with raw throughput (frame bytes per second)
+ *
+ * model:
+ *   - each direction transfers rate bytes/s with fixed latency
+ *   - data is sent in chunks of chunkSize bytes, like BLE packets. Each chunk is lost with
+ *     lossRate, e.g. on device buffer overflow, or one byte is corrupted with corruptRate
+ *   - with interruptAt, the connection is lost when this offset is acknowledged and
+ *     a new BlockSender resumes the transfer
+ *
+ * time is virtual and loss is taken from a seeded Random, so results are deterministic.
+ * For that, blocks are read from memory in the simulation thread instead of BlockReader,
+ * which is checked separately in real time with checkReader().
+ */
+class BlockTransferSimulation {
+
+    static class Config {
+        int size = 100000;
+        int blockSize = BlockSender.BLOCK_SIZE;
+        int window = BlockSender.WINDOW;
+        int rate = 20000;               // bytes/s per direction
+        int latencyMicros = 15000;
+        int chunkSize = 20;
+        double lossRate;                // per chunk
+        double corruptRate;             // per chunk
+        long interruptAt = -1;          // offset
+        long seed = 1;
+        long timeoutMicros = 600 * 1000000L;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d bytes, block %d, window %d, %d B/s, latency %.1f ms, loss %.1f%%, corrupt %.1f%%%s",
+                    size, blockSize, window, rate, latencyMicros / 1000.0, lossRate * 100, corruptRate * 100,
+                    interruptAt >= 0 ? ", interrupt at " + interruptAt : "");
+        }
+    }
+
+    static class Result {
+        long micros;
+        long bytes;             // delivered to receiver
+        long rawBytesOut;       // frames incl. retransmits
+        long rawBytesIn;        // ACKs
+        long retransmits;
+        long crcErrors;         // both sides
+        long resumedAt = -1;
+        boolean verified;       // received data equals sent data
+        Exception error;
+
+        double goodput() { return bytes * 1e6 / Math.max(micros, 1); }
+        double rawThroughput() { return rawBytesOut * 1e6 / Math.max(micros, 1); }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%.3f s, goodput %.1f kB/s, raw %.1f kB/s (%.0f%%), ack %.1f kB/s, %d retransmits, %d crc errors%s, %s",
+                    micros / 1e6, goodput() / 1000, rawThroughput() / 1000, 100 * goodput() / Math.max(rawThroughput(), 1),
+                    rawBytesIn * 1e3 / Math.max(micros, 1), retransmits, crcErrors,
+                    resumedAt >= 0 ? ", resumed at " + resumedAt : "",
+                    error != null ? "failed: " + error.getMessage() : verified ? "verified" : "corrupt");
+        }
+    }
+
+    private static class Event implements Comparable<Event> {
+        final long time;
+        final long sequence;
+        final Runnable runnable;
+
+        Event(long time, long sequence, Runnable runnable) {
+            this.time = time;
+            this.sequence = sequence;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            return time != other.time ? Long.compare(time, other.time) : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final Config config;
+    private final Random random;
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+    private final BlockFrame.Decoder decoder = new BlockFrame.Decoder();
+    private final ArrayList<BlockFrame> frames = new ArrayList<>();
+    private final BlockReceiver receiver;
+    private final GattScheduler.Timer timer;
+    private final Result result = new Result();
+
+    private long now; // ns
+    private long sequence;
+    private long busyOut, busyIn; // ns, pipe busy until
+    private int connection;       // in flight data of previous connection is lost
+    private BlockSender sender;
+    private boolean finished, interrupted, interrupting;
+
+    BlockTransferSimulation(Config config) {
+        this.config = config;
+        random = new Random(config.seed);
+        receiver = new BlockReceiver(data -> transfer(data, false), new BlockReceiver.Sink() {
+            @Override
+            public void onData(byte[] data) {
+                received.write(data, 0, data.length);
+            }
+
+            @Override
+            public void onFinished() {
+            }
+        });
+        timer = new GattScheduler.Timer() {
+            @Override
+            public void schedule(Runnable runnable, long delayMillis) {
+                events.add(new Event(now + delayMillis * 1000000, sequence++, runnable));
+            }
+
+            @Override
+            public void cancel(Runnable runnable) {
+                for(Iterator<Event> it = events.iterator(); it.hasNext(); )
+                    if(it.next().runnable == runnable)
+                        it.remove();
+            }
+        };
+    }
+
+    Result run() {
+        byte[] data = new byte[config.size];
+        random.nextBytes(data);
+        start(data);
+        long timeout = config.timeoutMicros * 1000;
+        while(!finished && !events.isEmpty() && now < timeout) {
+            Event event = events.poll();
+            now = event.time;
+            event.runnable.run();
+        }
+        if(!finished)
+            result.error = new Exception("timeout");
+        result.micros = now / 1000;
+        result.bytes = received.size();
+        result.rawBytesOut += sender.getRawBytes();
+        result.retransmits += sender.getRetransmits();
+        result.crcErrors = decoder.getCrcErrors() + receiver.getCrcErrors();
+        if(interrupted)
+            result.resumedAt = sender.getStartOffset();
+        result.verified = Arrays.equals(data, received.toByteArray());
+        return result;
+    }
+
+    private void start(byte[] data) {
+        int transfer = 0x1234;
+        sender = new BlockSender(transfer, new ArraySource(data, config.blockSize), data.length, config.blockSize, config.window,
+                frame -> transfer(frame, true), timer, () -> now, new BlockSender.Listener() {
+            @Override
+            public void onProgress(long acknowledged, long total) {
+                if(config.interruptAt >= 0 && acknowledged >= config.interruptAt && !interrupted)
+                    interrupt(data);
+            }
+
+            @Override
+            public void onFinished(Exception e) {
+                if(interrupting)
+                    return;
+                finished = true;
+                result.error = e;
+            }
+        });
+        sender.start();
+    }
+
+    private void interrupt(byte[] data) {
+        BlockSender previous = sender;
+        interrupted = true;
+        connection++;
+        busyOut = busyIn = now;
+        events.add(new Event(now, sequence++, () -> {
+            interrupting = true;
+            previous.cancel();
+            interrupting = false;
+            result.rawBytesOut += previous.getRawBytes();
+            result.retransmits += previous.getRetransmits();
+            start(data);
+        }));
+    }
+
+    /**
+     * send data in chunks through the pipe of one direction
+     */
+    private void transfer(byte[] data, boolean out) {
+        if(!out)
+            result.rawBytesIn += data.length;
+        int current = connection;
+        for(int pos = 0; pos < data.length; pos += config.chunkSize) {
+            byte[] chunk = Arrays.copyOfRange(data, pos, Math.min(pos + config.chunkSize, data.length));
+            long start = Math.max(now, out ? busyOut : busyIn);
+            long end = start + chunk.length * 1000000000L / config.rate;
+            if(out)
+                busyOut = end;
+            else
+                busyIn = end;
+            if(config.lossRate > 0 && random.nextDouble() < config.lossRate)
+                continue;
+            if(config.corruptRate > 0 && random.nextDouble() < config.corruptRate)
+                chunk[random.nextInt(chunk.length)] ^= 1 << random.nextInt(8);
+            events.add(new Event(end + config.latencyMicros * 1000L, sequence++, () -> {
+                if(current == connection)
+                    receive(chunk, out);
+            }));
+        }
+    }
+
+    private void receive(byte[] data, boolean atDevice) {
+        if(atDevice) {
+            try {
+                receiver.onReceive(data);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        } else {
+            frames.clear();
+            decoder.decode(data, frames);
+            for(BlockFrame frame : frames)
+                sender.onFrame(frame);
+        }
+    }
+
+
+    private static class ArraySource implements BlockSender.Source {
+        private final byte[] data;
+        private final int blockSize;
+        private int pos;
+
+        ArraySource(byte[] data, int blockSize) {
+            this.data = data;
+            this.blockSize = blockSize;
+        }
+
+        @Override
+        public void start(long offset) {
+            pos = (int) offset;
+        }
+
+        @Override
+        public byte[] poll() {
+            byte[] block = Arrays.copyOfRange(data, pos, Math.min(pos + blockSize, data.length));
+            pos += block.length;
+            return block;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * BlockReader resumes at offset, reads ahead no more than its queue while blocks are not
+     * taken, and delivers all blocks in order to a consumer thread woken by onAvailable
+     */
+    static void checkReader() throws Exception {
+        int blockSize = BlockSender.BLOCK_SIZE, queueBlocks = BlockSender.WINDOW;
+        byte[] data = new byte[1000000];
+        new Random(1).nextBytes(data);
+        int offset = 10 * blockSize;
+        ByteArrayInputStream input = new ByteArrayInputStream(data);
+        ExecutorService consumer = Executors.newSingleThreadExecutor(); // main thread
+        CountDownLatch taking = new CountDownLatch(1);
+        consumer.execute(() -> {
+            try {
+                taking.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        ReaderConsumer blocks = new ReaderConsumer(data.length - offset);
+        blocks.reader = new BlockReader(input, data.length, blockSize, queueBlocks, () -> consumer.execute(blocks));
+        try {
+            blocks.reader.start(offset);
+            Thread.sleep(200);
+            // queued blocks and the block waiting for space
+            checkEquals(offset + (queueBlocks + 1L) * blockSize, data.length - input.available(), "read ahead");
+            taking.countDown();
+            check(blocks.done.await(10, TimeUnit.SECONDS), "reader stalled after " + blocks.output.size() + " bytes");
+        } finally {
+            taking.countDown();
+            blocks.reader.close();
+            consumer.shutdown();
+        }
+        check(Arrays.equals(Arrays.copyOfRange(data, offset, data.length), blocks.output.toByteArray()), "blocks differ");
+
+        // file shorter than announced
+        BlockReader truncated = new BlockReader(new ByteArrayInputStream(data, 0, 1000), data.length, blockSize, queueBlocks, () -> { });
+        truncated.start(0);
+        Thread.sleep(200);
+        String error = null;
+        try {
+            while(truncated.poll() != null)
+                ;
+        } catch (IOException e) {
+            error = e.getMessage();
+        }
+        truncated.close();
+        check("unexpected end of file".equals(error), "truncated file: " + error);
+        System.out.println("block reader: read ahead limited to " + (queueBlocks + 1) + " blocks, " + blocks.output.size() + " bytes after resume verified");
+    }
+
+    /**
+     * takes all available blocks, like BlockSender.onReadable()
+     */
+    private static class ReaderConsumer implements Runnable {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final CountDownLatch done = new CountDownLatch(1);
+        final int size;
+        BlockReader reader;
+
+        ReaderConsumer(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public void run() {
+            try {
+                byte[] block;
+                while((block = reader.poll()) != null)
+                    output.write(block, 0, block.length);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            if(output.size() == size)
+                done.countDown();
+        }
+    }
+
+}
@@ -0,0 +1,22 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+/**
+ * expectations of the self-checking simulations. A failed check ends the simulation with an
+ * exception, so the gradle task and `./gradlew :benchmark:check` fail
+ */
+class Checks {
+
+    private Checks() {
+    }
+
+    static void check(boolean ok, String message) {
+        if (!ok)
+            throw new AssertionError(message);
+    }
+
+    static void checkEquals(long expected, long actual, String message) {
+        if (expected != actual)
+            throw new AssertionError(message + ": expected " + expected + ", got " + actual);
+    }
+
+}
@@ -0,0 +1,157 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import static de.kai_morich.simple_bluetooth_le_terminal.Checks.check;
+import static de.kai_morich.simple_bluetooth_le_terminal.Checks.checkEquals;
+
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * FileSender with a generated file and a fake write queue
+ *
+ *   ./gradlew :benchmark:simulateFileSend
+ *
+ * real time. Sent data is compared with the generated file.
+ *   memory: unpaced files of different size, bytes read but not yet drained from the write
+ *           queue stay below the same bound, independent of file size
+ *   pacing: average rate matches bytesPerSecond, at low rates chunks are split into bursts
+ *           of bytesPerSecond / 10
+ */
+public class FileSendSimulation {
+
+    static final int THRESHOLD = 4; // write queue chunks, like TerminalFragment
+    static final long MAX_OUTSTANDING = (FileSender.QUEUE_CHUNKS + THRESHOLD + 3) * (long) FileSender.CHUNK_SIZE;
+    static final double MAX_RATE_ERROR = 0.1;
+
+    /**
+     * file content generated while read, with short reads
+     */
+    static class PatternInput extends InputStream {
+        final long size;
+        volatile long position; // read by main thread
+        int reads;
+
+        PatternInput(long size) {
+            this.size = size;
+        }
+
+        static byte at(long position) {
+            return (byte) (position % 251);
+        }
+
+        @Override
+        public int read() {
+            return position < size ? at(position++) & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= size)
+                return -1;
+            int length = (int) Math.min(Math.min(len, size - position), ++reads % 3 == 0 ? 300 : len);
+            for (int i = 0; i < length; i++)
+                b[off + i] = at(position + i);
+            position += length;
+            return length;
+        }
+    }
+
+    static class FakeSink implements FileSender.Sink {
+        final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+        long written, drained;
+        int maxWrite;
+
+        @Override
+        public boolean isReady() {
+            return queue.size() < THRESHOLD;
+        }
+
+        @Override
+        public void write(byte[] data) {
+            for (int i = 0; i < data.length; i++)
+                if (data[i] != PatternInput.at(written + i))
+                    throw new AssertionError("wrong data at " + (written + i));
+            queue.add(data);
+            written += data.length;
+            maxWrite = Math.max(maxWrite, data.length);
+        }
+
+        void drain() {
+            byte[] data;
+            while ((data = queue.poll()) != null)
+                drained += data.length;
+        }
+    }
+
+    static class Result implements FileSender.Listener {
+        long sent = -1, progress;
+        Exception error;
+
+        @Override
+        public void onProgress(long sent, long total, long bytesPerSecond) {
+            progress++;
+        }
+
+        @Override
+        public void onFinished(long sent, Exception e) {
+            this.sent = sent;
+            this.error = e;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        memory(1L << 20);
+        memory(16L << 20);
+        pacing(40_000, 20_000);
+        pacing(2_000, 2_000);
+    }
+
+    static void memory(long size) throws Exception {
+        PatternInput input = new PatternInput(size);
+        FakeSink sink = new FakeSink();
+        Result result = new Result();
+        FileSender sender = new FileSender(input, size, 0, sink, result, WriteQueue.SYSTEM_CLOCK);
+        long start = System.nanoTime();
+        sender.start();
+        long maxOutstanding = 0;
+        while (sender.pump() >= 0) {
+            maxOutstanding = Math.max(maxOutstanding, input.position - sink.drained);
+            sink.drain();
+            Thread.yield();
+        }
+        long nanos = System.nanoTime() - start;
+        check(result.error == null, "failed: " + result.error);
+        checkEquals(size, result.sent, "sent");
+        checkEquals(size, sink.written, "written");
+        check(maxOutstanding <= MAX_OUTSTANDING, "memory not constant, " + maxOutstanding + " bytes read but not sent");
+        System.out.println(String.format(Locale.US, "memory: %d kB file, %.1f MB/s, max %d bytes read but not sent",
+                size / 1024, size * 1e3 / nanos, maxOutstanding));
+    }
+
+    static void pacing(long size, int bytesPerSecond) throws Exception {
+        PatternInput input = new PatternInput(size);
+        FakeSink sink = new FakeSink();
+        Result result = new Result();
+        FileSender sender = new FileSender(input, size, bytesPerSecond, sink, result, WriteQueue.SYSTEM_CLOCK);
+        long start = System.nanoTime();
+        sender.start();
+        long wait;
+        while ((wait = sender.pump()) >= 0) {
+            sink.drain();
+            Thread.sleep(wait);
+        }
+        long nanos = System.nanoTime() - start;
+        check(result.error == null, "failed: " + result.error);
+        checkEquals(size, result.sent, "sent");
+        int maxBurst = Math.min(FileSender.CHUNK_SIZE, Math.max(1, bytesPerSecond / 10));
+        check(sink.maxWrite <= maxBurst, "burst of " + sink.maxWrite + " bytes");
+        // end of file is seen when the next byte would be due
+        double expected = size * 1e9 / bytesPerSecond;
+        System.out.println(String.format(Locale.US, "pacing: %d bytes at %d B/s in %d ms, expected %.0f ms, max burst %d bytes, %d progress updates",
+                size, bytesPerSecond, nanos / 1_000_000, expected / 1e6, sink.maxWrite, result.progress));
+        check(Math.abs(nanos - expected) < expected * MAX_RATE_ERROR, "rate differs from " + bytesPerSecond + " B/s");
+        check(result.progress >= nanos / FileSender.PROGRESS_INTERVAL / 2, "progress not reported");
+    }
+
+}
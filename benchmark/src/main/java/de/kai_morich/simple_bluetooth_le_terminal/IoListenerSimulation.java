@@ -0,0 +1,143 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import static de.kai_morich.simple_bluetooth_le_terminal.Checks.check;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * read to consumer latency of background listeners (IoDispatcher) compared with the UI
+ * listener while the main thread is busy rendering, and event order after reconnect
+ *
+ *   ./gradlew :benchmark:simulateIoListener
+ *
+ * real time. A socket thread sends a timestamped chunk every CHUNK_INTERVAL. The UI path is
+ * modelled like SerialService.onReadFrame: reads are merged in a ReadCoalescer and taken once
+ * per FRAME in a main thread that renders for RENDER per frame.
+ */
+public class IoListenerSimulation {
+
+    static final long DURATION = 3_000_000_000L;
+    static final long CHUNK_INTERVAL = 1_000_000L;
+    static final long FRAME = 16_666_667L;
+    static final long RENDER = 30_000_000L;    // slow frames, e.g. long terminal text
+    static final int RECONNECTS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        latency();
+        order();
+    }
+
+    static void latency() throws Exception {
+        LinkMetrics.Histogram ioLatency = new LinkMetrics.Histogram();
+        LinkMetrics.Histogram uiLatency = new LinkMetrics.Histogram();
+        ExecutorService ioThread = Executors.newSingleThreadExecutor();
+        ExecutorService mainThread = Executors.newSingleThreadExecutor();
+        IoDispatcher io = new IoDispatcher();
+        io.setExecutor(ioThread);
+        io.add(new Consumer(ioLatency));
+        ReadCoalescer uiReads = new ReadCoalescer();
+
+        long start = System.nanoTime();
+        Thread socket = new Thread(() -> {
+            for (long next = start; next - start < DURATION; next += CHUNK_INTERVAL) {
+                while (System.nanoTime() < next)
+                    Thread.yield();
+                byte[] data = ByteBuffer.allocate(20).putLong(System.nanoTime()).array();
+                io.onRead(data);
+                uiReads.add(data);
+            }
+        });
+        socket.start();
+        Consumer ui = new Consumer(uiLatency);
+        while (socket.isAlive()) {
+            mainThread.submit(() -> {
+                ArrayDeque<byte[]> datas = uiReads.take();
+                if (!datas.isEmpty())
+                    ui.onSerialRead(datas);
+                long busy = System.nanoTime() + RENDER;
+                while (System.nanoTime() < busy)
+                    Thread.yield();
+            });
+            Thread.sleep(FRAME / 1_000_000L);
+        }
+        mainThread.shutdown();
+        ioThread.shutdown();
+        mainThread.awaitTermination(10, TimeUnit.SECONDS);
+        ioThread.awaitTermination(10, TimeUnit.SECONDS);
+        System.out.println("read to background listener " + ioLatency);
+        System.out.println("read to UI listener         " + uiLatency);
+        check(ioLatency.count > 0 && uiLatency.count > 0, "no reads");
+        check(ioLatency.percentile(99) < RENDER / 1000, "background listener delayed by UI load: " + ioLatency);
+        check(ioLatency.mean() * 4 < uiLatency.mean(), "background listener not faster than UI listener");
+    }
+
+    /**
+     * socket thread connects and sends data right away, the main thread posts connect when it
+     * handled the reconnect. Background listeners have to see connect before the data
+     */
+    static void order() throws Exception {
+        ExecutorService ioThread = Executors.newSingleThreadExecutor();
+        ExecutorService mainThread = Executors.newSingleThreadExecutor();
+        IoDispatcher io = new IoDispatcher();
+        io.setExecutor(ioThread);
+        List<String> events = new ArrayList<>();
+        io.add(new SerialListener() {
+            @Override public void onSerialConnect() { events.add("connect"); }
+            @Override public void onSerialConnectError(Exception e) { events.add("connect error"); }
+            @Override public void onSerialRead(byte[] data) { }
+            @Override public void onSerialRead(ArrayDeque<byte[]> datas) { for (byte[] data : datas) events.add("read " + data[0]); }
+            @Override public void onSerialIoError(Exception e) { events.add("error"); }
+            @Override public void onSerialReconnecting(Exception e) { events.add("reconnecting"); }
+        });
+        for (int i = 0; i < RECONNECTS; i++) {
+            mainThread.submit(() -> io.onReconnecting(null)).get();
+            io.holdReads(); // SerialService.onSerialConnect, socket thread
+            mainThread.submit(() -> {
+                io.onConnect(); // SerialService.onReconnected
+                io.releaseReads();
+            });
+            for (byte b = 0; b < 3; b++)
+                io.onRead(new byte[]{b});
+            mainThread.submit(() -> { }).get();
+            ioThread.submit(() -> { }).get();
+        }
+        mainThread.shutdown();
+        ioThread.shutdown();
+        ioThread.awaitTermination(10, TimeUnit.SECONDS);
+        String expected = "[reconnecting, connect, read 0, read 1, read 2]";
+        for (int i = 0; i < RECONNECTS; i++) {
+            String actual = events.subList(i * 5, i * 5 + 5).toString();
+            check(actual.equals(expected), "reconnect " + i + ": " + actual);
+        }
+        check(events.size() == RECONNECTS * 5, "unexpected events after " + RECONNECTS * 5);
+        System.out.println(RECONNECTS + " reconnects, background listener got connect before data");
+    }
+
+    private static class Consumer implements SerialListener {
+        private final LinkMetrics.Histogram latency;
+
+        Consumer(LinkMetrics.Histogram latency) {
+            this.latency = latency;
+        }
+
+        @Override
+        public void onSerialRead(ArrayDeque<byte[]> datas) {
+            long now = System.nanoTime();
+            for (byte[] data : datas)
+                latency.add((now - ByteBuffer.wrap(data).getLong()) / 1000);
+        }
+
+        @Override public void onSerialConnect() { }
+        @Override public void onSerialConnectError(Exception e) { }
+        @Override public void onSerialRead(byte[] data) { }
+        @Override public void onSerialIoError(Exception e) { }
+        @Override public void onSerialReconnecting(Exception e) { }
+    }
+
+}
@@ -0,0 +1,97 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import static de.kai_morich.simple_bluetooth_le_terminal.Checks.check;
+import static de.kai_morich.simple_bluetooth_le_terminal.Checks.checkEquals;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * latency benchmark of TerminalFragment against the simulated echo device
+ *
+ *   ./gradlew :benchmark:simulateLatency
+ *
+ * real time. Probes are sent at the menu rates to EchoSocket with ECHO_DELAY, echoes are split
+ * into 20 byte chunks and timestamped in a background listener thread like in the app.
+ * The 1 probe/s rate is left out, it takes 100 s and adds nothing to 10 probes/s.
+ */
+public class LatencySimulation {
+
+    static final int PROBES = 100;
+    static final long ECHO_DELAY = 10_000; // us, as selected in the menu
+    static final int CHUNK = 20;
+    static final long MAX_OVERHEAD = 5_000; // us, median above ECHO_DELAY
+    static final long SLOW_LISTENER = 6_000; // us per delivery, e.g. scrollback added before the probe listener
+
+    public static void main(String[] args) throws Exception {
+        run(10, 20);
+        run(10, 100);
+        run(50, 20);
+    }
+
+    static void run(int rate, int size) throws Exception {
+        LatencyProbe probe = new LatencyProbe(PROBES, size);
+        ExecutorService ioThread = Executors.newSingleThreadExecutor();
+        IoDispatcher io = new IoDispatcher();
+        io.setExecutor(ioThread);
+        io.add(new SerialListener() {
+            @Override public void onSerialConnect() { }
+            @Override public void onSerialConnectError(Exception e) { }
+            @Override public void onSerialRead(byte[] data) { }
+            @Override public void onSerialIoError(Exception e) { }
+            @Override public void onSerialReconnecting(Exception e) { }
+            @Override
+            public void onSerialRead(ArrayDeque<byte[]> datas) {
+                long busy = System.nanoTime() + SLOW_LISTENER * 1000;
+                while (System.nanoTime() < busy)
+                    ; // slow listener
+            }
+        });
+        io.addFirst(new SerialListener() { // like TerminalFragment, timestamps before slow listeners
+            @Override public void onSerialConnect() { }
+            @Override public void onSerialConnectError(Exception e) { }
+            @Override public void onSerialRead(byte[] data) { }
+            @Override public void onSerialIoError(Exception e) { }
+            @Override public void onSerialReconnecting(Exception e) { }
+            @Override
+            public void onSerialRead(ArrayDeque<byte[]> datas) {
+                long now = System.nanoTime();
+                for (byte[] data : datas)
+                    probe.onReceive(data, now);
+            }
+        });
+        EchoSocket socket = new EchoSocket(ECHO_DELAY, CHUNK);
+        socket.connect(new SerialListener() { // SerialService
+            @Override public void onSerialConnect() { io.onConnect(); }
+            @Override public void onSerialConnectError(Exception e) { io.onConnectError(e); }
+            @Override public void onSerialRead(byte[] data) { io.onRead(data); }
+            @Override public void onSerialRead(ArrayDeque<byte[]> datas) { }
+            @Override public void onSerialIoError(Exception e) { io.onIoError(e); }
+            @Override public void onSerialReconnecting(Exception e) { }
+        });
+        long interval = 1_000_000_000L / rate;
+        long next = System.nanoTime();
+        while (probe.hasNext()) {
+            long now;
+            while ((now = System.nanoTime()) < next)
+                TimeUnit.NANOSECONDS.sleep(Math.min(next - now, 1_000_000));
+            socket.write(probe.next(System.nanoTime()));
+            next += interval;
+        }
+        Thread.sleep(ECHO_DELAY / 1000 * 10); // late echoes
+        socket.disconnect();
+        ioThread.shutdown();
+        ioThread.awaitTermination(10, TimeUnit.SECONDS);
+
+        LatencyProbe.Result result = probe.result();
+        System.out.println(rate + " probes/s, " + size + " bytes: " + result.toString().replace("\n", ", "));
+        checkEquals(PROBES, result.sent, "sent");
+        checkEquals(0, result.lost(), "lost");
+        checkEquals(0, result.duplicates, "duplicates");
+        check(result.min >= ECHO_DELAY, "rtt below echo delay: " + result.min + " us");
+        check(result.median < ECHO_DELAY + MAX_OVERHEAD, "median rtt " + result.median + " us");
+    }
+
+}
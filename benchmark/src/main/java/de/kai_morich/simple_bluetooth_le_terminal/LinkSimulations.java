@@ -0,0 +1,90 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import static de.kai_morich.simple_bluetooth_le_terminal.Checks.check;
+import static de.kai_morich.simple_bluetooth_le_terminal.Checks.checkEquals;
+
+import java.util.Locale;
+
+/**
+ * print throughput of simulated links, see SimulatedLink and BlockTransferSimulation
+ *
+ *   ./gradlew :benchmark:simulate
+ *
+ * the Telit credits runs are checked: credit grants and data writes share the GattScheduler,
+ * so no GATT operation is started while another one is outstanding, and the adaptive read
+ * credit window is not slower than the fixed window.
+ */
+public class LinkSimulations {
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("write path, 1000 writes of 244 bytes");
+        for (boolean withResponse : new boolean[]{false, true}) {
+            for (double loss : new double[]{0, 0.05}) {
+                SimulatedLink.Config config = new SimulatedLink.Config();
+                config.withResponse = withResponse;
+                config.lossRate = loss;
+                System.out.println(config);
+                System.out.println("  " + new SimulatedLink(config).run(1000, 244, 0).toString().replace("\n", "\n  "));
+            }
+        }
+
+        System.out.println();
+        System.out.println("Telit credits, 1000 writes of 244 bytes and 1 MB downlink");
+        for (double loss : new double[]{0, 0.05}) {
+            SimulatedLink.Config config = new SimulatedLink.Config();
+            config.credits = true;
+            config.lossRate = loss;
+            SimulatedLink.Result result = new SimulatedLink(config).run(1000, 244, 1000000);
+            System.out.println(config);
+            System.out.println("  " + result.toString().replace("\n", "\n  "));
+            check(!result.timeout, "timeout");
+            check(result.creditGrants > 0, "no credit grants");
+            checkEquals(0, result.rejectedOperations, "rejected operations");
+        }
+
+        System.out.println();
+        System.out.println("Telit read credits, fixed vs adaptive window, 1 MB downlink, uplink in 244 byte writes");
+        int[][] links = { // interval us, packets per interval, uplink writes
+                {50000, 20, 0}, {30000, 40, 0}, {50000, 32, 0}, {7500, 4, 0}, {30000, 40, 2000}};
+        for (int[] link : links) {
+            SimulatedLink.Result[] results = new SimulatedLink.Result[2];
+            for (int i = 0; i < 2; i++) {
+                SimulatedLink.Config config = new SimulatedLink.Config();
+                config.connectionIntervalMicros = link[0];
+                config.packetsPerInterval = link[1];
+                config.credits = true;
+                config.adaptiveCredits = i == 1;
+                results[i] = new SimulatedLink(config).run(link[2], 244, 1000000);
+                check(!results[i].timeout, "timeout");
+                checkEquals(0, results[i].rejectedOperations, "rejected operations");
+            }
+            System.out.println(String.format(Locale.US, "interval %.1f ms, %d packets, %d writes: in %.1f -> %.1f kB/s, out %.1f -> %.1f kB/s, %d -> %d credit grants",
+                    link[0] / 1000.0, link[1], link[2],
+                    results[0].throughputIn() / 1000, results[1].throughputIn() / 1000,
+                    results[0].throughputOut() / 1000, results[1].throughputOut() / 1000,
+                    results[0].creditGrants, results[1].creditGrants));
+            check(results[1].throughputIn() >= results[0].throughputIn(), "adaptive credits slower than fixed");
+            check(results[1].creditGrants <= results[0].creditGrants, "adaptive credits with more grants than fixed");
+        }
+
+        System.out.println();
+        System.out.println("block transfer, goodput vs raw throughput");
+        for (int blockSize : new int[]{64, 128, 256}) {
+            for (double loss : new double[]{0, 0.001, 0.005, 0.01, 0.02}) {
+                BlockTransferSimulation.Config config = new BlockTransferSimulation.Config();
+                config.blockSize = blockSize;
+                config.lossRate = loss;
+                System.out.println(config);
+                System.out.println("  " + new BlockTransferSimulation(config).run());
+            }
+        }
+        BlockTransferSimulation.Config config = new BlockTransferSimulation.Config();
+        config.lossRate = 0.01;
+        config.corruptRate = 0.01;
+        config.interruptAt = config.size / 2;
+        System.out.println(config);
+        System.out.println("  " + new BlockTransferSimulation(config).run());
+        BlockTransferSimulation.checkReader();
+    }
+
+}
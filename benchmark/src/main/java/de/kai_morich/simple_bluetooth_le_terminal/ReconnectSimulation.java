@@ -0,0 +1,202 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import static de.kai_morich.simple_bluetooth_le_terminal.Checks.check;
+import static de.kai_morich.simple_bluetooth_le_terminal.Checks.checkEquals;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * drive ReconnectSupervisor like SerialService does, against a fake link that drops at random
+ *
+ *   ./gradlew :benchmark:simulateReconnect
+ *
+ * virtual time in ms. Sequence numbered chunks are written every WRITE_INTERVAL, the fake socket
+ * sends one chunk per SEND_INTERVAL. The link drops every DROP_INTERVAL on average, the device
+ * comes back after 0.1 - 5 s, or 5 - 60 s in 10% of the outages, so some outages exhaust the
+ * attempts. A chunk on air when the link drops is lost, as with a real gatt.
+ *
+ * checks received order, backoff delays, held data limit, outage time and that every written
+ * byte is received or counted as dropped.
+ *
+ * checkConcurrentHold() writes from a second thread like the SendScheduler, while the link is
+ * lost and restored in the main thread, synchronized on the supervisor like SerialService.
+ */
+public class ReconnectSimulation {
+
+    static final long DURATION = 3_600_000;
+    static final int CHUNK = 20;
+    static final long WRITE_INTERVAL = 10;
+    static final long SEND_INTERVAL = 5;
+    static final long CONNECT_TIME = 300;
+    static final long DROP_INTERVAL = 30_000;
+    static final long INITIAL_DELAY = 500;
+    static final long MAX_DELAY = 8000;
+    static final int MAX_ATTEMPTS = 6;
+    static final int MAX_HELD_BYTES = 4096;
+
+    private final Random random = new Random(1);
+    private final ReconnectSupervisor supervisor =
+            new ReconnectSupervisor(INITIAL_DELAY, MAX_DELAY, MAX_ATTEMPTS, MAX_HELD_BYTES, new Random(2));
+    private final ArrayDeque<byte[]> socketQueue = new ArrayDeque<>();
+    private byte[] onAir;
+
+    private boolean linkUp = true, connected = true;
+    private long deviceBack;                // device in range again
+    private long nextAttempt = Long.MAX_VALUE, attemptDone = Long.MAX_VALUE;
+    private long lostTime;
+
+    private int nextSeq, lastReceived = -1;
+    private long writtenBytes, receivedBytes, rejectedBytes, lostOnAirBytes;
+    private int drops, gaveUp, attempts;
+    private long measuredOutage;
+
+    public static void main(String[] args) throws InterruptedException {
+        ReconnectSimulation simulation = new ReconnectSimulation();
+        simulation.run();
+        System.out.println(simulation);
+        checkConcurrentHold();
+    }
+
+    static void checkConcurrentHold() throws InterruptedException {
+        int writes = 100_000;
+        ReconnectSupervisor supervisor = new ReconnectSupervisor(INITIAL_DELAY, MAX_DELAY, MAX_ATTEMPTS, Integer.MAX_VALUE, new Random(2));
+        ArrayDeque<byte[]> socketQueue = new ArrayDeque<>();
+        Thread writer = new Thread(() -> {
+            for (int seq = 0; seq < writes; seq++) {
+                byte[] data = ByteBuffer.allocate(CHUNK).putInt(seq).array();
+                synchronized (supervisor) {
+                    if (supervisor.isReconnecting())
+                        supervisor.hold(data);
+                    else
+                        socketQueue.add(data);
+                }
+                Thread.yield();
+            }
+        }, "SendScheduler");
+        writer.start();
+        int outages = 0;
+        while (writer.isAlive()) {
+            synchronized (supervisor) {
+                supervisor.linkLost(2L * outages, socketQueue);
+                socketQueue.clear();
+            }
+            Thread.yield();
+            synchronized (supervisor) {
+                socketQueue.addAll(supervisor.linkRestored(2L * outages + 1));
+            }
+            outages++;
+            Thread.yield();
+        }
+        writer.join();
+        int expected = 0;
+        for (byte[] data : socketQueue)
+            checkEquals(expected++, ByteBuffer.wrap(data).getInt(), "order with concurrent writes");
+        checkEquals(writes, expected, "writes with concurrent outages");
+        checkEquals(0, supervisor.getDroppedBytes(), "dropped bytes");
+        System.out.println("concurrent hold: " + writes + " writes in order during " + outages + " outages");
+    }
+
+    void run() {
+        for (long now = 0; now < DURATION; now++) {
+            if (linkUp && random.nextDouble() < 1.0 / DROP_INTERVAL)
+                drop(now);
+            if (!connected && now >= deviceBack) {
+                connected = linkUp = true; // user connects again after IoError
+            }
+            if (now >= nextAttempt) {
+                nextAttempt = Long.MAX_VALUE;
+                attempts++;
+                if (now >= deviceBack)
+                    attemptDone = now + CONNECT_TIME;
+                else
+                    scheduleAttempt(now); // connect error
+            }
+            if (now >= attemptDone) {
+                attemptDone = Long.MAX_VALUE;
+                reconnected(now);
+            }
+            if (linkUp && now % SEND_INTERVAL == 0) {
+                if (onAir != null)
+                    receive(onAir);
+                onAir = socketQueue.poll();
+            }
+            if (now % WRITE_INTERVAL == 0)
+                write();
+            check(supervisor.getHeldBytes() <= MAX_HELD_BYTES, "held bytes " + supervisor.getHeldBytes());
+        }
+        long pending = supervisor.getHeldBytes() + (onAir != null ? onAir.length : 0);
+        for (byte[] data : socketQueue)
+            pending += data.length;
+        checkEquals(writtenBytes, receivedBytes + supervisor.getDroppedBytes() + lostOnAirBytes + rejectedBytes + pending,
+                "written bytes not received or counted as dropped");
+        checkEquals(measuredOutage, supervisor.getTotalOutage(), "total outage");
+        check(lostOnAirBytes <= (long) drops * CHUNK, "more than one chunk lost per drop");
+        check(drops > 10 && gaveUp > 0 && supervisor.getDroppedBytes() > 0, "scenario without drops, give up or full queue");
+    }
+
+    private void drop(long now) {
+        linkUp = false;
+        drops++;
+        deviceBack = now + (random.nextDouble() < 0.9 ? 100 + random.nextInt(4900) : 5000 + random.nextInt(55000));
+        if (onAir != null) {
+            lostOnAirBytes += onAir.length;
+            onAir = null;
+        }
+        lostTime = now;
+        supervisor.linkLost(now, socketQueue);
+        socketQueue.clear();
+        scheduleAttempt(now);
+    }
+
+    private void scheduleAttempt(long now) {
+        long delay = supervisor.nextDelay();
+        if (delay < 0) { // SerialService reports onSerialIoError and disconnects
+            supervisor.reset();
+            gaveUp++;
+            connected = false;
+            return;
+        }
+        long d = Math.min(INITIAL_DELAY << (supervisor.getAttempt() - 1), MAX_DELAY);
+        check(delay >= d / 2 && delay <= d, "delay " + delay + " for attempt " + supervisor.getAttempt());
+        nextAttempt = now + delay;
+    }
+
+    private void reconnected(long now) {
+        socketQueue.addAll(supervisor.linkRestored(now));
+        checkEquals(now - lostTime, supervisor.getLastOutage(), "outage");
+        measuredOutage += now - lostTime;
+        linkUp = true;
+    }
+
+    private void write() {
+        byte[] data = ByteBuffer.allocate(CHUNK).putInt(nextSeq++).array();
+        writtenBytes += data.length;
+        if (!connected) {
+            rejectedBytes += data.length; // "not connected"
+        } else if (supervisor.isReconnecting()) {
+            supervisor.hold(data); // if full: "reconnect queue full", counted as dropped
+        } else {
+            socketQueue.add(data);
+        }
+    }
+
+    private void receive(byte[] data) {
+        int seq = ByteBuffer.wrap(data).getInt();
+        check(seq > lastReceived, "received " + seq + " after " + lastReceived);
+        lastReceived = seq;
+        receivedBytes += data.length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "%d drops, %d attempts, %d gave up, mean outage %d ms\n" +
+                "%d bytes written, %d received, %d dropped from full queue, %d lost on air, %d rejected while disconnected",
+                drops, attempts, gaveUp, supervisor.getOutages() > 0 ? supervisor.getTotalOutage() / Math.max(1, supervisor.getOutages() - gaveUp) : 0,
+                writtenBytes, receivedBytes, supervisor.getDroppedBytes(), lostOnAirBytes, rejectedBytes);
+    }
+
+}
@@ -0,0 +1,199 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import static de.kai_morich.simple_bluetooth_le_terminal.Checks.check;
+import static de.kai_morich.simple_bluetooth_le_terminal.Checks.checkEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * replay a recorded session through the read path of SerialService
+ *
+ *   ./gradlew :benchmark:simulateReplay
+ *
+ * real time. A counter stream is recorded with SessionCapture into several files, then played
+ * by ReplaySource as fast as possible. Reads go to IoDispatcher for background listeners and
+ * to a ReadCoalescer taken once per frame in a main thread, like SerialService.onSerialRead
+ * and onReadFrame. Sent data in the capture is not replayed.
+ *
+ * checks that every listener gets the complete stream in order and reports bytes/s.
+ */
+public class ReplaySimulation {
+
+    static final int CHUNK = 244;
+    static final int CHUNKS = 10_000;
+    static final long MAX_FILE_SIZE = 512 * 1024;       // several capture files
+    static final int MAX_READ_BYTES_PER_FRAME = 16384;  // like SerialService
+
+    /**
+     * SerialService.onSerialRead without Android, frames follow each other without vsync wait
+     */
+    static class Service implements SerialListener {
+        final IoDispatcher io = new IoDispatcher();
+        final ReadCoalescer lastRead = new ReadCoalescer();
+        final ExecutorService mainThread = Executors.newSingleThreadExecutor();
+        final CountDownLatch finished = new CountDownLatch(1);
+        final StreamVerifier ui = new StreamVerifier();
+        long frames; // main thread
+        Exception error;
+
+        @Override
+        public void onSerialConnect() {
+            io.onConnect();
+        }
+
+        @Override
+        public void onSerialConnectError(Exception e) {
+            error = e;
+            finished.countDown();
+        }
+
+        @Override
+        public void onSerialRead(byte[] data) {
+            io.onRead(data);
+            if (lastRead.add(data))
+                mainThread.execute(this::onReadFrame);
+        }
+
+        @Override
+        public void onSerialRead(ArrayDeque<byte[]> datas) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void onSerialIoError(Exception e) {
+            error = e; // summary of ReplaySource
+            io.onIoError(e);
+            finished.countDown();
+        }
+
+        @Override
+        public void onSerialReconnecting(Exception e) {
+            throw new UnsupportedOperationException();
+        }
+
+        private void onReadFrame() {
+            ArrayDeque<byte[]> datas;
+            boolean deferred;
+            synchronized (lastRead) {
+                datas = lastRead.take(MAX_READ_BYTES_PER_FRAME);
+                deferred = !lastRead.isEmpty();
+            }
+            if (deferred)
+                mainThread.execute(this::onReadFrame);
+            frames++;
+            for (byte[] data : datas)
+                ui.onReceive(data);
+        }
+    }
+
+    /**
+     * background listener, consumes the reads, which must not affect other listeners
+     */
+    static class Verifier implements SerialListener {
+        final StreamVerifier verifier = new StreamVerifier();
+        int connects, errors;
+
+        @Override public void onSerialConnect() { connects++; }
+        @Override public void onSerialConnectError(Exception e) { errors++; }
+        @Override public void onSerialRead(byte[] data) { throw new UnsupportedOperationException(); }
+        @Override public void onSerialIoError(Exception e) { errors++; }
+        @Override public void onSerialReconnecting(Exception e) { throw new UnsupportedOperationException(); }
+
+        @Override
+        public void onSerialRead(ArrayDeque<byte[]> datas) {
+            byte[] data;
+            while ((data = datas.poll()) != null)
+                verifier.onReceive(data);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("replay").toFile();
+        try {
+            List<File> files = record(dir);
+            replay(files);
+        } finally {
+            File[] files = dir.listFiles();
+            if (files != null)
+                for (File file : files)
+                    file.delete();
+            dir.delete();
+        }
+    }
+
+    static List<File> record(File dir) throws IOException {
+        ReplaySource.Generator generator = ReplaySource.counter(CHUNK, CHUNKS, 0, 0);
+        SessionCapture capture = new SessionCapture(dir, "session", MAX_FILE_SIZE);
+        SessionCapture.Record record;
+        long count = 0;
+        while ((record = generator.next()) != null) {
+            capture.record(SessionCapture.DIRECTION_IN, record.data);
+            if (++count % 100 == 0)
+                capture.record(SessionCapture.DIRECTION_OUT, "sent\n".getBytes(StandardCharsets.US_ASCII));
+        }
+        capture.close();
+        checkEquals(0, capture.getDroppedRecords(), "dropped records");
+        List<File> files = capture.getFiles();
+        check(files.size() > 1, "capture in one file");
+        System.out.println(String.format(Locale.US, "recorded %d records, %d bytes in %d files",
+                capture.getRecords(), capture.getBytes(), files.size()));
+        return files;
+    }
+
+    static void replay(List<File> files) throws Exception {
+        Service service = new Service();
+        ExecutorService ioThread = Executors.newSingleThreadExecutor();
+        service.io.setExecutor(ioThread);
+        Verifier background1 = new Verifier(), background2 = new Verifier();
+        service.io.add(background1);
+        service.io.add(background2);
+
+        ReplaySource source = new ReplaySource(ReplaySource.fromCapture(files), ReplaySource.SPEED_MAX);
+        long start = System.nanoTime();
+        source.connect(service);
+        check(service.finished.await(60, TimeUnit.SECONDS), "replay not finished");
+        source.disconnect();
+        service.mainThread.submit(() -> { }).get();
+        while (!service.lastRead.isEmpty()) // deferred frames
+            service.mainThread.submit(() -> { }).get();
+        service.mainThread.submit(() -> { }).get();
+        ioThread.submit(() -> { }).get();
+        long nanos = System.nanoTime() - start;
+        service.mainThread.shutdown();
+        ioThread.shutdown();
+
+        check(service.error != null && service.error.getMessage().startsWith("replay finished"), "replay failed: " + service.error);
+        long bytes = (long) CHUNK * CHUNKS;
+        checkEquals(bytes, source.getBytes(), "replayed bytes");
+        checkEquals(CHUNKS, source.getChunks(), "replayed chunks, sent data replayed?");
+        verify("UI listener", service.ui, bytes);
+        verify("background listener 1", background1.verifier, bytes);
+        verify("background listener 2", background2.verifier, bytes);
+        for (Verifier background : new Verifier[]{background1, background2}) {
+            checkEquals(1, background.connects, "background listener connects");
+            checkEquals(1, background.errors, "background listener errors");
+        }
+        System.out.println(String.format(Locale.US, "replayed %d bytes in %d ms: source %.1f kB/s, to listeners %.1f kB/s, %d UI frames",
+                bytes, nanos / 1_000_000, bytes * 1e6 / source.getNanos(), bytes * 1e6 / nanos, service.frames));
+    }
+
+    static void verify(String name, StreamVerifier verifier, long bytes) {
+        long[] counters = new long[StreamVerifier.COUNTERS];
+        verifier.snapshot(counters);
+        checkEquals(bytes, counters[StreamVerifier.BYTES], name + " bytes");
+        checkEquals(bytes / (StreamVerifier.DIGITS + 1), counters[StreamVerifier.VALUES], name + " values");
+        checkEquals(0, counters[StreamVerifier.GAPS] + counters[StreamVerifier.DUPLICATES] + counters[StreamVerifier.REORDERED]
+                + counters[StreamVerifier.CORRUPT], name + " gaps, duplicates, reordered or corrupt values");
+    }
+
+}
@@ -0,0 +1,155 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import static de.kai_morich.simple_bluetooth_le_terminal.Checks.check;
+import static de.kai_morich.simple_bluetooth_le_terminal.Checks.checkEquals;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SendScheduler timing against a fake write queue
+ *
+ *   ./gradlew :benchmark:simulateSend
+ *
+ * real time, three runs:
+ *   drift:   slow writes must not delay the following deadlines
+ *   overrun: after a write stalls, the schedule continues from now instead of sending a burst
+ *   pause:   a write queue drained slower than the send rate pauses sending at maxQueue chunks
+ */
+public class SendSimulation {
+
+    static final long INTERVAL = 5_000_000L;
+    static final int SENDS = 200;
+    static final long SLOW_WRITE = 2_000_000L;     // < INTERVAL
+    static final long STALL = 50_000_000L;          // > INTERVAL
+    static final int STALL_AT = 50;
+    static final long MAX_DRIFT = 10_000_000L;      // last send after SENDS intervals
+    static final long DRAIN_INTERVAL = 10_000_000L; // pause run, slower than send interval
+    static final int MAX_QUEUE = 8;
+
+    /**
+     * write queue with send times, drained from the test
+     */
+    static class FakeSink implements SendScheduler.Sink {
+        final ArrayList<Long> times = new ArrayList<>(); // timing thread
+        final AtomicInteger queue = new AtomicInteger();
+        long writeNanos, stallNanos;
+        int stallAt = -1, maxQueue;
+
+        @Override
+        public int getWriteQueueSize() {
+            return queue.get();
+        }
+
+        @Override
+        public void write(byte[] data) {
+            long now = System.nanoTime();
+            times.add(now);
+            maxQueue = Math.max(maxQueue, queue.incrementAndGet());
+            long busy = now + (times.size() - 1 == stallAt ? stallNanos : writeNanos);
+            while (System.nanoTime() < busy)
+                ; // slow write
+        }
+    }
+
+    static class Run implements SendScheduler.Listener {
+        final CountDownLatch finished = new CountDownLatch(1);
+        SendScheduler.Stats stats;
+        Exception error;
+
+        @Override
+        public void onFinished(SendScheduler.Stats stats, Exception e) {
+            this.stats = stats;
+            this.error = e;
+            finished.countDown();
+        }
+
+        SendScheduler.Stats await() throws InterruptedException {
+            check(finished.await(30, TimeUnit.SECONDS), "not finished");
+            check(error == null, "failed: " + error);
+            return stats;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        drift();
+        overrun();
+        pause();
+    }
+
+    static void drift() throws Exception {
+        FakeSink sink = new FakeSink();
+        sink.writeNanos = SLOW_WRITE;
+        sink.queue.set(Integer.MIN_VALUE); // never pause
+        SendScheduler.Script script = SendScheduler.Script.parse("# slow writes\nhex 01 02\nwait " + INTERVAL / 1_000_000 + "\nloop " + SENDS, "\n");
+        Run run = new Run();
+        SendScheduler scheduler = new SendScheduler(script, sink, run, MAX_QUEUE);
+        scheduler.start();
+        SendScheduler.Stats stats = run.await();
+        System.out.println("drift:   " + stats);
+        checkEquals(SENDS, stats.sends, "sends");
+        checkEquals(2L * SENDS, stats.bytes, "bytes");
+        checkEquals(0, stats.overruns, "overruns");
+        long drift = sink.times.get(SENDS - 1) - sink.times.get(0) - (SENDS - 1) * INTERVAL;
+        check(Math.abs(drift) < MAX_DRIFT, "slow writes accumulated, drift " + drift / 1000 + " us");
+        check(stats.jitter.percentile(50) < SLOW_WRITE / 1000, "median jitter " + stats.jitter.percentile(50) + " us");
+    }
+
+    static void overrun() throws Exception {
+        FakeSink sink = new FakeSink();
+        sink.stallAt = STALL_AT;
+        sink.stallNanos = STALL;
+        sink.queue.set(Integer.MIN_VALUE);
+        Run run = new Run();
+        SendScheduler scheduler = new SendScheduler(SendScheduler.Script.periodic(new byte[]{1}, INTERVAL / 1_000_000, SENDS), sink, run, MAX_QUEUE);
+        scheduler.start();
+        SendScheduler.Stats stats = run.await();
+        System.out.println("overrun: " + stats);
+        checkEquals(SENDS, stats.sends, "sends");
+        checkEquals(1, stats.overruns, "overruns");
+        check(minSpacing(sink.times, STALL_AT + 2) > INTERVAL / 2, "burst after stall, spacing " + minSpacing(sink.times, STALL_AT + 2) / 1000 + " us");
+        long duration = sink.times.get(SENDS - 1) - sink.times.get(0);
+        check(duration > (SENDS - 1) * INTERVAL + STALL - INTERVAL - MAX_DRIFT, "stall not continued from now, " + duration / 1_000_000 + " ms");
+    }
+
+    static void pause() throws Exception {
+        FakeSink sink = new FakeSink();
+        Run run = new Run();
+        SendScheduler scheduler = new SendScheduler(SendScheduler.Script.periodic(new byte[]{1}, 1, SENDS), sink, run, MAX_QUEUE);
+        Thread drain = new Thread(() -> {
+            while (run.finished.getCount() > 0) {
+                sink.queue.updateAndGet(size -> Math.max(0, size - 1));
+                try {
+                    Thread.sleep(DRAIN_INTERVAL / 1_000_000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        drain.start();
+        scheduler.start();
+        SendScheduler.Stats stats = run.await();
+        drain.interrupt();
+        drain.join();
+        System.out.println("pause:   " + stats);
+        checkEquals(SENDS, stats.sends, "sends");
+        check(sink.maxQueue <= MAX_QUEUE + 1, "write queue flooded, " + sink.maxQueue + " chunks");
+        check(stats.pauses > 0, "no pause");
+        long duration = sink.times.get(SENDS - 1) - sink.times.get(0);
+        check(duration > (SENDS - MAX_QUEUE - 1) * DRAIN_INTERVAL / 2, "send rate above drain rate, " + duration / 1_000_000 + " ms");
+        check(minSpacing(sink.times, MAX_QUEUE + 1) > 1_000_000L / 2, "burst after pause");
+    }
+
+    /**
+     * @return minimum time between sends from index first
+     */
+    static long minSpacing(ArrayList<Long> times, int first) {
+        long min = Long.MAX_VALUE;
+        for (int i = Math.max(first, 1); i < times.size(); i++)
+            min = Math.min(min, times.get(i) - times.get(i - 1));
+        return min;
+    }
+
+}
@@ -0,0 +1,242 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import static de.kai_morich.simple_bluetooth_le_terminal.Checks.check;
+import static de.kai_morich.simple_bluetooth_le_terminal.Checks.checkEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * many concurrent SerialSessions with fake devices, delivered by SessionScheduler like in SerialService
+ *
+ *   ./gradlew :benchmark:simulateSessions
+ *
+ * real time. DEVICES fake devices send sequence numbered chunks from their own thread, one of
+ * them floods CHATTY_FACTOR times more data as fast as possible. Listeners run in one executor
+ * thread like the main thread and take RENDER_NANOS_PER_BYTE to render, so the chatty device
+ * builds up a backlog.
+ *
+ * checks per device order and completeness, that quiet devices are delivered within
+ * MAX_QUIET_DELAY despite the backlog, and the aggregate stats. A first deterministic run with
+ * a manual executor checks that each device with pending data gets one turn per dispatch run.
+ */
+public class SessionSimulation {
+
+    static final int DEVICES = 40;
+    static final int QUIET_CHUNKS = 50;
+    static final long QUIET_INTERVAL = 20;       // ms
+    static final int CHATTY_FACTOR = 1000;
+    static final int CHUNK = 20;
+    static final long RENDER_NANOS_PER_BYTE = 500;
+    static final long MAX_QUIET_DELAY = 50_000;  // us
+
+    /**
+     * SimulatedSocket, data sent from test
+     */
+    static class FakeDevice implements SimulatedSocket {
+        SerialListener listener;
+        int seq;
+        long bytesOut;
+
+        @Override
+        public void connect(SerialListener listener) {
+            this.listener = listener;
+            listener.onSerialConnect();
+        }
+
+        @Override
+        public void write(byte[] data) {
+            bytesOut += data.length;
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        void send() {
+            listener.onSerialRead(ByteBuffer.allocate(CHUNK).putInt(seq++).putLong(System.nanoTime()).array());
+        }
+    }
+
+    /**
+     * session listener, checks order and records delivery delay
+     */
+    static class Receiver implements SerialListener {
+        final int device;
+        int next, connects, reads, maxTurnBytes;
+        long bytes;
+        LinkMetrics.Histogram delay = new LinkMetrics.Histogram();
+
+        Receiver(int device) {
+            this.device = device;
+        }
+
+        @Override
+        public void onSerialConnect() {
+            connects++;
+        }
+
+        @Override
+        public void onSerialConnectError(Exception e) {
+            throw new AssertionError("connect error", e);
+        }
+
+        @Override
+        public void onSerialRead(byte[] data) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void onSerialRead(ArrayDeque<byte[]> datas) {
+            check(connects == 1, "device " + device + " read before connect");
+            long now = System.nanoTime();
+            int turnBytes = 0;
+            for (byte[] data : datas) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                checkEquals(next++, buffer.getInt(), "device " + device + " order");
+                delay.add((now - buffer.getLong()) / 1000);
+                turnBytes += data.length;
+            }
+            reads++;
+            bytes += turnBytes;
+            maxTurnBytes = Math.max(maxTurnBytes, turnBytes);
+            long end = now + turnBytes * RENDER_NANOS_PER_BYTE;
+            while (System.nanoTime() < end)
+                ; // rendering
+        }
+
+        @Override
+        public void onSerialIoError(Exception e) {
+            throw new AssertionError("io error", e);
+        }
+
+        @Override
+        public void onSerialReconnecting(Exception e) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        turns();
+        concurrent();
+    }
+
+    /**
+     * manual executor, one dispatch run at a time
+     */
+    static void turns() throws IOException {
+        ArrayDeque<Runnable> mainThread = new ArrayDeque<>();
+        SessionScheduler scheduler = new SessionScheduler(mainThread::add, SessionScheduler.MAX_BYTES_PER_TURN, Long.MAX_VALUE);
+        List<SerialSession> sessions = new ArrayList<>();
+        List<FakeDevice> devices = new ArrayList<>();
+        List<Receiver> receivers = new ArrayList<>();
+        for (int i = 0; i < DEVICES; i++) {
+            FakeDevice device = new FakeDevice();
+            SerialSession session = new SerialSession("device-" + i, device, scheduler);
+            Receiver receiver = new Receiver(i);
+            session.connect();
+            session.attach(receiver);
+            sessions.add(session);
+            devices.add(device);
+            receivers.add(receiver);
+        }
+        for (int i = 0; i < QUIET_CHUNKS * CHATTY_FACTOR; i++)
+            devices.get(0).send();
+        for (int i = 1; i < DEVICES; i++)
+            for (int j = 0; j < 2; j++)
+                devices.get(i).send();
+
+        int runs = 0;
+        while (!mainThread.isEmpty()) {
+            mainThread.poll().run();
+            runs++;
+            if (runs == 2) { // 1st run delivers connect, 2nd the reads
+                for (int i = 1; i < DEVICES; i++)
+                    checkEquals(2, receivers.get(i).next, "device " + i + " chunks after one turn");
+                check(receivers.get(0).next < QUIET_CHUNKS * CHATTY_FACTOR, "chatty device delivered in one turn");
+            }
+        }
+        long bytes = (long) QUIET_CHUNKS * CHATTY_FACTOR * CHUNK;
+        checkEquals(bytes, receivers.get(0).bytes, "chatty device bytes");
+        check(receivers.get(0).maxTurnBytes <= SessionScheduler.MAX_BYTES_PER_TURN, "bytes per turn " + receivers.get(0).maxTurnBytes);
+        int chunksPerTurn = SessionScheduler.MAX_BYTES_PER_TURN / CHUNK;
+        checkEquals((QUIET_CHUNKS * CHATTY_FACTOR + chunksPerTurn - 1) / chunksPerTurn, receivers.get(0).reads, "chatty device turns");
+        System.out.println(String.format(Locale.US, "turns: %d devices, %d dispatch runs, chatty device in %d turns of up to %d bytes",
+                DEVICES, runs, receivers.get(0).reads, receivers.get(0).maxTurnBytes));
+        for (SerialSession session : sessions)
+            session.disconnect();
+    }
+
+    static void concurrent() throws Exception {
+        ExecutorService mainThread = Executors.newSingleThreadExecutor();
+        SessionScheduler scheduler = new SessionScheduler(mainThread);
+        List<SerialSession> sessions = new ArrayList<>();
+        List<Receiver> receivers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < DEVICES; i++) {
+            FakeDevice device = new FakeDevice();
+            SerialSession session = new SerialSession("device-" + i, device, scheduler);
+            Receiver receiver = new Receiver(i);
+            mainThread.submit(() -> session.attach(receiver)).get();
+            session.connect();
+            session.write(new byte[CHUNK]);
+            sessions.add(session);
+            receivers.add(receiver);
+            boolean chatty = i == 0;
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < QUIET_CHUNKS * (chatty ? CHATTY_FACTOR : 1); j++) {
+                    device.send();
+                    if (!chatty) {
+                        try {
+                            Thread.sleep(QUIET_INTERVAL);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }, "device-" + i));
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (SerialSession.Stats.total(sessions).pendingBytes > 0 && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        mainThread.submit(() -> { }).get(); // last turn finished
+        long nanos = System.nanoTime() - start;
+        mainThread.shutdown();
+
+        SerialSession.Stats total = SerialSession.Stats.total(sessions);
+        long bytes = 0, quietDelay = 0;
+        for (int i = 0; i < DEVICES; i++) {
+            Receiver receiver = receivers.get(i);
+            int chunks = QUIET_CHUNKS * (i == 0 ? CHATTY_FACTOR : 1);
+            checkEquals(chunks, receiver.next, "device " + i + " chunks");
+            checkEquals(1, receiver.connects, "device " + i + " connects");
+            if (i > 0)
+                quietDelay = Math.max(quietDelay, receiver.delay.max);
+            bytes += receiver.bytes;
+        }
+        checkEquals(bytes, total.bytesIn, "total bytes in");
+        checkEquals((long) DEVICES * CHUNK, total.bytesOut, "total bytes out");
+        checkEquals(0, total.pendingBytes, "pending bytes");
+        System.out.println(String.format(Locale.US, "concurrent: %d devices, %.1f kB/s total, %d bytes max pending, %d dispatch runs, %d turns",
+                DEVICES, bytes * 1e6 / nanos, total.maxPendingBytes, scheduler.getDispatches(), scheduler.getTurns()));
+        System.out.println("  quiet device delay " + receivers.get(1).delay + ", max of all quiet devices " + quietDelay + " us");
+        System.out.println("  chatty device delay " + receivers.get(0).delay);
+        check(quietDelay < MAX_QUIET_DELAY, "quiet device delayed by chatty device: " + quietDelay + " us");
+        for (SerialSession session : sessions)
+            session.disconnect();
+    }
+
+}
@@ -0,0 +1,345 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * simulated BLE link to measure throughput and latency of the SerialSocket write path
+ * without device, e.g. on a desktop JVM
+ *
+ * uses the same WriteQueue, GattScheduler and TelitCredits as SerialSocket. Time is virtual
+ * and loss is taken from a seeded Random, so results are deterministic for a given Config.
+ *
+ * model:
+ *   - each connection interval has a connection event with packetsPerInterval slots,
+ *     each slot can transfer one packet per direction
+ *   - lost packets are retransmitted in the next slot, as done by the link layer
+ *   - received packets are processed by phone and device at the end of the connection event,
+ *     so e.g. credit grants triggered by received data are sent in the next connection event
+ *   - like Android, only one GATT operation can be outstanding, starting another one fails
+ *   - write without response finishes when the packet is passed to the controller buffer,
+ *     write with response finishes in the connection event after the packet was received
+ *   - with credits, both sides use Telit TIO credit flow control. Credit grants are
+ *     written with response, like to the Telit credits characteristic
+ */
+class SimulatedLink implements WriteQueue.Link {
+
+    static class Config {
+        int mtu = 247;
+        int connectionIntervalMicros = 7500;
+        int packetsPerInterval = 4;
+        int controllerBuffer = 8;       // packets, for write without response
+        boolean withResponse;
+        boolean credits;                // Telit TIO
+        boolean adaptiveCredits;        // adaptive read credit window, else fixed as before
+        double lossRate;                // per packet
+        long seed = 1;
+        long timeoutMicros = 600 * 1000000L;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "mtu %d, interval %.2f ms, %d packets/interval, %s, %s, loss %.1f%%",
+                    mtu, connectionIntervalMicros / 1000.0, packetsPerInterval,
+                    withResponse ? "with response" : "without response, buffer " + controllerBuffer,
+                    credits ? (adaptiveCredits ? "adaptive credits" : "fixed credits") : "no credits", lossRate * 100);
+        }
+    }
+
+    static class Result {
+        long bytesOut, bytesIn;
+        long micros;
+        boolean timeout;
+        long rejectedOperations; // started while another GATT operation was outstanding
+        long creditGrants;
+        LinkMetrics.Snapshot metrics;
+
+        double throughputOut() { return bytesOut * 1e6 / Math.max(micros, 1); }
+        double throughputIn() { return bytesIn * 1e6 / Math.max(micros, 1); }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s%.3f s, out %.1f kB/s, in %.1f kB/s, %d rejected operations, %d credit grants\n%s",
+                    timeout ? "timeout after " : "", micros / 1e6,
+                    throughputOut() / 1000, throughputIn() / 1000, rejectedOperations, creditGrants, metrics);
+        }
+    }
+
+    private static class Packet {
+        final byte[] data;  // null for credit grant
+        final int grant;
+        long received;
+
+        Packet(byte[] data, int grant) {
+            this.data = data;
+            this.grant = grant;
+        }
+    }
+
+    private static class Task {
+        final long time;
+        final Runnable runnable;
+
+        Task(long time, Runnable runnable) {
+            this.time = time;
+            this.runnable = runnable;
+        }
+    }
+
+    private static final Object DATA = "data", CREDITS = "credits"; // GATT operation targets
+
+    private final Config config;
+    private final Random random;
+    private final LinkMetrics metrics = new LinkMetrics();
+    private final WriteQueue writeQueue;
+    private final GattScheduler scheduler;
+    private final ArrayList<Task> tasks = new ArrayList<>();
+    private final TelitCredits credits;                            // phone
+    private final TelitCredits deviceCredits = new TelitCredits(); // device
+    private final ArrayDeque<Packet> controllerTx = new ArrayDeque<>();
+    private final ArrayDeque<Packet> deviceTx = new ArrayDeque<>();
+    private final ArrayDeque<Packet> awaitingResponse = new ArrayDeque<>(); // acknowledged in next connection event
+    private final ArrayDeque<Packet> phoneReceived = new ArrayDeque<>();
+    private final ArrayDeque<Packet> deviceReceived = new ArrayDeque<>();
+
+    private long now; // ns
+    private Packet pendingWrite;        // GATT operation waiting for controller buffer
+    private Packet pendingResponse;     // GATT operation waiting for response
+    private long bytesOut, bytesIn, readRemaining, rejectedOperations;
+
+    SimulatedLink(Config config) {
+        this.config = config;
+        random = new Random(config.seed);
+        credits = new TelitCredits(config.adaptiveCredits);
+        writeQueue = new WriteQueue(this, metrics, () -> now, config.mtu - 3);
+        writeQueue.setPayloadSize(config.mtu - 3);
+        scheduler = new GattScheduler(new GattScheduler.Timer() {
+            @Override
+            public void schedule(Runnable runnable, long delayMillis) {
+                tasks.add(new Task(now + delayMillis * 1000000, runnable));
+            }
+
+            @Override
+            public void cancel(Runnable runnable) {
+                for(Iterator<Task> it = tasks.iterator(); it.hasNext(); )
+                    if(it.next().runnable == runnable)
+                        it.remove();
+            }
+        }, () -> now, metrics, (operation, e) -> {
+            throw new IllegalStateException(e);
+        });
+    }
+
+    /**
+     * send writeCount writes of writeSize bytes from phone to device
+     * and readBytes in notifications from device to phone
+     */
+    Result run(int writeCount, int writeSize, long readBytes) {
+        long writeBytes = (long) writeCount * writeSize;
+        readRemaining = readBytes;
+        if(config.credits) {
+            grantCredits(credits.onRead(now));
+            deviceTx.add(new Packet(null, deviceCredits.onRead(now)));
+        }
+        byte[] data = new byte[writeSize];
+        for(int i = 0; i < writeCount; i++) {
+            if(!writeQueue.write(data))
+                throw new IllegalStateException("write failed");
+        }
+        long timeout = config.timeoutMicros * 1000;
+        long interval = config.connectionIntervalMicros * 1000L;
+        long slot = interval / Math.max(config.packetsPerInterval, 1);
+        long lastTransfer = 0;
+        while((bytesOut < writeBytes || bytesIn < readBytes) && now < timeout) {
+            long eventStart = now;
+            while(!awaitingResponse.isEmpty())
+                onWriteFinished(awaitingResponse.poll());
+            for(int i = 0; i < config.packetsPerInterval; i++) {
+                now = eventStart + i * slot;
+                runTasks();
+                admit();
+                if(transferOut() | transferIn())
+                    lastTransfer = now + slot;
+            }
+            now = eventStart + (config.packetsPerInterval - 1) * slot;
+            processDevice();
+            processPhone();
+            now = eventStart + interval;
+        }
+        Result result = new Result();
+        result.bytesOut = bytesOut;
+        result.bytesIn = bytesIn;
+        result.timeout = now >= timeout;
+        result.rejectedOperations = rejectedOperations;
+        result.creditGrants = credits.getGrants();
+        result.micros = (result.timeout ? now : lastTransfer) / 1000;
+        result.metrics = metrics.snapshot();
+        result.metrics.nanos = result.micros * 1000;
+        return result;
+    }
+
+    @Override
+    public boolean canWrite() {
+        if(!config.credits || credits.canWrite())
+            return true;
+        metrics.onCreditStall(now);
+        return false;
+    }
+
+    @Override
+    public boolean startWrite(byte[] data) {
+        if(data.length > config.mtu - 3)
+            return false;
+        scheduler.enqueue(new GattScheduler.Operation("write", GattScheduler.PRIORITY_DATA, DATA) {
+            @Override
+            boolean start() {
+                return writeCharacteristic(new Packet(data, 0));
+            }
+        });
+        return true;
+    }
+
+    private void grantCredits(int grant) {
+        scheduler.enqueue(new GattScheduler.Operation("write credits", GattScheduler.PRIORITY_CONTROL, CREDITS) {
+            @Override
+            boolean start() {
+                return writeCharacteristic(new Packet(null, grant));
+            }
+        });
+    }
+
+    /**
+     * fake gatt.writeCharacteristic(), enforcing one outstanding operation
+     */
+    private boolean writeCharacteristic(Packet packet) {
+        if(pendingWrite != null || pendingResponse != null) {
+            rejectedOperations++;
+            return false;
+        }
+        pendingWrite = packet;
+        return true;
+    }
+
+    private boolean withResponse(Packet packet) {
+        return packet.data == null || config.withResponse;
+    }
+
+    /**
+     * pass pending write to controller. Done in a loop instead of recursion from startWrite,
+     * as write without response finishes immediately while the buffer has space
+     */
+    private void admit() {
+        while(pendingWrite != null && controllerTx.size() < config.controllerBuffer) {
+            Packet packet = pendingWrite;
+            controllerTx.add(packet);
+            pendingWrite = null;
+            if(withResponse(packet))
+                pendingResponse = packet;
+            else
+                onWriteFinished(packet);
+        }
+    }
+
+    /**
+     * like SerialSocket.onCharacteristicWrite()
+     */
+    private void onWriteFinished(Packet packet) {
+        if(pendingResponse == packet)
+            pendingResponse = null;
+        scheduler.onComplete(packet.data == null ? CREDITS : DATA);
+        if(packet.data == null) {
+            credits.onGrantWritten(now);
+            return;
+        }
+        if(config.credits)
+            credits.onWrite();
+        if(!writeQueue.onWriteFinished())
+            throw new IllegalStateException("write failed");
+    }
+
+    private void runTasks() {
+        for(int i = 0; i < tasks.size(); ) {
+            Task task = tasks.get(i);
+            if(task.time <= now) {
+                tasks.remove(i);
+                task.runnable.run();
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private boolean transferOut() {
+        Packet packet = controllerTx.peek();
+        if(packet == null || lost())
+            return false;
+        controllerTx.poll();
+        if(withResponse(packet))
+            awaitingResponse.add(packet);
+        if(packet.data != null)
+            bytesOut += packet.data.length;
+        deviceReceived.add(packet);
+        return true;
+    }
+
+    private boolean transferIn() {
+        if(deviceTx.isEmpty() && readRemaining > 0 && (!config.credits || deviceCredits.canWrite())) {
+            int length = (int) Math.min(config.mtu - 3, readRemaining);
+            readRemaining -= length;
+            deviceTx.add(new Packet(new byte[length], 0));
+            if(config.credits)
+                deviceCredits.onWrite();
+        }
+        Packet packet = deviceTx.peek();
+        if(packet == null || lost())
+            return false;
+        deviceTx.poll();
+        if(packet.data != null)
+            bytesIn += packet.data.length;
+        packet.received = now;
+        phoneReceived.add(packet);
+        return true;
+    }
+
+    private void processDevice() {
+        while(!deviceReceived.isEmpty()) {
+            Packet packet = deviceReceived.poll();
+            if(packet.data == null) {
+                deviceCredits.onWriteCreditsGranted(packet.grant);
+            } else if(config.credits) {
+                int grant = deviceCredits.onRead(now);
+                if(grant > 0)
+                    deviceTx.addFirst(new Packet(null, grant));
+            }
+        }
+    }
+
+    /**
+     * like SerialSocket.onCharacteristicChanged(), with original receive time for metrics
+     */
+    private void processPhone() {
+        while(!phoneReceived.isEmpty()) {
+            Packet packet = phoneReceived.poll();
+            if(packet.data == null) {
+                credits.onWriteCreditsGranted(packet.grant);
+                metrics.onCreditResume(now);
+                if(!writeQueue.resume())
+                    throw new IllegalStateException("write failed");
+                continue;
+            }
+            metrics.onRead(packet.data.length, packet.received);
+            if(config.credits) {
+                int grant = credits.onRead(packet.received);
+                if(grant > 0)
+                    grantCredits(grant);
+            }
+        }
+    }
+
+    private boolean lost() {
+        return config.lossRate > 0 && random.nextDouble() < config.lossRate;
+    }
+
+}
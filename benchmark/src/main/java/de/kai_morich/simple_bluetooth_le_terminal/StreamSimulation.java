@@ -0,0 +1,125 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import static de.kai_morich.simple_bluetooth_le_terminal.Checks.checkEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * StreamVerifier against counter streams with injected gaps, duplicates and reordering
+ *
+ *   ./gradlew :benchmark:simulateStream
+ *
+ * the stream is fed in random chunks of 1 to 244 bytes. Errors are injected at least SPACING
+ * lines apart, so each is counted on its own and the expected counters are known exactly.
+ */
+public class StreamSimulation {
+
+    static final int LINES = 100_000;
+    static final int SPACING = 10;
+
+    private final Random random = new Random(1);
+
+    public static void main(String[] args) {
+        StreamSimulation simulation = new StreamSimulation();
+        simulation.run("clean", 0x1234, 0, 0, 0);
+        simulation.run("gaps", 0, 0.05, 0, 0);
+        simulation.run("duplicates", 0, 0, 0.05, 0);
+        simulation.run("reordering", 0, 0, 0, 0.05);
+        simulation.run("mixed", 0, 0.03, 0.03, 0.03);
+        simulation.run("wrap", 0xffffffffL - LINES / 2 - SPACING / 2, 0.03, 0.03, 0.03); // wraps between injected errors
+        simulation.restart();
+    }
+
+    /**
+     * drop, duplicate and swap are probabilities per SPACING lines
+     */
+    void run(String name, long first, double drop, double duplicate, double swap) {
+        List<Long> values = new ArrayList<>();
+        long[] expected = new long[StreamVerifier.COUNTERS];
+        for (int i = 0; i < LINES; i += SPACING) {
+            double r = random.nextDouble();
+            int emitFrom = i;
+            if (i > 0 && r < drop) {
+                int k = 1 + random.nextInt(SPACING / 2);
+                expected[StreamVerifier.GAPS]++;
+                expected[StreamVerifier.MISSING] += k;
+                emitFrom = i + k;
+            } else if (i > 0 && (r -= drop) < duplicate) {
+                values.add(value(first, i));
+                values.add(value(first, i));
+                expected[StreamVerifier.DUPLICATES]++;
+                emitFrom = i + 1;
+            } else if (i > 0 && (r -= duplicate) < swap) {
+                values.add(value(first, i + 1));
+                values.add(value(first, i));
+                expected[StreamVerifier.GAPS]++;
+                expected[StreamVerifier.REORDERED]++;
+                emitFrom = i + 2;
+            }
+            for (int j = emitFrom; j < i + SPACING; j++)
+                values.add(value(first, j));
+        }
+        expected[StreamVerifier.VALUES] = values.size();
+        byte[] stream = lines(values);
+        expected[StreamVerifier.BYTES] = stream.length;
+
+        StreamVerifier verifier = new StreamVerifier();
+        feed(verifier, stream);
+        long[] counters = new long[StreamVerifier.COUNTERS];
+        verifier.snapshot(counters);
+        System.out.println(name + ": " + format(counters));
+        for (int i = 0; i < StreamVerifier.COUNTERS; i++)
+            checkEquals(expected[i], counters[i], name + " " + format(expected) + ", counter " + i);
+    }
+
+    /**
+     * device restarts the counter, neither duplicates nor gaps
+     */
+    void restart() {
+        List<Long> values = new ArrayList<>();
+        for (int i = 0; i < LINES / 2; i++)
+            values.add(0x100000L + i);
+        for (int i = 0; i < LINES / 2; i++)
+            values.add((long) i);
+        StreamVerifier verifier = new StreamVerifier();
+        feed(verifier, lines(values));
+        long[] counters = new long[StreamVerifier.COUNTERS];
+        verifier.snapshot(counters);
+        System.out.println("restart: " + format(counters));
+        checkEquals(LINES, counters[StreamVerifier.VALUES], "restart values");
+        for (int i = StreamVerifier.GAPS; i < StreamVerifier.COUNTERS; i++)
+            checkEquals(0, counters[i], "restart counter " + i);
+    }
+
+    private static long value(long first, int i) {
+        return (first + i) & 0xffffffffL;
+    }
+
+    private static byte[] lines(List<Long> values) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (long value : values)
+            out.write(String.format(Locale.US, "%08x\n", value).getBytes(StandardCharsets.US_ASCII), 0, StreamVerifier.DIGITS + 1);
+        return out.toByteArray();
+    }
+
+    private void feed(StreamVerifier verifier, byte[] stream) {
+        for (int pos = 0; pos < stream.length; ) {
+            int len = Math.min(stream.length - pos, 1 + random.nextInt(244));
+            verifier.onReceive(Arrays.copyOfRange(stream, pos, pos + len));
+            pos += len;
+        }
+    }
+
+    private static String format(long[] counters) {
+        return String.format(Locale.US, "%d values, %d gaps (%d missing), %d reordered, %d duplicates, %d corrupt",
+                counters[StreamVerifier.VALUES], counters[StreamVerifier.GAPS], counters[StreamVerifier.MISSING],
+                counters[StreamVerifier.REORDERED], counters[StreamVerifier.DUPLICATES], counters[StreamVerifier.CORRUPT]);
+    }
+
+}
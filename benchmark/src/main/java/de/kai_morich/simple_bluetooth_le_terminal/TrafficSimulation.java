@@ -0,0 +1,167 @@
+package de.kai_morich.simple_bluetooth_le_terminal;
+
+import static de.kai_morich.simple_bluetooth_le_terminal.Checks.check;
+import static de.kai_morich.simple_bluetooth_le_terminal.Checks.checkEquals;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * latency from a traffic light change on a local stand-in for the ESP32 server until
+ * TrafficChannel reports it, with push and with fallback to polling
+ *
+ *   ./gradlew :benchmark:simulateTraffic
+ *
+ * the server serves /json like the ESP32 firmware and /events as server-sent events with a
+ * keepalive every KEEPALIVE. For the poll run /events is not found. The value changes
+ * CHANGES times in random intervals between 200 and 1000 ms. Real time, on loopback.
+ *
+ * afterwards the channel is stopped and started FLAPS times in a row, like on a Wi-Fi flap.
+ * Checks that only one TrafficChannel thread is left and, with push, that cancelled requests
+ * are not counted as errors.
+ */
+public class TrafficSimulation {
+
+    static final int CHANGES = 30;
+    static final long KEEPALIVE = 1000; // ms
+    static final int FLAPS = 5;
+
+    private final boolean push;
+    private final Object lock = new Object();
+    private int value = 100;
+    private int version;
+    private long changeTime; // System.nanoTime
+    private volatile boolean running = true;
+
+    TrafficSimulation(boolean push) {
+        this.push = push;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("push: " + new TrafficSimulation(true).run());
+        System.out.println("poll: " + new TrafficSimulation(false).run());
+    }
+
+    String run() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/json", this::json);
+        server.createContext("/events", this::events);
+        server.start();
+
+        LinkMetrics.Histogram latency = new LinkMetrics.Histogram();
+        int[] received = new int[1];
+        TrafficChannel channel = new TrafficChannel(new OkHttpClient(), "http://127.0.0.1:" + server.getAddress().getPort(),
+                (state, changed) -> {
+                    if (!changed)
+                        return;
+                    synchronized (lock) {
+                        if (state.value == value && received[0] != version) {
+                            received[0] = version;
+                            latency.add((System.nanoTime() - changeTime) / 1000);
+                        }
+                    }
+                }, WriteQueue.SYSTEM_CLOCK);
+        channel.start();
+        Thread.sleep(1000); // connected and initial state received
+
+        Random random = new Random(1);
+        for (int i = 0; i < CHANGES; i++) {
+            Thread.sleep(200 + random.nextInt(800));
+            synchronized (lock) {
+                value = value > TrafficChannel.GREEN_THRESHOLD ? 100 : 900;
+                version++;
+                changeTime = System.nanoTime();
+                lock.notifyAll();
+            }
+        }
+        Thread.sleep(1000);
+        flap(channel);
+
+        channel.stop();
+        running = false;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        server.stop(0);
+        executor.shutdownNow();
+        return channel.getStats() + "\n  change to listener " + latency;
+    }
+
+    private void flap(TrafficChannel channel) throws InterruptedException {
+        long errors = channel.getErrors();
+        for (int i = 0; i < FLAPS; i++) {
+            channel.stop();
+            channel.start();
+        }
+        Thread.sleep(1000);
+        int threads = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+            if (thread.getName().equals("TrafficChannel"))
+                threads++;
+        checkEquals(1, threads, "TrafficChannel threads after stop and start");
+        if (push) // without /events each start counts a failed push
+            checkEquals(errors, channel.getErrors(), "errors after stop and start");
+        TrafficChannel.State state = channel.getState();
+        check(state != null && !state.isStale(System.nanoTime()), "no state after stop and start");
+    }
+
+    private void json(HttpExchange exchange) throws IOException {
+        int v;
+        synchronized (lock) {
+            v = value;
+        }
+        byte[] body = ("{\"value\":" + v + "}").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void events(HttpExchange exchange) throws IOException {
+        if (!push) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            int sent = -1;
+            while (running) {
+                String event;
+                synchronized (lock) {
+                    if (sent == version) {
+                        try {
+                            lock.wait(KEEPALIVE);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (sent != version) {
+                        sent = version;
+                        event = "data: {\"value\":" + value + "}\n\n";
+                    } else {
+                        event = ":\n\n";
+                    }
+                }
+                out.write(event.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        } catch (IOException ignored) {
+            // client disconnected
+        }
+    }
+}